@@ -2,5 +2,5 @@ module metamorphosis {
     requires jdk.unsupported;
     requires slf4j.api;
     requires metadata.extractor;
-    requires heif.api;
+    requires java.desktop;
 }
\ No newline at end of file
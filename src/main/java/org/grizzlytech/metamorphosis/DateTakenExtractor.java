@@ -0,0 +1,140 @@
+package org.grizzlytech.metamorphosis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Extract the date taken for media files concurrently, so that sorting never has to touch the file system.
+ * <p>
+ * The number of worker threads and the number of files in flight (submitted but not yet extracted) are bounded.
+ * Submitting blocks once the in-flight limit is reached, which keeps memory flat however many files are fed in.
+ */
+public class DateTakenExtractor implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DateTakenExtractor.class);
+
+    /**
+     * System property overriding the number of extraction threads
+     */
+    public static final String THREADS_PROPERTY = "metamorphosis.extract.threads";
+
+    /**
+     * System property overriding the maximum number of files in flight
+     */
+    public static final String IN_FLIGHT_PROPERTY = "metamorphosis.extract.inFlight";
+
+    private final ExecutorService executor;
+
+    private final Semaphore inFlight;
+
+    private final int maxInFlight;
+
+    private final AtomicInteger extracted = new AtomicInteger();
+
+    private final long startTime = System.nanoTime();
+
+    public DateTakenExtractor(int threads, int maxInFlight) {
+        if (threads < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("threads and maxInFlight must be positive");
+        }
+        this.executor = Executors.newFixedThreadPool(threads, newThreadFactory());
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        LOG.info("Extracting dates [threads={} maxInFlight={}]", threads, maxInFlight);
+    }
+
+    /**
+     * @return an extractor sized from system properties, defaulting to one thread per processor
+     */
+    public static DateTakenExtractor fromSystemProperties() {
+        int threads = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+        int maxInFlight = Integer.getInteger(IN_FLIGHT_PROPERTY, threads * 64);
+        return new DateTakenExtractor(threads, maxInFlight);
+    }
+
+    /**
+     * Extract the date taken for every file, returning only once all are complete
+     *
+     * @param files files to examine
+     */
+    public static void extractAll(FileInfo[] files) {
+        try (DateTakenExtractor extractor = fromSystemProperties()) {
+            for (FileInfo info : files) {
+                extractor.submit(info);
+            }
+            extractor.awaitCompletion();
+        }
+    }
+
+    /**
+     * Queue a file for extraction, blocking while the in-flight limit is reached
+     *
+     * @param info file to examine
+     */
+    public void submit(FileInfo info) {
+        submit(info, null);
+    }
+
+    /**
+     * Queue a file for extraction, blocking while the in-flight limit is reached
+     *
+     * @param info        file to examine
+     * @param onExtracted called (from a worker thread) once the date taken is known, or null
+     */
+    public void submit(FileInfo info, Consumer<FileInfo> onExtracted) {
+        inFlight.acquireUninterruptibly();
+        try {
+            executor.execute(() -> {
+                try {
+                    info.extractDateTaken();
+                    if (onExtracted != null) {
+                        onExtracted.accept(info);
+                    }
+                    int count = extracted.incrementAndGet();
+                    if (count % 1000 == 0) {
+                        LOG.info(" Checkpoint [extracted={}]", count);
+                    }
+                } catch (RuntimeException ex) {
+                    LOG.error("Extraction failed for {}", info.getSourcePath(), ex);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException ex) {
+            inFlight.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Block until every submitted file has been extracted
+     */
+    public void awaitCompletion() {
+        // All permits are only available once nothing is in flight
+        inFlight.acquireUninterruptibly(maxInFlight);
+        inFlight.release(maxInFlight);
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        LOG.info("Extracted [fileCount={} elapsedMillis={}]", extracted.get(), elapsedMillis);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        AtomicInteger threadId = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, "extract-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,270 @@
+package org.grizzlytech.metamorphosis;
+
+import org.grizzlytech.metamorphosis.util.ConcurrentIndex;
+import org.grizzlytech.metamorphosis.util.StorageDevices;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Compute content keys (digests) for many files concurrently, with the concurrency limited per device.
+ * <p>
+ * Each FileStore gets its own worker pool: several readers for solid state storage, but only one or two for a
+ * spinning disk, where parallel readers just seek back and forth. Hashing time so scales with the number of
+ * devices rather than the number of files. As with DateTakenExtractor, the number of files in flight is bounded, and
+ * bounded per device, so that a slow disk holding all its permits never leaves the workers of a fast one idle.
+ */
+public class DigestExtractor implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DigestExtractor.class);
+
+    /**
+     * System property overriding the number of readers per solid state device
+     */
+    public static final String SSD_THREADS_PROPERTY = "metamorphosis.hash.ssdThreads";
+
+    /**
+     * System property overriding the number of readers per rotational device
+     */
+    public static final String HDD_THREADS_PROPERTY = "metamorphosis.hash.hddThreads";
+
+    /**
+     * Stands in for a FileStore that could not be determined
+     */
+    private static final Object UNKNOWN_STORE = new Object();
+
+    private final int ssdThreads;
+
+    private final int hddThreads;
+
+    private final int maxInFlight;
+
+    /**
+     * Maps a file to its store: a FileStore, UNKNOWN_STORE, or (in tests) any other key
+     */
+    private final Function<Path, Object> storeOf;
+
+    /**
+     * Device per FileStore (or UNKNOWN_STORE)
+     */
+    private final Map<Object, Device> devices = new ConcurrentHashMap<>();
+
+    private final Map<Path, FileStore> stores = new ConcurrentHashMap<>();
+
+    /**
+     * Released as each file completes, on any device (see submitAll)
+     */
+    private final Semaphore completions = new Semaphore(0);
+
+    private final AtomicInteger hashed = new AtomicInteger();
+
+    /**
+     * @param ssdThreads  readers per solid state device
+     * @param hddThreads  readers per rotational device (or device of unknown type)
+     * @param maxInFlight maximum number of files queued or being hashed, per device
+     */
+    public DigestExtractor(int ssdThreads, int hddThreads, int maxInFlight) {
+        this(ssdThreads, hddThreads, maxInFlight, null);
+    }
+
+    DigestExtractor(int ssdThreads, int hddThreads, int maxInFlight, Function<Path, Object> storeOf) {
+        if (ssdThreads < 1 || hddThreads < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("ssdThreads, hddThreads and maxInFlight must be positive");
+        }
+        this.ssdThreads = ssdThreads;
+        this.hddThreads = hddThreads;
+        this.maxInFlight = maxInFlight;
+        this.storeOf = (storeOf != null) ? storeOf : this::fileStoreOf;
+    }
+
+    /**
+     * @return an extractor sized from system properties, defaulting to one reader per processor on solid state
+     * devices and a single reader on rotational ones
+     */
+    public static DigestExtractor fromSystemProperties() {
+        int ssdThreads = Integer.getInteger(SSD_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+        int hddThreads = Integer.getInteger(HDD_THREADS_PROPERTY, 1);
+        return new DigestExtractor(ssdThreads, hddThreads, Math.max(ssdThreads, hddThreads) * 64);
+    }
+
+    /**
+     * Index every file by its key, computing the keys concurrently. Files whose key is null (unreadable) are left out
+     *
+     * @param files files to index
+     * @param key   key function, typically a digest of the file content (called from worker threads)
+     * @return the populated index
+     */
+    public static <K> ConcurrentIndex<K, FileInfo> indexAll(Collection<FileInfo> files, Function<FileInfo, K> key) {
+        ConcurrentIndex<K, FileInfo> index = new ConcurrentIndex<>(FileInfo::compareTo);
+        try (DigestExtractor extractor = fromSystemProperties()) {
+            extractor.submitAll(files, key, index);
+            extractor.awaitCompletion();
+        }
+        return index;
+    }
+
+    /**
+     * Compute the content digest of every file concurrently (each FileInfo keeps its own)
+     *
+     * @param files files to digest
+     */
+    public static void digestAll(Collection<FileInfo> files) {
+        indexAll(files, info -> {
+            info.getDigest();
+            return null;
+        });
+    }
+
+    /**
+     * Queue a file, blocking while its device's in-flight limit is reached
+     */
+    public <K> void submit(FileInfo info, Function<FileInfo, K> key, ConcurrentIndex<K, FileInfo> index) {
+        Device device = deviceFor(info.getSourcePath());
+        device.inFlight.acquireUninterruptibly();
+        execute(device, info, key, index);
+    }
+
+    /**
+     * Queue many files, feeding each device as fast as its own in-flight limit allows: a run of files on a device
+     * at its limit does not hold back those on the others. Blocks until every file is queued
+     */
+    public <K> void submitAll(Collection<FileInfo> files, Function<FileInfo, K> key,
+                              ConcurrentIndex<K, FileInfo> index) {
+        Map<Device, ArrayDeque<FileInfo>> pending = new LinkedHashMap<>();
+        for (FileInfo info : files) {
+            pending.computeIfAbsent(deviceFor(info.getSourcePath()), d -> new ArrayDeque<>()).add(info);
+        }
+        completions.drainPermits();
+        while (!pending.isEmpty()) {
+            boolean queued = false;
+            for (Iterator<Map.Entry<Device, ArrayDeque<FileInfo>>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Device, ArrayDeque<FileInfo>> entry = it.next();
+                Device device = entry.getKey();
+                ArrayDeque<FileInfo> queue = entry.getValue();
+                while (!queue.isEmpty() && device.inFlight.tryAcquire()) {
+                    execute(device, queue.poll(), key, index);
+                    queued = true;
+                }
+                if (queue.isEmpty()) {
+                    it.remove();
+                }
+            }
+            if (!queued && !pending.isEmpty()) {
+                // Every device with files left is at its limit: wait for any file to complete
+                completions.acquireUninterruptibly();
+            }
+        }
+    }
+
+    /**
+     * Hash a file on its device, whose in-flight permit the caller holds
+     */
+    private <K> void execute(Device device, FileInfo info, Function<FileInfo, K> key,
+                             ConcurrentIndex<K, FileInfo> index) {
+        try {
+            device.executor.execute(() -> {
+                try {
+                    K k = key.apply(info);
+                    if (k != null) {
+                        index.insert(k, info);
+                    }
+                    hashed.incrementAndGet();
+                } catch (RuntimeException ex) {
+                    LOG.error("Hashing failed for {}", info.getSourcePath(), ex);
+                } finally {
+                    device.inFlight.release();
+                    completions.release();
+                }
+            });
+        } catch (RuntimeException ex) {
+            device.inFlight.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Block until every submitted file has been hashed
+     */
+    public void awaitCompletion() {
+        // All of a device's permits are only available once nothing is in flight on it
+        for (Device device : devices.values()) {
+            device.inFlight.acquireUninterruptibly(maxInFlight);
+            device.inFlight.release(maxInFlight);
+        }
+    }
+
+    @Override
+    public void close() {
+        devices.values().forEach(device -> device.executor.shutdown());
+        LOG.info("Hashed [fileCount={} devices={}]", hashed.get(), devices.size());
+    }
+
+    private Device deviceFor(Path file) {
+        Object store = storeOf.apply(file);
+        return devices.computeIfAbsent(store, s -> {
+            if (store == UNKNOWN_STORE) {
+                // Treat as a device of its own, read by a single thread
+                return new Device(newExecutor("unknown", hddThreads), maxInFlight);
+            } else if (!(store instanceof FileStore)) {
+                return new Device(newExecutor(store.toString(), hddThreads), maxInFlight);
+            }
+            boolean rotational = StorageDevices.isRotational((FileStore) store);
+            int threads = rotational ? hddThreads : ssdThreads;
+            LOG.info("Hashing [store={} rotational={} threads={}]", store, rotational, threads);
+            return new Device(newExecutor(((FileStore) store).name(), threads), maxInFlight);
+        });
+    }
+
+    private Object fileStoreOf(Path file) {
+        // Look the store up once per directory, not once per file
+        Path dir = file.toAbsolutePath().getParent();
+        FileStore store = stores.computeIfAbsent(dir, d -> {
+            try {
+                return Files.getFileStore(d);
+            } catch (IOException ex) {
+                LOG.warn("Unable to find the file store of {}", d, ex);
+                return null;
+            }
+        });
+        return (store != null) ? store : UNKNOWN_STORE;
+    }
+
+    private static ExecutorService newExecutor(String device, int threads) {
+        AtomicInteger threadId = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "hash-" + device + "-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(threads, factory);
+    }
+
+    /**
+     * A device's worker pool, with its own bound on the files in flight
+     */
+    private static final class Device {
+        private final ExecutorService executor;
+        private final Semaphore inFlight;
+
+        Device(ExecutorService executor, int maxInFlight) {
+            this.executor = executor;
+            this.inFlight = new Semaphore(maxInFlight);
+        }
+    }
+}
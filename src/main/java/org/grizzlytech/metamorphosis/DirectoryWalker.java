@@ -0,0 +1,135 @@
+package org.grizzlytech.metamorphosis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Walk a directory tree with many directories listed at once, handing each supported media file on as soon as it is
+ * found (so metadata extraction overlaps with discovery).
+ * <p>
+ * Each directory is a fork/join task that lists its entries, reading each entry's attributes once, and forks a task
+ * per subdirectory. The pool's parallelism bounds the number of directories being listed, which is what hides
+ * readdir latency on network storage. As with Files.walkFileTree, symbolic links are not followed. Any file system
+ * can be walked, for example a zip archive's (see FileSystems.newFileSystem).
+ */
+public class DirectoryWalker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DirectoryWalker.class);
+
+    /**
+     * System property overriding the number of directories listed concurrently
+     */
+    public static final String THREADS_PROPERTY = "metamorphosis.walk.threads";
+
+    /**
+     * System property limiting the depth of the walk (1 lists the root directory only)
+     */
+    public static final String MAX_DEPTH_PROPERTY = "metamorphosis.walk.maxDepth";
+
+    /**
+     * Listing is bound by latency rather than CPU
+     */
+    private static final int DEFAULT_THREADS = 16;
+
+    private final int maxInFlight;
+
+    private final int maxDepth;
+
+    private final AtomicInteger directories = new AtomicInteger();
+
+    private final AtomicInteger files = new AtomicInteger();
+
+    public DirectoryWalker(int maxInFlight, int maxDepth) {
+        if (maxInFlight < 1 || maxDepth < 1) {
+            throw new IllegalArgumentException("maxInFlight and maxDepth must be positive");
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @return a walker configured from system properties, defaulting to an unlimited depth
+     */
+    public static DirectoryWalker fromSystemProperties() {
+        return new DirectoryWalker(Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS),
+                Integer.getInteger(MAX_DEPTH_PROPERTY, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Walk the tree, returning once every directory has been listed
+     *
+     * @param root tree to walk
+     * @param sink receives each supported media file (called concurrently, from the walker's threads)
+     */
+    public void walk(Path root, Consumer<FileInfo> sink) {
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(maxInFlight);
+        try {
+            pool.invoke(new ListTask(root, 0, sink));
+        } finally {
+            pool.shutdown();
+        }
+        LOG.info("Walked [{}] [directories={} files={} threads={} elapsedMillis={}]", root, directories.get(),
+                files.get(), maxInFlight, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private class ListTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final int depth;
+        private final Consumer<FileInfo> sink;
+
+        ListTask(Path dir, int depth, Consumer<FileInfo> sink) {
+            this.dir = dir;
+            this.depth = depth;
+            this.sink = sink;
+        }
+
+        @Override
+        protected void compute() {
+            List<ListTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException ex) {
+                        LOG.error("Unable to scan [{}]: {}", entry, ex.toString());
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        if (depth + 1 < maxDepth) {
+                            subdirectories.add(new ListTask(entry, depth + 1, sink));
+                        }
+                    } else if (attrs.isRegularFile() && isSupported(entry)) {
+                        files.incrementAndGet();
+                        sink.accept(new FileInfo(entry, attrs));
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException ex) {
+                LOG.error("Unable to list [{}]: {}", dir, ex.toString());
+            }
+            directories.incrementAndGet();
+            invokeAll(subdirectories);
+        }
+    }
+
+    private static boolean isSupported(Path path) {
+        return FileMetadata.isSupported(path.getFileName().toString());
+    }
+}
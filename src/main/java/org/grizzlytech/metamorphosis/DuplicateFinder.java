@@ -0,0 +1,177 @@
+package org.grizzlytech.metamorphosis;
+
+import org.grizzlytech.metamorphosis.digest.ContentDigest;
+import org.grizzlytech.metamorphosis.digest.DigestEngine;
+import org.grizzlytech.metamorphosis.util.ConcurrentIndex;
+import org.grizzlytech.metamorphosis.util.LongIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Find duplicate media files in tiers, so that full content hashing is reserved for likely duplicates:
+ * <ol>
+ * <li>date taken and exact file size (no I/O)</li>
+ * <li>partial digest of the first, middle and last blocks</li>
+ * <li>full content digest, only for groups that survive the partial digest</li>
+ * </ol>
+ * The bytes read by each stage are logged, to show what the earlier stages save.
+ */
+public class DuplicateFinder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DuplicateFinder.class);
+
+    /**
+     * Bytes sampled from each of the start, middle and end of a file by the partial digest
+     */
+    public static final int PARTIAL_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Find all duplicates in the directory. Duplicates are required to have the same content digest.
+     *
+     * @param files media files to examine
+     * @return [0] actual duplicates and [1] false positives (same date and size, different content), grouped
+     */
+    public static List<List<FileInfo>>[] findDuplicates(FileInfo[] files) {
+        return findDuplicates(FileTable.of(files));
+    }
+
+    /**
+     * Find all duplicates among the table's files. The first stage works on the table's columns alone; only files
+     * sharing a date and size are materialised as FileInfo. Full digests computed here are stored in the table.
+     *
+     * @param table media files to examine
+     * @return [0] actual duplicates and [1] false positives (same date and size, different content), grouped
+     */
+    public static List<List<FileInfo>>[] findDuplicates(FileTable table) {
+        // Stage 1: index of all media with the same date taken and file size (undated, empty files are left out)
+        LongIndex dateAndSizeIndex = new LongIndex(table.size());
+
+        LOG.info("Indexing [fileCount={}]", table.size());
+        for (int row = 0; row < table.size(); row++) {
+            if (table.hasDateTaken(row)) {
+                dateAndSizeIndex.insert(getDateAndSizeKey(table.getLocalEpochDay(row), table.getFileLength(row)), row);
+            }
+        }
+        LOG.info("Date and size index [keys={} rows={} memoryBytes={}]", dateAndSizeIndex.getKeyCount(),
+                dateAndSizeIndex.getRowCount(), dateAndSizeIndex.getMemoryBytes());
+        Map<Integer, FileInfo> candidates = new HashMap<>();
+        List<FileInfo> dateAndSizeCollisions = new ArrayList<>();
+        dateAndSizeIndex.forEachCollision((key, first, size) -> {
+            for (int row = first; row >= 0; row = dateAndSizeIndex.nextRow(row)) {
+                FileInfo info = table.toFileInfo(row);
+                candidates.put(row, info);
+                dateAndSizeCollisions.add(info);
+            }
+        });
+        long candidateBytes = totalLength(dateAndSizeCollisions);
+        logStage("dateAndSize", dateAndSizeCollisions.size(), 0, candidateBytes);
+
+        // Stage 2: split each group by a digest of sampled blocks, dropping files left on their own
+        // (both hashing stages run concurrently, with readers limited per device)
+        ConcurrentIndex<PartialKey, FileInfo> partialIndex = DigestExtractor.indexAll(dateAndSizeCollisions,
+                info -> new PartialKey(getDateAndSizeKey(info), getPartialDigest(info)));
+        long partialBytes = dateAndSizeCollisions.stream()
+                .mapToLong(info -> DigestEngine.getPartialDigestLength(info.getFileLength(), PARTIAL_BLOCK_SIZE)).sum();
+        List<FileInfo> partialCollisions = partialIndex.getCollisions();
+        logStage("partial", partialCollisions.size(), partialBytes, candidateBytes);
+
+        // Stage 3: re-index the surviving candidates using the full digest, which looks at the whole file content
+        // (files small enough to have been read whole by stage 2 already hold it, and are not read again)
+        long fullBytes = partialCollisions.stream().mapToLong(FileInfo::getFileLength)
+                .filter(length -> !DigestEngine.isPartialDigestFull(length, PARTIAL_BLOCK_SIZE)).sum();
+        ConcurrentIndex<ContentDigest, FileInfo> digestIndex =
+                DigestExtractor.indexAll(partialCollisions, FileInfo::getDigest);
+        List<FileInfo> digestCollisions = digestIndex.getCollisions();
+        logStage("full", digestCollisions.size(), fullBytes, candidateBytes);
+        for (FileInfo info : partialCollisions) {
+            table.setDigest(info.getRow(), info.getDigest());
+        }
+
+        // Set aside digest collisions to leave "false positives"
+        Set<FileInfo> duplicates = new HashSet<>(digestCollisions);
+        List<List<FileInfo>> falsePositives = new ArrayList<>();
+        dateAndSizeIndex.forEachCollision((key, first, size) -> {
+            List<FileInfo> group = new ArrayList<>(size);
+            for (int row = first; row >= 0; row = dateAndSizeIndex.nextRow(row)) {
+                if (!duplicates.contains(candidates.get(row))) {
+                    group.add(candidates.get(row));
+                }
+            }
+            if (group.size() > 1) {
+                falsePositives.add(group);
+            }
+        });
+
+        return new List[]{digestIndex.getGroupedCollisions(), falsePositives};
+    }
+
+    static long getDateAndSizeKey(FileInfo info) {
+        return getDateAndSizeKey(info.getLocalEpochDay(), info.getFileLength());
+    }
+
+    /**
+     * Pack the local date taken and the file size into one key: epoch day in the top 24 bits, size in the low 40.
+     * Sizes beyond 1 TB wrap, which can only merge groups, never split them (later stages compare content)
+     */
+    static long getDateAndSizeKey(long localEpochDay, long fileLength) {
+        return ((localEpochDay & 0xFFFFFFL) << 40) | (fileLength & 0xFF_FFFF_FFFFL);
+    }
+
+    private static ContentDigest getPartialDigest(FileInfo info) {
+        try {
+            ContentDigest digest = DigestEngine.partialDigest(info.getSourcePath(), PARTIAL_BLOCK_SIZE);
+            if (DigestEngine.isPartialDigestFull(info.getFileLength(), PARTIAL_BLOCK_SIZE)) {
+                info.setDigest(digest);
+            }
+            return digest;
+        } catch (IOException ex) {
+            LOG.error("Error building partial digest for {}", info.getSourcePath(), ex);
+            // Keep the file as a candidate (null digest), leaving the decision to the full digest
+            return null;
+        }
+    }
+
+    private static long totalLength(List<FileInfo> files) {
+        return files.stream().mapToLong(FileInfo::getFileLength).sum();
+    }
+
+    /**
+     * Partial digest within a date and size group
+     */
+    private static final class PartialKey {
+        private final long dateAndSize;
+        private final ContentDigest digest;
+
+        PartialKey(long dateAndSize, ContentDigest digest) {
+            this.dateAndSize = dateAndSize;
+            this.digest = digest;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PartialKey that = (PartialKey) o;
+            return dateAndSize == that.dateAndSize && Objects.equals(digest, that.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(dateAndSize, digest);
+        }
+    }
+
+    private static void logStage(String stage, int survivors, long bytesRead, long candidateBytes) {
+        LOG.info("Duplicate stage [stage={} survivors={} bytesRead={} candidateBytes={}]",
+                stage, survivors, bytesRead, candidateBytes);
+    }
+}
@@ -1,10 +1,18 @@
 package org.grizzlytech.metamorphosis;
 
-import org.grizzlytech.metamorphosis.util.MD5Checksum;
+import org.grizzlytech.metamorphosis.cache.MetadataCache;
+import org.grizzlytech.metamorphosis.digest.ContentDigest;
+import org.grizzlytech.metamorphosis.digest.DigestAlgorithm;
+import org.grizzlytech.metamorphosis.digest.DigestEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.Objects;
@@ -15,10 +23,21 @@ import java.util.Objects;
 public class FileInfo implements Comparable<FileInfo> {
     private static final Logger LOG = LoggerFactory.getLogger(FileInfo.class);
 
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneId.systemDefault());
+
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    /**
+     * Optional cache consulted before examining file content (null when caching is disabled)
+     */
+    private static MetadataCache metadataCache;
+
     /**
-     * The file who metadata will be examined
+     * The file who metadata will be examined (on any file system, for example inside a zip archive)
      */
-    private File sourceFile;
+    private Path sourcePath;
 
     private File targetFile;
 
@@ -29,26 +48,89 @@ public class FileInfo implements Comparable<FileInfo> {
 
     private long fileLength = -1;
 
-    private String md5Checksum = null;
+    /**
+     * Content digest, computed on first use (see DigestEngine)
+     */
+    private ContentDigest digest = null;
+
+    /**
+     * File attributes, as captured by the scan (else read once on first use)
+     */
+    private BasicFileAttributes attributes;
 
     /**
      * Relative position of the file (post sorting)
      */
     private int position;
 
+    /**
+     * Row in the FileTable this was materialised from, else -1
+     */
+    private int row = -1;
+
     public FileInfo(File sourceFile) {
         setSourceFile(sourceFile);
     }
 
+    /**
+     * @param sourceFile the file
+     * @param attributes its attributes, already read (for example by a directory walk), so no further stat is needed
+     */
+    public FileInfo(File sourceFile, BasicFileAttributes attributes) {
+        this(sourceFile.toPath(), attributes);
+    }
+
+    /**
+     * @param sourcePath the file, on any file system
+     * @param attributes its attributes, already read (for example by a directory walk)
+     */
+    public FileInfo(Path sourcePath, BasicFileAttributes attributes) {
+        this.sourcePath = sourcePath;
+        this.attributes = attributes;
+        this.fileLength = attributes.size();
+    }
+
+    /**
+     * A view of a FileTable row, whose date taken is already known
+     */
+    FileInfo(Path sourcePath, long fileLength, Instant dateTaken, int row) {
+        this.sourcePath = sourcePath;
+        this.fileLength = fileLength;
+        this.dateTaken = dateTaken;
+        this.row = row;
+    }
+
+    public static MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    public static void setMetadataCache(MetadataCache metadataCache) {
+        FileInfo.metadataCache = metadataCache;
+    }
+
     // Getters and Setters
 
+    /**
+     * @return the source as a File (only for files on the default file system, see getSourcePath)
+     */
     public File getSourceFile() {
-        return this.sourceFile;
+        return this.sourcePath.toFile();
     }
 
     public void setSourceFile(File sourceFile) {
-        this.sourceFile = sourceFile;
-        this.fileLength = this.sourceFile.length();
+        this.sourcePath = sourceFile.toPath();
+        this.fileLength = sourceFile.length();
+    }
+
+    public Path getSourcePath() {
+        return this.sourcePath;
+    }
+
+    /**
+     * @return true if the file is on the default file system (so can be renamed, cached and catalogued)
+     */
+    public boolean isLocal() {
+        return sourcePath.getFileSystem() == FileSystems.getDefault();
     }
 
     public File getTargetFile() {
@@ -60,35 +142,115 @@ public class FileInfo implements Comparable<FileInfo> {
     }
 
     public String getSourceFileName() {
-        return this.sourceFile.getName();
+        return this.sourcePath.getFileName().toString();
     }
 
     public Instant getDateTaken() {
+        extractDateTaken();
+        return this.dateTaken;
+    }
+
+    /**
+     * Read the date taken from the file metadata, unless already known.
+     * Called ahead of sorting (see DateTakenExtractor) so that compareTo never performs I/O
+     */
+    public void extractDateTaken() {
         if (this.dateTaken == null && (getFileLength() > 0)) {
-            this.dateTaken = FileMetadata.getDateTakenElseDefault(sourceFile);
+            MetadataCache.Entry cached = lookupCache();
+            if (cached != null && cached.getDateTaken() != null) {
+                this.dateTaken = cached.getDateTaken();
+            } else {
+                this.dateTaken = FileMetadata.getDateTakenElseDefault(sourcePath, getAttributes());
+                if (metadataCache != null && isLocal() && this.dateTaken != null && getAttributes() != null) {
+                    metadataCache.putDateTaken(sourcePath, getAttributes(), this.dateTaken);
+                }
+            }
         }
-        return this.dateTaken;
     }
 
     public long getFileLength() {
         return this.fileLength;
     }
 
-    public String getMD5Checksum() {
-        if ((this.md5Checksum == null) && (getFileLength() > 0)) {
-            this.md5Checksum = MD5Checksum.getMD5Checksum(getSourceFile());
+    void setDigest(ContentDigest digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * @return the content digest using the DigestEngine's default algorithm, or null if it could not be computed
+     */
+    public ContentDigest getDigest() {
+        if ((this.digest == null) && (getFileLength() > 0)) {
+            DigestAlgorithm algorithm = DigestEngine.getDefaultAlgorithm();
+            MetadataCache.Entry cached = lookupCache();
+            if (cached != null && cached.getDigest(algorithm) != null) {
+                this.digest = cached.getDigest(algorithm);
+            } else {
+                try {
+                    this.digest = DigestEngine.digest(sourcePath, algorithm);
+                    if (metadataCache != null && isLocal() && getAttributes() != null) {
+                        metadataCache.putDigest(sourcePath, getAttributes(), algorithm, this.digest);
+                    }
+                } catch (IOException ex) {
+                    LOG.error("Error building digest for {}", sourcePath, ex);
+                }
+            }
         }
-        return md5Checksum;
+        return digest;
+    }
+
+    private MetadataCache.Entry lookupCache() {
+        // The cache is keyed by path on the default file system: archive entries are not cached
+        return (metadataCache != null && isLocal() && getAttributes() != null) ?
+                metadataCache.lookup(sourcePath, getAttributes()) : null;
+    }
+
+    /**
+     * @return the source file's attributes, as first read (before any dates were updated), or null if unreadable
+     */
+    public BasicFileAttributes getAttributes() {
+        if (this.attributes == null) {
+            try {
+                this.attributes = Files.readAttributes(sourcePath, BasicFileAttributes.class);
+            } catch (IOException ex) {
+                LOG.error("Unable to read attributes of {}", sourcePath, ex);
+            }
+        }
+        return this.attributes;
+    }
+
+    /**
+     * @return the file key (identifying the file, and its hard links, within the file system), or null if unknown
+     */
+    public Object getFileKey() {
+        return (getAttributes() != null) ? getAttributes().fileKey() : null;
     }
 
     public String getLocalDateAsText() {
-        final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneId.systemDefault());
-        return FORMAT.format(getDateTaken());
+        return DATE_FORMAT.format(getDateTaken());
     }
 
     public String getLocalTimeAsText() {
-        final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
-        return FORMAT.format(getDateTaken());
+        return TIME_FORMAT.format(getDateTaken());
+    }
+
+    /**
+     * @return the local date taken as days since 1970-01-01 (the numeric form of getLocalDateAsText)
+     */
+    public long getLocalEpochDay() {
+        return getLocalEpochDay(getDateTaken());
+    }
+
+    static long getLocalEpochDay(Instant date) {
+        ZoneOffset offset = ZoneId.systemDefault().getRules().getOffset(date);
+        return Math.floorDiv(date.getEpochSecond() + offset.getTotalSeconds(), 86_400L);
+    }
+
+    /**
+     * @return the row in the FileTable this was materialised from, else -1
+     */
+    int getRow() {
+        return row;
     }
 
     public int getPosition() {
@@ -112,36 +274,39 @@ public class FileInfo implements Comparable<FileInfo> {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         FileInfo fileInfo = (FileInfo) o;
-        return Objects.equals(getSourceFile(), fileInfo.getSourceFile());
+        return Objects.equals(getSourcePath(), fileInfo.getSourcePath());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(getSourceFile());
+        return Objects.hash(getSourcePath());
     }
 
     @Override
     public String toString() {
-        return getClass().getName() + "{" + "sourceFile=" + sourceFile +
+        return getClass().getName() + "{" + "sourcePath=" + sourcePath +
                 ", dateTaken=" + getDateTaken() + '\'' +
                 ", position=" + position +
                 '}';
     }
 
+    /**
+     * Order by date taken, then source filename. Uses the extracted dates only (no I/O)
+     */
     @Override
     public int compareTo(FileInfo o) {
         if (o == this) {
             return 0;
-        } else if (this.getDateTaken() == null) {
+        } else if (this.dateTaken == null) {
             return -1;
-        } else if (o.getDateTaken() == null) {
+        } else if (o.dateTaken == null) {
             return 1;
-        } else if (this.getDateTaken().equals(o.getDateTaken())) {
+        } else if (this.dateTaken.equals(o.dateTaken)) {
             // Sort on source filename for photos taken during the same second
             return this.getSourceFileName().compareTo(o.getSourceFileName());
         } else {
             // Sort on the timestamp
-            return this.getDateTaken().compareTo(o.getDateTaken());
+            return this.dateTaken.compareTo(o.dateTaken);
         }
     }
 
@@ -152,14 +317,26 @@ public class FileInfo implements Comparable<FileInfo> {
      * @return the relative file name
      */
     public String getRelativeName(String prefix, int index) {
+        return getRelativeName(prefix, this.dateTaken, this.position, index,
+                FileMetadata.getExtension(getSourceFileName()));
+    }
+
+    /**
+     * Build a positional name, for example IMG_20180731_1000_1.JPG
+     *
+     * @param dateTaken date taken (null to omit the date)
+     * @param index     suffix distinguishing names that would otherwise clash (0 for none)
+     * @param extension extension including the dot, in any case
+     */
+    static String getRelativeName(String prefix, Instant dateTaken, int position, int index, String extension) {
         final String DELIMITER = "_";
         StringBuilder builder = new StringBuilder();
         if (prefix != null) {
             builder.append(prefix);
             builder.append(DELIMITER);
         }
-        if (this.dateTaken != null) {
-            builder.append(getLocalDateAsText());
+        if (dateTaken != null) {
+            builder.append(DATE_FORMAT.format(dateTaken));
             builder.append(DELIMITER);
         }
         builder.append(position);
@@ -167,7 +344,7 @@ public class FileInfo implements Comparable<FileInfo> {
             builder.append(DELIMITER);
             builder.append(index);
         }
-        builder.append(FileMetadata.getExtension(this.sourceFile).toUpperCase());
+        builder.append(extension.toUpperCase());
         return builder.toString();
     }
 
@@ -12,16 +12,31 @@ import com.drew.metadata.icc.IccDirectory;
 import com.drew.metadata.mov.QuickTimeDirectory;
 import com.drew.metadata.mov.metadata.QuickTimeMetadataDirectory;
 import com.drew.metadata.mp4.Mp4Directory;
+import org.grizzlytech.metamorphosis.imaging.FormatCheck;
+import org.grizzlytech.metamorphosis.imaging.FormatSniffer;
+import org.grizzlytech.metamorphosis.imaging.MediaFormat;
+import org.grizzlytech.metamorphosis.imaging.bmff.QuickTimeDateReader;
+import org.grizzlytech.metamorphosis.imaging.bmff.QuickTimeDates;
 import org.grizzlytech.metamorphosis.imaging.heif.HEIFMetadataReader;
+import org.grizzlytech.metamorphosis.imaging.jpeg.JpegExifReader;
+import org.grizzlytech.metamorphosis.imaging.png.PngDateReader;
+import org.grizzlytech.metamorphosis.imaging.png.PngDates;
+import org.grizzlytech.metamorphosis.imaging.tiff.ExifDates;
+import org.grizzlytech.metamorphosis.imaging.tiff.TiffDateReader;
 import org.grizzlytech.metamorphosis.metadata.MetadataDirectoryFix;
 import org.grizzlytech.metamorphosis.util.TimeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.time.*;
 import java.util.Arrays;
@@ -39,10 +54,10 @@ public class FileMetadata {
     public static final String FILE_CREATION_TIME = "creationTime";
     public static final String FILE_LAST_MODIFIED_TIME = "lastModifiedTime";
 
-    public static final List<String> SUPPORTED_FORMATS = Arrays.asList(".JPG", ".HEIC", ".MOV", ".MP4", ".PNG");
+    public static final List<String> SUPPORTED_FORMATS = Arrays.asList(".JPG", ".HEIC", ".MOV", ".MP4", ".PNG",
+            ".DNG", ".CR2", ".NEF", ".ARW");
 
-    public static final Predicate<File> IS_SUPPORTED = f ->
-            SUPPORTED_FORMATS.contains(FileMetadata.getExtension(f).toUpperCase());
+    public static final Predicate<File> IS_SUPPORTED = f -> isSupported(f.getName());
 
     private static long timeOffset = 0;
 
@@ -59,6 +74,21 @@ public class FileMetadata {
         return path.substring(path.lastIndexOf("."));
     }
 
+    /**
+     * @param fileName file name, which must have an extension
+     * @return the extension, including the dot
+     */
+    public static String getExtension(String fileName) {
+        return fileName.substring(fileName.lastIndexOf('.'));
+    }
+
+    /**
+     * @return true if the file name has a supported extension
+     */
+    public static boolean isSupported(String fileName) {
+        return fileName.lastIndexOf('.') > 0 && SUPPORTED_FORMATS.contains(getExtension(fileName).toUpperCase());
+    }
+
     public static String setExtension(File file, String extension) {
         String path = file.getAbsolutePath();
         return path.substring(0, path.lastIndexOf(".")) + extension;
@@ -80,51 +110,116 @@ public class FileMetadata {
         return date;
     }
 
+    /**
+     * Set the creation and last modified times (in a single call)
+     */
     public static void setFileDate(File file, Instant dateTime) {
         try {
             FileTime ft = FileTime.from(dateTime);
-            Path path = file.toPath();
-            Files.setAttribute(path, FILE_CREATION_TIME, ft);
-            Files.setAttribute(path, FILE_LAST_MODIFIED_TIME, ft);
+            Files.getFileAttributeView(file.toPath(), BasicFileAttributeView.class).setTimes(ft, null, ft);
         } catch (IOException ex) {
             LOG.error("setFileDate file:[{}] error:[{}]", file.getAbsolutePath(), ex);
         }
     }
 
+    /**
+     * Set the creation and last modified times, unless the attributes already read show they match
+     *
+     * @param known the file's attributes, as read by the scan (null to write unconditionally)
+     * @return true if the times were written
+     */
+    public static boolean syncFileDate(File file, Instant dateTime, BasicFileAttributes known) {
+        if (known != null && isFileDate(known.creationTime().toMillis(), known.lastModifiedTime().toMillis(), dateTime)) {
+            return false;
+        }
+        setFileDate(file, dateTime);
+        return true;
+    }
+
+    /**
+     * @return true if both file times (in milliseconds) already equal the date, to within a second: file systems
+     * store times coarsely (FAT32 keeps the modified time to 2 seconds, exFAT to 10 ms), so a date once written may
+     * never read back exactly
+     */
+    public static boolean isFileDate(long creationTime, long lastModifiedTime, Instant dateTime) {
+        return TimeUtil.withinASecond(Instant.ofEpochMilli(creationTime), dateTime) &&
+                TimeUtil.withinASecond(Instant.ofEpochMilli(lastModifiedTime), dateTime);
+    }
+
     public static Instant getDateTakenElseDefault(File file) {
-        Instant dateTaken = getDateTaken(file);
+        return getDateTakenElseDefault(file, null);
+    }
+
+    /**
+     * @param attributes the file's attributes if already read (saving a stat per file time), else null
+     */
+    public static Instant getDateTakenElseDefault(File file, BasicFileAttributes attributes) {
+        return getDateTakenElseDefault(file.toPath(), attributes);
+    }
+
+    /**
+     * @param path       the file, on any file system
+     * @param attributes the file's attributes if already read (saving a stat per file time), else null
+     */
+    public static Instant getDateTakenElseDefault(Path path, BasicFileAttributes attributes) {
+        Instant dateTaken = getDateTaken(path);
         if (dateTaken == null) {
-            dateTaken = TimeUtil.earliest(getFileDate(file, FILE_CREATION_TIME), getFileDate(file, FILE_LAST_MODIFIED_TIME));
+            try {
+                BasicFileAttributes attrs = (attributes != null) ? attributes :
+                        Files.readAttributes(path, BasicFileAttributes.class);
+                dateTaken = TimeUtil.earliest(attrs.creationTime().toInstant(), attrs.lastModifiedTime().toInstant());
+            } catch (IOException ex) {
+                LOG.error("getFileDate file:[{}] error:[{}]", getDisplayName(path), ex);
+            }
             LOG.info("FALLING BACK TO EARLIEST FILE TIME [{}]", dateTaken);
         }
         return dateTaken;
     }
 
     public static Instant getDateTaken(File file) {
+        return getDateTaken(file.toPath());
+    }
+
+    /**
+     * @param path the file, on any file system (for example an entry of a zip archive)
+     */
+    public static Instant getDateTaken(Path path) {
         Instant dateTaken = null;
-        String ext = FileMetadata.getExtension(file).toUpperCase();
+        String ext = FileMetadata.getExtension(path.getFileName().toString()).toUpperCase();
 
         try {
-            switch (ext) {
-                case ".JPG":
-                case ".JPEG":
-                    dateTaken = getJPGDateTaken(file);
+            // Parse the file as what its content is, which is not always what its extension claims
+            FormatCheck check = FormatSniffer.check(path, ext);
+            if (check.isMismatch()) {
+                // Known problem where iOS puts pictures in movie containers in error
+                String name = getDisplayName(path);
+                LOG.warn("FMT: {} {} {} {}", check.getExtensionFormat(), check.getContentFormat(), name,
+                        name.substring(0, name.lastIndexOf('.')) + "_X" + check.getContentFormat().getExtension());
+            }
+
+            switch (check.getFormat()) {
+                case JPEG:
+                    dateTaken = getJPGDateTaken(path);
                     break;
 
-                case ".PNG":
-                    dateTaken = getPNGDateTaken(file);
+                case PNG:
+                    dateTaken = getPNGDateTaken(path);
                     break;
 
-                case ".MOV":
-                    dateTaken = getQTDateTaken(file);
+                case QUICKTIME:
+                    dateTaken = getQTDateTaken(path);
                     break;
 
-                case ".MP4":
-                    dateTaken = getMP4DateTaken(file);
+                case MP4:
+                    dateTaken = getMP4DateTaken(path);
                     break;
 
-                case ".HEIC":
-                    dateTaken = getHEIFDateTaken(file);
+                case HEIF:
+                    dateTaken = getHEIFDateTaken(path);
+                    break;
+
+                case RAW:
+                    dateTaken = getRAWDateTaken(path);
                     break;
 
                 default:
@@ -132,22 +227,37 @@ public class FileMetadata {
             }
 
             if (dateTaken == null) {
-                // Known problem where iOS puts pictures in movie containers in error
-                if (ext.equals(".MOV")) {
-                    LOG.error("MOVE {} {}", file.getAbsolutePath(), setExtension(file, "_X.JPG"));
-                } else {
-                    LOG.error("(non-exception) problem parsing metadata in {}", file.getAbsolutePath());
-                }
+                LOG.error("(non-exception) problem parsing metadata in {}", getDisplayName(path));
             } else if (timeOffset != 0) { // apply any camera vs actual time offset
                 dateTaken = dateTaken.plusSeconds(timeOffset);
             }
         } catch (Exception ex) {
-            LOG.error("Exception parsing metadata in {}", file.getAbsolutePath(), ex);
+            LOG.error("Exception parsing metadata in {}", getDisplayName(path), ex);
         }
 
         return dateTaken;
     }
 
+    /**
+     * @return the absolute path of a local file, else the file's URI (for example jar:file:///x.zip!/a/b.JPG)
+     */
+    public static String getDisplayName(Path path) {
+        return (path.getFileSystem() == FileSystems.getDefault()) ? path.toAbsolutePath().toString() :
+                path.toUri().toString();
+    }
+
+    /**
+     * Full parse through metadata-extractor (the fallback when a fast path fails). A file on another file system,
+     * such as a zip entry, is streamed rather than extracted
+     */
+    private static Metadata readMetadata(Path path) throws IOException, ImageProcessingException {
+        if (path.getFileSystem() == FileSystems.getDefault()) {
+            return ImageMetadataReader.readMetadata(path.toFile());
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            return ImageMetadataReader.readMetadata(in, Files.size(path));
+        }
+    }
 
     private static Instant getDate(Metadata metadata, Class<? extends Directory> directoryType, int tag) {
         Date dt = null;
@@ -158,53 +268,77 @@ public class FileMetadata {
         return (dt != null) ? dt.toInstant() : null;
     }
 
-    private static Instant getJPGDateTaken(File file) {
+    private static Instant getJPGDateTaken(Path path) {
+        // Fast path: read only the APP1 Exif date tags
+        ExifDates dates = JpegExifReader.readDates(path);
+        if (dates != null) {
+            return selectExifDate(dates.getDateTime(), dates.getDateTimeOriginal(), path);
+        }
         try {
-            Metadata metadata = ImageMetadataReader.readMetadata(file);
+            Metadata metadata = readMetadata(path);
 
             // DateTime is always specified (this appears to be in the "wall time" when movie taken)
             Instant creationDate = getDate(metadata, ExifIFD0Directory.class, ExifDirectoryBase.TAG_DATETIME);
             // Optionally there is sometimes an original date
             Instant originalDate = getDate(metadata, ExifSubIFDDirectory.class, ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL);
-            // Select the earliest (if there is a choice)
-            return (originalDate == null) ? creationDate : TimeUtil.correctIfAlternativeMateriallyEarlier(
-                    creationDate, originalDate, file.getName());
+            return selectExifDate(creationDate, originalDate, path);
         } catch (IOException | ImageProcessingException ex) {
             LOG.error("getJPGDateTaken: {}", ex);
         }
         return null;
     }
 
-    private static Instant getQTDateTaken(File file) {
+    private static Instant selectExifDate(Instant creationDate, Instant originalDate, Path path) {
+        // Select the earliest (if there is a choice)
+        return (originalDate == null) ? creationDate : TimeUtil.correctIfAlternativeMateriallyEarlier(
+                creationDate, originalDate, path.getFileName().toString());
+    }
+
+    private static Instant getQTDateTaken(Path path) {
         /*
          * For some reason Drew has not added a public TAG for this attribute in QuickTimeMetadataDirectory
          * See _tagIntegerMap.put("com.apple.quicktime.creationdate", 0x0506);
          */
         final int TAG_QUICKTIME_CREATIONDATE = 0x0506; // 1286
+
+        // Fast path: walk the boxes, reading only moov/mvhd and moov/meta
+        QuickTimeDates dates = QuickTimeDateReader.readDates(path);
+        if (dates != null) {
+            return selectQTDate(dates.getCreationTime(), dates.getCreationDate(), path);
+        }
         try {
-            Metadata metadata = ImageMetadataReader.readMetadata(file);
+            Metadata metadata = readMetadata(path);
 
             // Creation time is always specified (this appears to be in the "wall time" when movie taken)
             Instant creationTime = getDate(metadata, QuickTimeDirectory.class, QuickTimeDirectory.TAG_CREATION_TIME);
 
             // Optionally there is sometimes a creation date
             Instant creationDate = getDate(metadata, QuickTimeMetadataDirectory.class, TAG_QUICKTIME_CREATIONDATE);
-            // This is useful, but local time seems to be mis-recorded as UTC
-            if (creationDate != null) { // unfortunately we guess the timezone to be the system default
-                creationDate = TimeUtil.correctZoneOffset(creationDate, ZoneId.systemDefault());
-            }
-
-            // Select the earliest (creationTime is assumed, but creationDate is an alternative)
-            return TimeUtil.correctIfAlternativeMateriallyEarlier(creationTime, creationDate, file.getName());
+            return selectQTDate(creationTime, creationDate, path);
         } catch (IOException | ImageProcessingException ex) {
             LOG.error("getQTDateTaken: {}", ex);
         }
         return null;
     }
 
-    private static Instant getMP4DateTaken(File file) {
+    private static Instant selectQTDate(Instant creationTime, Instant creationDate, Path path) {
+        // This is useful, but local time seems to be mis-recorded as UTC
+        if (creationDate != null) { // unfortunately we guess the timezone to be the system default
+            creationDate = TimeUtil.correctZoneOffset(creationDate, ZoneId.systemDefault());
+        }
+
+        // Select the earliest (creationTime is assumed, but creationDate is an alternative)
+        return TimeUtil.correctIfAlternativeMateriallyEarlier(creationTime, creationDate, path.getFileName().toString());
+    }
+
+    private static Instant getMP4DateTaken(Path path) {
+        // Fast path: walk the boxes, reading only moov/mvhd
+        QuickTimeDates dates = QuickTimeDateReader.readDates(path);
+        if (dates != null) {
+            return dates.getCreationTime();
+        }
         try {
-            Metadata metadata = ImageMetadataReader.readMetadata(file);
+            Metadata metadata = readMetadata(path);
             return getDate(metadata, Mp4Directory.class, Mp4Directory.TAG_CREATION_TIME);
         } catch (IOException | ImageProcessingException ex) {
             LOG.error("getMP4DateTaken: {}", ex);
@@ -212,9 +346,22 @@ public class FileMetadata {
         return null;
     }
 
-    private static Instant getPNGDateTaken(File file) {
+    private static Instant getPNGDateTaken(Path path) {
+        // Fast path: walk the chunks up to the image data (the ICC profile date is not a capture date)
+        PngDates dates = PngDateReader.readDates(path);
+        if (dates != null) {
+            ExifDates exif = dates.getExifDates();
+            if (exif != null && (exif.getDateTime() != null || exif.getDateTimeOriginal() != null)) {
+                return selectExifDate(exif.getDateTime(), exif.getDateTimeOriginal(), path);
+            } else if (dates.getXmpCreateDate() != null) {
+                return dates.getXmpCreateDate();
+            } else if (dates.getCreationTime() != null) {
+                return dates.getCreationTime();
+            }
+            return dates.getModificationTime();
+        }
         try {
-            Metadata metadata = ImageMetadataReader.readMetadata(file);
+            Metadata metadata = readMetadata(path);
             return getDate(metadata, IccDirectory.class, IccDirectory.TAG_PROFILE_DATETIME);
         } catch (IOException | ImageProcessingException ex) {
             LOG.error("getPNGDateTaken: {}", ex);
@@ -222,9 +369,9 @@ public class FileMetadata {
         return null;
     }
 
-    private static Instant getHEIFDateTaken(File file) {
+    private static Instant getHEIFDateTaken(Path path) {
         try {
-            Metadata metadata = HEIFMetadataReader.readMetadata(file);
+            Metadata metadata = HEIFMetadataReader.readMetadata(path);
             return getDate(metadata, ExifIFD0Directory.class, ExifDirectoryBase.TAG_DATETIME);
         } catch (ImageProcessingException ex) {
             LOG.error("getHEIFDateTaken: {}", ex);
@@ -232,6 +379,20 @@ public class FileMetadata {
         return null;
     }
 
+    private static Instant getRAWDateTaken(Path path) {
+        // Header only: RAW files run to tens of MB, so there is deliberately no full-parse fallback
+        ExifDates dates = TiffDateReader.readDates(path);
+        return (dates != null) ? selectExifDate(dates.getDateTime(), dates.getDateTimeOriginal(), path) : null;
+    }
+
+    /**
+     * @return true for camera RAW files (see MediaFormat.RAW)
+     */
+    public static boolean isRaw(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 && MediaFormat.fromExtension(fileName.substring(dot)) == MediaFormat.RAW;
+    }
+
     public static void dump(File file) {
         LOG.info("Dump {}", file);
         try {
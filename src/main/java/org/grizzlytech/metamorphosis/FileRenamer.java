@@ -1,8 +1,11 @@
 package org.grizzlytech.metamorphosis;
 
 import com.drew.metadata.mov.metadata.QuickTimeMetadataDirectory;
+import org.grizzlytech.metamorphosis.cache.MetadataCache;
+import org.grizzlytech.metamorphosis.catalog.ContentCatalog;
 import org.grizzlytech.metamorphosis.metadata.MetadataDirectoryFix;
-import org.grizzlytech.metamorphosis.util.Index;
+import org.grizzlytech.metamorphosis.rename.RenameJournal;
+import org.grizzlytech.metamorphosis.rename.RenamePlanner;
 import org.grizzlytech.metamorphosis.util.TimeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -10,15 +13,16 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Stream;
 
 /**
  * Rename media files, ordering by date taken ascending
@@ -27,100 +31,170 @@ public class FileRenamer {
 
     private static final Logger LOG = LoggerFactory.getLogger(FileRenamer.class);
 
-    private static final int START_AT = 1000;
+    static final int START_AT = 1000;
 
     public static void main(String[] args) {
         String dir = args[0];
         boolean action = true;
         String prefix = "IMG";
 
+        // Copy into a library rather than renaming in place (FileRenamer <card> import <library>)
+        Path library = (args.length > 2 && "import".equalsIgnoreCase(args[1])) ? Paths.get(args[2]) : null;
+
         // Handle case where photo dates are wrong due to incorrect camera date setting
         // setTimeOffset(Instant.parse("2004-01-01T00:00:00Z"), Instant.parse("2010-12-25T15:00:00Z"));
         //MetadataDirectoryFix.applyFixes();
 
-        // Scan files, sorting into increasing date taken order
-        FileInfo[] files = scan(dir, true);
+        // Report on an archive in place (FileRenamer <export.zip>): nothing is extracted, renamed or cached, though
+        // its files may be imported (FileRenamer <export.zip> import <library>)
+        if (isArchive(Paths.get(dir))) {
+            reportArchive(Paths.get(dir), library, action, prefix);
+            return;
+        }
+
+        // Re-use metadata extracted by earlier runs for unchanged files
+        MetadataCache cache = MetadataCache.open(Paths.get(dir), FileMetadata.getTimeOffset());
+        FileInfo.setMetadataCache(cache);
+
+        // Undo the last run's renames (FileRenamer <dir> rollback), or finish them if it was interrupted
+        if (args.length > 1 && "rollback".equalsIgnoreCase(args[1])) {
+            rollbackRenames(Paths.get(dir));
+            closeCache(cache);
+            return;
+        }
+        if (action && library == null && resumeRenames(Paths.get(dir))) {
+            LOG.info("Interrupted rename resumed; re-run to check for new files and duplicates");
+            closeCache(cache);
+            return;
+        }
+
+        // Scan files into a table, and order its rows by increasing date taken
+        FileTable table = scan(Paths.get(dir));
+        int[] order = table.sortedRows();
+
+        // Every file under the directory has now been looked up, so rows for files since deleted can go
+        if (cache != null && Integer.getInteger(DirectoryWalker.MAX_DEPTH_PROPERTY) == null) {
+            cache.pruneUnseen(Paths.get(dir));
+        }
+
+        // Report files already held elsewhere in the archive (when a catalog is configured); an import reports them
+        // as it copies, from the digest computed in the same read
+        ContentCatalog catalog = ContentCatalog.fromSystemProperties();
+        if (catalog != null && library == null) {
+            printArchived(catalog, table, order);
+        }
 
         // Identify duplicates ( [0]=actual and [1]=false positive )
-        List<List<FileInfo>>[] duplicates = findDuplicates(files);
+        List<List<FileInfo>>[] duplicates = DuplicateFinder.findDuplicates(table);
+
+        // Report near-duplicate images (re-encoded or resized copies), when enabled
+        Integer maxDistance = Integer.getInteger(NearDuplicateFinder.NEAR_DUPLICATES_PROPERTY);
+        if (maxDistance != null) {
+            printNearDuplicates(NearDuplicateFinder.findNearDuplicates(table.toFileInfos(order), maxDistance));
+        }
 
         // If there are duplicates, print them, otherwise renameFile the files
         if (duplicates[0].size() > 0) {
-            printDuplicates("DUP:", false, duplicates[0]);
-            printDuplicates("FSE:", false, duplicates[1]);
+            printDuplicates("DUP:", null, duplicates[0]);
+            printDuplicates("FSE:", null, duplicates[1]);
+        } else if (library != null) {
+            importFiles(table, order, library, action, prefix, catalog, cache);
+            printDuplicates("FSE:", null, duplicates[1]);
         } else {
-            renameFiles(files, action, prefix);
-            printDuplicates("FSE:", action, duplicates[1]);
+            renameFiles(Paths.get(dir), table, order, action, prefix);
+            printDuplicates("FSE:", action ? table : null, duplicates[1]);
+            if (action && catalog != null) {
+                addToCatalog(catalog, table);
+            }
+        }
+
+        if (catalog != null) {
+            catalog.close();
+        }
+
+        // Keep renaming new arrivals (FileRenamer <dir> watch)
+        if (args.length > 1 && "watch".equalsIgnoreCase(args[1]) && action && duplicates[0].isEmpty()) {
+            try (FileWatcher watcher = new FileWatcher(Paths.get(dir), prefix, table.toFileInfos(order))) {
+                watcher.run();
+            } catch (IOException ex) {
+                LOG.error("Watch failed [{}]", dir, ex);
+            }
+        }
+
+        closeCache(cache);
+    }
+
+    private static void closeCache(MetadataCache cache) {
+        if (cache != null) {
+            cache.close();
         }
     }
 
     /**
-     * Scan a directory for supported media files.
-     * Scanning involves extracting the date taken and file size
+     * @return true if the path is a zip archive (for example a Google Takeout export)
+     */
+    static boolean isArchive(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".zip") && Files.isRegularFile(path);
+    }
+
+    /**
+     * Scan a zip archive through the zip file system, reporting its files already in the catalog (ARC), and
+     * duplicates within it (DUP, FSE). Each entry's dates are read from its first bytes and its digest streamed
+     * from the archive, so nothing is written to disk. With a library, the entries are imported (unless there are
+     * duplicates), each streamed from the archive straight to its copy
      *
-     * @param dir  directory to scan
-     * @param sort whether to sort the results by date taken before returning
-     * @return array of FileInfo objects
+     * @param library directory to import into, or null to report only
      */
-    private static FileInfo[] scan(String dir, boolean sort) {
-        LOG.info("Scanning [{}]", dir);
-        FileInfo[] results = null;
-        try (Stream<Path> paths = Files.walk(Paths.get(dir))) {
-            // Sort supported media by date taken
-            Stream<FileInfo> stream = paths.filter(Files::isRegularFile)
-                    .map(Path::toFile)
-                    .filter(FileMetadata.IS_SUPPORTED)
-                    .map(FileInfo::new);
-            // Sort if needed
-            if (sort) {
-                stream = stream.sorted();
+    private static void reportArchive(Path archive, Path library, boolean action, String prefix) {
+        try (FileSystem zip = FileSystems.newFileSystem(archive, (ClassLoader) null)) {
+            FileTable table = scan(zip.getPath("/"));
+            int[] order = table.sortedRows();
+            ContentCatalog catalog = ContentCatalog.fromSystemProperties();
+            if (catalog != null && library == null) {
+                printArchived(catalog, table, order);
+            }
+            List<List<FileInfo>>[] duplicates = DuplicateFinder.findDuplicates(table);
+            printDuplicates("DUP:", null, duplicates[0]);
+            printDuplicates("FSE:", null, duplicates[1]);
+            if (library != null && duplicates[0].isEmpty()) {
+                importFiles(table, order, library, action, prefix, catalog, null);
+            }
+            if (catalog != null) {
+                catalog.close();
             }
-            results = stream.toArray(FileInfo[]::new);
         } catch (IOException ex) {
-            LOG.error("Scanning error", ex);
+            LOG.error("Unable to open archive [{}]", archive, ex);
         }
-        return results;
+        LOG.info("Done");
     }
 
     /**
-     * Find all duplicates in the directory. Duplicates are required to have the same MD5 checksum.
-     * <p>
-     * Strategy is to quickly find all media files with the same date taken and file size, then
-     * to compare the MD5 checksum for the candidate duplicates
+     * Scan a directory for supported media files.
+     * Scanning involves extracting the date taken (concurrently, see DateTakenExtractor) and file size.
+     * Directories are listed concurrently (see DirectoryWalker), each file being queued for extraction as soon as it
+     * is found, with the attributes read by the walk. Each file is added to the table once its date is known, so only
+     * the files in flight are held as FileInfo
      *
-     * @param files media files to examine
+     * @param dir directory to scan, on any file system
+     * @return table of the supported media files (in no particular order, see FileTable.sortedRows)
      */
-    private static List<List<FileInfo>>[] findDuplicates(FileInfo[] files) {
-        // Index of all media with the same date taken and file size
-        Index<String, FileInfo> dateAndSizeIndex = new Index<>();
-
-        LOG.info("Indexing [fileCount={}]", files.length);
-        for (FileInfo info : files) {
-            dateAndSizeIndex.insert(getDateAndSizeKey(info), info);
-        }
-
-        // Duplicate checking
-        List<FileInfo> dateAndSizeCollisions = dateAndSizeIndex.getCollisions();
-        LOG.info("Duplicate checking [candidates={}]", dateAndSizeCollisions.size());
-
-        // Re-index the possible duplicates using the md5 hash, which looks at the actual file content
-        // MD5 is a more expensive operation, hence only performed on the candidate duplicates
-        Index<String, FileInfo> md5Index = new Index<>();
-        dateAndSizeCollisions.forEach(p -> md5Index.insert(p.getMD5Checksum(), p));
-
-        // Retract md5 collisions to leave "false positives"
-        for (FileInfo info : md5Index.getCollisions()) {
-            dateAndSizeIndex.retract(getDateAndSizeKey(info), info);
+    private static FileTable scan(Path dir) {
+        LOG.info("Scanning [{}]", dir);
+        FileTable table = new FileTable(1024);
+        try (DateTakenExtractor extractor = DateTakenExtractor.fromSystemProperties()) {
+            DirectoryWalker.fromSystemProperties().walk(dir, info -> extractor.submit(info, table::add));
+            extractor.awaitCompletion();
         }
-
-        return new List[]{md5Index.getGroupedCollisions(), dateAndSizeIndex.getGroupedCollisions()};
+        LOG.info("File table [rows={} directories={} memoryBytes={}]", table.size(), table.getDirectoryCount(),
+                table.getMemoryBytes());
+        return table;
     }
 
-    private static String getDateAndSizeKey(FileInfo info) {
-        return info.getLocalDateAsText() + "_" + info.getFileLength();
-    }
-
-    private static void printDuplicates(String prefix, boolean target, List<List<FileInfo>> duplicates) {
+    /**
+     * @param targets table holding the planned targets, to print those instead of the source files (else null)
+     */
+    private static void printDuplicates(String prefix, FileTable targets, List<List<FileInfo>> duplicates) {
         int groupId = 0;
         int counter = 0;
         for (List<FileInfo> group : duplicates) {
@@ -132,70 +206,181 @@ public class FileRenamer {
                 command = (priorDate == null || !TimeUtil.withinASecond(priorDate, d.getDateTaken())) ? "REM" : "DEL";
                 // command = (priorDate == null) ? "REM" : "DEL";
                 LOG.info("{} {} {} {} {} {} {} \"{}\"", prefix, groupName,
-                        d.getMD5Checksum(), // content hash
+                        d.getDigest(), // content hash
                         d.getLocalDateAsText() + " " + d.getLocalTimeAsText(), // date and time to nearest second
                         String.format("%010d", d.getFileLength()), // dateAndSize index
-                        (target) ? "T" : "S", // target (if renamed) or source filename
+                        (targets != null) ? "T" : "S", // target (if renamed) or source filename
                         command, // retain (REM) or delete (DEL)
-                        (target) ? d.getTargetFile().getAbsolutePath() : d.getSourceFile().getAbsolutePath());
+                        (targets != null) ? targets.getTargetFile(d.getRow()).getAbsolutePath() :
+                                FileMetadata.getDisplayName(d.getSourcePath()));
                 ++counter;
                 priorDate = d.getDateTaken();
             }
         }
     }
 
-    private static void renameFiles(FileInfo[] files, boolean action, String prefix) {
-        // Set the positional value, starting at 1000
-        LOG.info("Renaming [fileCount={}]", files.length);
-        List<FileInfo> conflicts = new LinkedList<>();
-        for (int position = 0; position < files.length; position++) {
-            FileInfo info = files[position];
-            info.setPosition(position + START_AT);
-
-            // Determine the target filename post the re-sort
-            int index = -1;
-            do {
-                info.setTargetFile(info.getRelativeFile(prefix, ++index));
+    private static void printNearDuplicates(List<List<FileInfo>> groups) {
+        int groupId = 0;
+        for (List<FileInfo> group : groups) {
+            String groupName = String.format("%04d", ++groupId);
+            for (FileInfo d : group) {
+                LOG.info("SIM: {} {} {} \"{}\"", groupName,
+                        d.getLocalDateAsText() + " " + d.getLocalTimeAsText(),
+                        String.format("%010d", d.getFileLength()),
+                        FileMetadata.getDisplayName(d.getSourcePath()));
             }
-            while (info.renameConflicts());
-
-            if (action) {
-                // Set the creation and modification dates then renameFile the file
-                updateDates(info);
-                if (info.renameRequired()) {
-                    boolean renamed = renameFile(info.getSourceFile(), info.getTargetFile());
-                    if (renamed && index > 0) {
-                        conflicts.add(info);
+        }
+    }
+
+    /**
+     * Print the files whose content the catalog already holds under another path. Files are digested in batches,
+     * with each digest kept in the table (for addToCatalog)
+     */
+    private static void printArchived(ContentCatalog catalog, FileTable table, int[] order) {
+        final int BATCH_SIZE = 4096;
+        int archived = 0;
+        for (int from = 0; from < order.length; from += BATCH_SIZE) {
+            FileInfo[] batch = table.toFileInfos(Arrays.copyOfRange(order, from, Math.min(from + BATCH_SIZE,
+                    order.length)));
+            DigestExtractor.digestAll(Arrays.asList(batch));
+            for (FileInfo info : batch) {
+                if (info.getDigest() == null) {
+                    continue;
+                }
+                table.setDigest(info.getRow(), info.getDigest());
+                try {
+                    String source = FileMetadata.getDisplayName(info.getSourcePath());
+                    for (String path : catalog.find(info.getFileLength(), info.getDigest())) {
+                        // Ignore the file itself (a re-run) and entries for files since moved or deleted
+                        if (!path.equals(source) && new File(path).exists()) {
+                            LOG.info("ARC: {} \"{}\" \"{}\"", info.getDigest(), source, path);
+                            archived++;
+                            break;
+                        }
                     }
+                } catch (IOException ex) {
+                    LOG.error("Catalog lookup failed for {}", info.getSourcePath(), ex);
                 }
-                // Checkpoint log
-                if (position % 1000 == 0) {
-                    LOG.info(" Checkpoint [{}]", info.getTargetFile());
+            }
+        }
+        LOG.info("Archive check [fileCount={} archived={}]", order.length, archived);
+    }
+
+    private static void addToCatalog(ContentCatalog catalog, FileTable table) {
+        for (int row = 0; row < table.size(); row++) {
+            File target = table.getTargetFile(row);
+            File finalFile = (target != null && target.exists()) ? target : table.getSourceFile(row);
+            if (table.getDigest(row) != null) {
+                try {
+                    catalog.add(table.getFileLength(row), table.getDigest(row), finalFile.toPath());
+                } catch (IOException ex) {
+                    LOG.error("Unable to catalog {}", finalFile, ex);
                 }
+            }
+        }
+    }
 
-            } else {
-                // Emit proposals
-                LOG.info("move \"{}\" \"{}\"", info.getSourceFileName(), info.getTargetFile());
+    private static void renameFiles(Path root, FileTable table, int[] order, boolean action, String prefix) {
+        // Set the positional value, starting at 1000 (RAW+JPEG pairs share one)
+        LOG.info("Renaming [fileCount={}]", order.length);
+        table.assignPositions(order, START_AT);
+
+        // Determine every target filename post the re-sort, and a safe order of moves, without touching the files
+        List<RenameJournal.Move> plan = RenamePlanner.plan(table, order, prefix);
+        if (!action) {
+            // Emit proposals
+            for (int row : order) {
+                LOG.info("move \"{}\" \"{}\"", table.getName(row), table.getTargetFile(row));
             }
+            LOG.info("Done");
+            return;
         }
+        // Journal the plan before touching any file, so an interrupted run can be resumed (or rolled back)
+        try (RenameJournal journal = RenameJournal.create(root, plan)) {
+            journal.execute();
+        } catch (IOException ex) {
+            LOG.error("Rename journal failed [{}]; re-run to resume", root, ex);
+        }
+        LOG.info("Done");
+    }
 
-        // Assume conflicts (that forced indexing) now removed
-        for (FileInfo info : conflicts) {
-            File newTargetFile = info.getRelativeFile(prefix, 0);
-            if (renameFile(info.getTargetFile(), newTargetFile)) {
-                info.setTargetFile(newTargetFile);
+    /**
+     * Copy the files into the library under their positional names, recording each copy in the catalog and in the
+     * library's metadata cache
+     *
+     * @param cache the cache already open for the scan (used for the library too when CACHE_PROPERTY names a single
+     *              cache), or null
+     */
+    private static void importFiles(FileTable table, int[] order, Path library, boolean action, String prefix,
+                                    ContentCatalog catalog, MetadataCache cache) {
+        LOG.info("Importing [fileCount={} library={}]", order.length, library);
+        table.assignPositions(order, START_AT);
+        boolean sharedCache = System.getProperty(MetadataCache.CACHE_PROPERTY) != null;
+        MetadataCache libraryCache = (!action || sharedCache) ? cache :
+                MetadataCache.open(library, FileMetadata.getTimeOffset());
+        try {
+            LibraryImporter importer = LibraryImporter.fromSystemProperties(library, prefix, catalog, libraryCache);
+            Path[] targets = importer.plan(table, order);
+            if (!action) {
+                // Emit proposals
+                for (int i = 0; i < order.length; i++) {
+                    LOG.info("copy \"{}\" \"{}\"", FileMetadata.getDisplayName(table.getSourcePath(order[i])),
+                            targets[i]);
+                }
+            } else {
+                importer.importFiles(table, order, targets);
+            }
+        } catch (IOException ex) {
+            LOG.error("Unable to import into library [{}]", library, ex);
+        } finally {
+            if (libraryCache != cache) {
+                closeCache(libraryCache);
             }
         }
         LOG.info("Done");
     }
 
-    private static void updateDates(FileInfo p) {
+    /**
+     * Finish a rename interrupted by an earlier run, from its journal (no metadata is extracted)
+     *
+     * @return true if an interrupted rename was found and resumed
+     */
+    private static boolean resumeRenames(Path root) {
+        try (RenameJournal journal = RenameJournal.open(root)) {
+            if (journal == null || journal.isComplete()) {
+                return false;
+            }
+            LOG.info("Resuming interrupted rename [pending={}]", journal.getPendingCount());
+            journal.execute();
+            return true;
+        } catch (IOException ex) {
+            LOG.error("Unable to resume rename journal [{}]", root, ex);
+            return true;
+        }
+    }
+
+    /**
+     * Undo the renames recorded in the last run's journal
+     */
+    private static void rollbackRenames(Path root) {
+        try (RenameJournal journal = RenameJournal.open(root)) {
+            if (journal == null) {
+                LOG.warn("No rename journal to roll back [{}]", root);
+            } else {
+                journal.rollback();
+            }
+        } catch (IOException ex) {
+            LOG.error("Unable to roll back rename journal [{}]", root, ex);
+        }
+    }
+
+    static void updateDates(FileInfo p) {
         if (p.getDateTaken() != null) {
-            FileMetadata.setFileDate(p.getSourceFile(), p.getDateTaken());
+            FileMetadata.syncFileDate(p.getSourceFile(), p.getDateTaken(), p.getAttributes());
         }
     }
 
-    private static boolean renameFile(File sourceFile, File targetFile) {
+    static boolean renameFile(File sourceFile, File targetFile) {
         boolean ret = false;
         if (targetFile.exists()) {
             LOG.error("CONFLICT: Cannot renameFile [{}] to [{}] as target already exists",
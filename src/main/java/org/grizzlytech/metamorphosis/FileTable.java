@@ -0,0 +1,362 @@
+package org.grizzlytech.metamorphosis;
+
+import org.grizzlytech.metamorphosis.digest.ContentDigest;
+import org.grizzlytech.metamorphosis.util.IntSort;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-oriented store of scanned media files: one row per file, each attribute in its own primitive array, and
+ * file names as UTF-8 in a shared byte arena (each directory is held once, and referred to by ID).
+ * <p>
+ * A row costs about 90 bytes including a typical name, against several hundred for a FileInfo with its File
+ * objects, Instant and attributes. Sorting, duplicate detection and rename planning work on row numbers; a FileInfo
+ * is only materialised (see toFileInfo) for rows that need file-level operations such as hashing.
+ */
+public class FileTable {
+
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private static final int NO_TARGET = -1;
+
+    private final List<Path> directories = new ArrayList<>();
+
+    private final Map<Path, Integer> directoryIds = new HashMap<>();
+
+    private int rows;
+
+    private long[] epochSecond;
+    private int[] nano;
+    private long[] size;
+    private long[] lastModified;
+    private long[] creationTime;
+    private long[] digestHigh;
+    private long[] digestLow;
+    private boolean[] digested;
+    private int[] position;
+
+    /**
+     * Index suffix of the target name (see FileInfo.getRelativeName), or NO_TARGET before planning
+     */
+    private int[] targetIndex;
+    private int[] directory;
+
+    /**
+     * Start of each row's name in the arena; a name ends where the next row's begins
+     */
+    private int[] nameOffset;
+    private byte[] names;
+    private int namesLength;
+
+    /**
+     * File name prefix of the planned targets
+     */
+    private String targetPrefix;
+
+    public FileTable(int expectedRows) {
+        int capacity = Math.max(expectedRows, 16);
+        epochSecond = new long[capacity];
+        nano = new int[capacity];
+        size = new long[capacity];
+        lastModified = new long[capacity];
+        creationTime = new long[capacity];
+        digestHigh = new long[capacity];
+        digestLow = new long[capacity];
+        digested = new boolean[capacity];
+        position = new int[capacity];
+        targetIndex = new int[capacity];
+        directory = new int[capacity];
+        nameOffset = new int[capacity];
+        names = new byte[capacity * 24];
+    }
+
+    /**
+     * @return a table holding the given files, in order (row i is files[i])
+     */
+    public static FileTable of(FileInfo[] files) {
+        FileTable table = new FileTable(files.length);
+        for (FileInfo info : files) {
+            table.add(info);
+        }
+        return table;
+    }
+
+    /**
+     * Append a file whose date taken has been extracted (safe to call from several threads)
+     *
+     * @return the file's row
+     */
+    public synchronized int add(FileInfo info) {
+        if (rows == epochSecond.length) {
+            grow(rows * 2);
+        }
+        int row = rows++;
+        Path source = info.getSourcePath();
+        Path parent = (source.getParent() != null) ? source.getParent() : source.toAbsolutePath().getParent();
+        Integer dirId = directoryIds.get(parent);
+        if (dirId == null) {
+            dirId = directories.size();
+            directories.add(parent);
+            directoryIds.put(parent, dirId);
+        }
+        directory[row] = dirId;
+
+        byte[] name = source.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+        if (namesLength + name.length > names.length) {
+            names = Arrays.copyOf(names, Math.max(names.length * 2, namesLength + name.length));
+        }
+        nameOffset[row] = namesLength;
+        System.arraycopy(name, 0, names, namesLength, name.length);
+        namesLength += name.length;
+
+        Instant date = info.getDateTaken();
+        epochSecond[row] = (date != null) ? date.getEpochSecond() : NO_DATE;
+        nano[row] = (date != null) ? date.getNano() : 0;
+        size[row] = info.getFileLength();
+        BasicFileAttributes attrs = info.getAttributes();
+        lastModified[row] = (attrs != null) ? attrs.lastModifiedTime().toMillis() : Long.MIN_VALUE;
+        creationTime[row] = (attrs != null) ? attrs.creationTime().toMillis() : Long.MIN_VALUE;
+        position[row] = info.getPosition();
+        targetIndex[row] = NO_TARGET;
+        return row;
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int size() {
+        return rows;
+    }
+
+    public String getName(int row) {
+        int end = (row + 1 < rows) ? nameOffset[row + 1] : namesLength;
+        return new String(names, nameOffset[row], end - nameOffset[row], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the row's directory (only for files on the default file system, see getDirectoryPath)
+     */
+    public File getDirectory(int row) {
+        return getDirectoryPath(row).toFile();
+    }
+
+    public Path getDirectoryPath(int row) {
+        return directories.get(directory[row]);
+    }
+
+    /**
+     * @return the ID of the row's directory (IDs run from 0 to getDirectoryCount() - 1)
+     */
+    public int getDirectoryId(int row) {
+        return directory[row];
+    }
+
+    public int getDirectoryCount() {
+        return directories.size();
+    }
+
+    public File getSourceFile(int row) {
+        return getSourcePath(row).toFile();
+    }
+
+    public Path getSourcePath(int row) {
+        return getDirectoryPath(row).resolve(getName(row));
+    }
+
+    public long getFileLength(int row) {
+        return size[row];
+    }
+
+    /**
+     * @return the last modified time in milliseconds as scanned, or Long.MIN_VALUE if unknown
+     */
+    public long getLastModified(int row) {
+        return lastModified[row];
+    }
+
+    /**
+     * @return the creation time in milliseconds as scanned, or Long.MIN_VALUE if unknown
+     */
+    public long getCreationTime(int row) {
+        return creationTime[row];
+    }
+
+    public boolean hasDateTaken(int row) {
+        return epochSecond[row] != NO_DATE;
+    }
+
+    public Instant getDateTaken(int row) {
+        return hasDateTaken(row) ? Instant.ofEpochSecond(epochSecond[row], nano[row]) : null;
+    }
+
+    public long getLocalEpochDay(int row) {
+        return FileInfo.getLocalEpochDay(getDateTaken(row));
+    }
+
+    public ContentDigest getDigest(int row) {
+        return digested[row] ? new ContentDigest(digestHigh[row], digestLow[row]) : null;
+    }
+
+    public void setDigest(int row, ContentDigest digest) {
+        if (digest != null) {
+            digestHigh[row] = digest.getHigh();
+            digestLow[row] = digest.getLow();
+            digested[row] = true;
+        }
+    }
+
+    public int getPosition(int row) {
+        return position[row];
+    }
+
+    public void setPosition(int row, int position) {
+        this.position[row] = position;
+    }
+
+    /**
+     * Number the rows in order, from startAt. A camera RAW file shares its position with the companion (typically
+     * a JPEG) of the same base name, in the same directory, taken in the same second, so the pair keep matching
+     * names (IMG_20180731_1000.CR2 and IMG_20180731_1000.JPG)
+     *
+     * @param order rows in date taken order
+     */
+    public void assignPositions(int[] order, int startAt) {
+        // Companions sort next to each other, so only rows taken in the current second need remembering
+        Map<String, Integer> second = new HashMap<>();
+        long current = NO_DATE;
+        int next = startAt;
+        for (int row : order) {
+            if (epochSecond[row] != current) {
+                second.clear();
+                current = epochSecond[row];
+            }
+            String key = null;
+            Integer companion = null;
+            if (hasDateTaken(row)) {
+                String name = getName(row);
+                key = directory[row] + "/" + name.substring(0, name.lastIndexOf('.')).toUpperCase();
+                companion = second.get(key);
+            }
+            if (companion != null && FileMetadata.isRaw(getName(row)) != FileMetadata.isRaw(getName(companion))) {
+                position[row] = position[companion];
+            } else {
+                position[row] = next++;
+                if (key != null) {
+                    second.putIfAbsent(key, row);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param prefix file name prefix (the same for every row)
+     * @param index  index suffix (0 for none)
+     */
+    public void setTarget(int row, String prefix, int index) {
+        this.targetPrefix = prefix;
+        this.targetIndex[row] = index;
+    }
+
+    /**
+     * @return the planned target, or null if none has been planned
+     */
+    public File getTargetFile(int row) {
+        return (targetIndex[row] != NO_TARGET) ?
+                new File(getDirectory(row), getRelativeName(row, targetPrefix, targetIndex[row])) : null;
+    }
+
+    /**
+     * @return the positional name for the row (see FileInfo.getRelativeName)
+     */
+    public String getRelativeName(int row, String prefix, int index) {
+        String name = getName(row);
+        return FileInfo.getRelativeName(prefix, getDateTaken(row), position[row], index,
+                name.substring(name.lastIndexOf('.')));
+    }
+
+    /**
+     * Order as FileInfo.compareTo does (date taken, then file name; undated files first), then by path
+     */
+    public int compareRows(int a, int b) {
+        if (a == b) {
+            return 0;
+        }
+        if (!hasDateTaken(a) || !hasDateTaken(b)) {
+            if (hasDateTaken(a) != hasDateTaken(b)) {
+                return hasDateTaken(a) ? 1 : -1;
+            }
+        } else if (epochSecond[a] != epochSecond[b]) {
+            return Long.compare(epochSecond[a], epochSecond[b]);
+        } else if (nano[a] != nano[b]) {
+            return Integer.compare(nano[a], nano[b]);
+        }
+        // Taken at the same time (rare): compare names, then paths
+        int byName = getName(a).compareTo(getName(b));
+        return (byName != 0) ? byName : getSourcePath(a).toString().compareTo(getSourcePath(b).toString());
+    }
+
+    /**
+     * @return every row, in date taken order (see compareRows)
+     */
+    public int[] sortedRows() {
+        int[] order = new int[rows];
+        Arrays.setAll(order, i -> i);
+        IntSort.sort(order, this::compareRows);
+        return order;
+    }
+
+    /**
+     * Materialise a row as a FileInfo (with its position, target and digest, if known)
+     */
+    public FileInfo toFileInfo(int row) {
+        FileInfo info = new FileInfo(getSourcePath(row), size[row], getDateTaken(row), row);
+        info.setPosition(position[row]);
+        info.setTargetFile(getTargetFile(row));
+        info.setDigest(getDigest(row));
+        return info;
+    }
+
+    /**
+     * @param rows rows to materialise
+     * @return the rows as FileInfo, in the given order
+     */
+    public FileInfo[] toFileInfos(int[] rows) {
+        FileInfo[] infos = new FileInfo[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            infos[i] = toFileInfo(rows[i]);
+        }
+        return infos;
+    }
+
+    /**
+     * @return the approximate heap used by the table
+     */
+    public long getMemoryBytes() {
+        long perRow = Long.BYTES * 6 + Integer.BYTES * 5 + 1;
+        return perRow * epochSecond.length + names.length;
+    }
+
+    private void grow(int capacity) {
+        epochSecond = Arrays.copyOf(epochSecond, capacity);
+        nano = Arrays.copyOf(nano, capacity);
+        size = Arrays.copyOf(size, capacity);
+        lastModified = Arrays.copyOf(lastModified, capacity);
+        creationTime = Arrays.copyOf(creationTime, capacity);
+        digestHigh = Arrays.copyOf(digestHigh, capacity);
+        digestLow = Arrays.copyOf(digestLow, capacity);
+        digested = Arrays.copyOf(digested, capacity);
+        position = Arrays.copyOf(position, capacity);
+        targetIndex = Arrays.copyOf(targetIndex, capacity);
+        directory = Arrays.copyOf(directory, capacity);
+        nameOffset = Arrays.copyOf(nameOffset, capacity);
+    }
+}
@@ -0,0 +1,311 @@
+package org.grizzlytech.metamorphosis;
+
+import org.grizzlytech.metamorphosis.cache.MetadataCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watch a directory tree, renaming new arrivals as they land, without rescanning or renaming existing files.
+ * <p>
+ * Files already placed are held in date taken order. A new file is first left to settle (its size and modified time
+ * must be unchanged for a quiet period, so partially copied files are not touched), then its date is extracted and
+ * it is slotted in after its predecessor: it takes the predecessor's position with the predecessor's index suffix plus
+ * one (IMG_20180731_1005_1.JPG after IMG_20180731_1005.JPG), or the next position if it is the latest file. If an
+ * earlier arrival in the same gap already holds that suffix but was taken later, it (and any later arrivals it would
+ * collide with) moves up one suffix, so names keep date order. Each arrival costs one metadata read and a log(n)
+ * lookup, however large the library.
+ */
+public class FileWatcher implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileWatcher.class);
+
+    /**
+     * System property overriding how long (in milliseconds) a new file must be unchanged before it is renamed
+     */
+    public static final String QUIET_MILLIS_PROPERTY = "metamorphosis.watch.quietMillis";
+
+    private static final long POLL_MILLIS = 250;
+
+    private final Path root;
+
+    private final String prefix;
+
+    private final long quietMillis;
+
+    private final WatchService watchService;
+
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    /**
+     * Files already named, in date taken order (each FileInfo's source file is its current name)
+     */
+    private final TreeSet<FileInfo> placed = new TreeSet<>(
+            Comparator.<FileInfo>naturalOrder().thenComparing(info -> info.getSourceFile().getPath()));
+
+    private final Set<Path> known = new HashSet<>();
+
+    /**
+     * New files waiting to settle
+     */
+    private final Map<Path, Observation> pending = new HashMap<>();
+
+    private static class Observation {
+        private final long size;
+        private final long lastModified;
+        private final long seenAt;
+
+        Observation(long size, long lastModified, long seenAt) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.seenAt = seenAt;
+        }
+    }
+
+    /**
+     * @param root   directory tree to watch
+     * @param prefix file name prefix, as used by FileRenamer
+     * @param files  files already named, with their positions set (a renamed file's target is its current name)
+     */
+    public FileWatcher(Path root, String prefix, FileInfo[] files) throws IOException {
+        this.root = root.toAbsolutePath();
+        this.prefix = prefix;
+        this.quietMillis = Long.getLong(QUIET_MILLIS_PROPERTY, 2000L);
+        this.watchService = FileSystems.getDefault().newWatchService();
+        for (FileInfo info : files) {
+            if (info.getTargetFile() != null && info.getTargetFile().exists()) {
+                info.setSourceFile(info.getTargetFile());
+            }
+            placed.add(info);
+            known.add(info.getSourceFile().toPath().toAbsolutePath());
+        }
+        registerTree(this.root);
+    }
+
+    /**
+     * Process events until interrupted
+     */
+    public void run() {
+        LOG.info("Watching [{}] [placed={} quietMillis={}]", root, placed.size(), quietMillis);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    handle(key);
+                }
+                settle(System.currentTimeMillis());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.info("Stopped watching [{}]", root);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void handle(WatchKey key) {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                LOG.warn("Watch events lost in [{}]; re-run FileRenamer to catch up", dir);
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    registerTree(path);
+                }
+            } else if (!known.contains(path) && isSupported(path)) {
+                observe(path, System.currentTimeMillis());
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * Rename every pending file that has been unchanged for the quiet period
+     */
+    private void settle(long now) {
+        Iterator<Map.Entry<Path, Observation>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Observation> entry = it.next();
+            Path path = entry.getKey();
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                Observation last = entry.getValue();
+                if (attrs.size() != last.size || attrs.lastModifiedTime().toMillis() != last.lastModified) {
+                    entry.setValue(new Observation(attrs.size(), attrs.lastModifiedTime().toMillis(), now));
+                } else if (now - last.seenAt >= quietMillis && attrs.size() > 0) {
+                    it.remove();
+                    place(new FileInfo(path.toFile(), attrs));
+                }
+            } catch (IOException ex) {
+                // Gone (moved away or deleted) before it settled
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Extract the arrival's date, slot it into the ordering and rename it
+     *
+     * @return the file's new name
+     */
+    File place(FileInfo info) {
+        long start = System.nanoTime();
+        info.extractDateTaken();
+        FileInfo predecessor = placed.lower(info);
+        int index = 0;
+        if (predecessor == null) {
+            FileInfo first = placed.isEmpty() ? null : placed.first();
+            info.setPosition((first != null) ? first.getPosition() - 1 : FileRenamer.START_AT);
+        } else if (predecessor == placed.last()) {
+            info.setPosition(predecessor.getPosition() + 1);
+        } else {
+            info.setPosition(predecessor.getPosition());
+            index = Math.max(suffixOf(predecessor), 0) + 1;
+            makeRoom(info, index);
+        }
+        do {
+            info.setTargetFile(info.getRelativeFile(prefix, index++));
+        } while (info.renameConflicts());
+
+        Path source = info.getSourceFile().toPath();
+        File target = info.getSourceFile();
+        FileRenamer.updateDates(info);
+        if (!info.renameRequired() || FileRenamer.renameFile(info.getSourceFile(), info.getTargetFile())) {
+            target = info.getTargetFile();
+        }
+        MetadataCache cache = FileInfo.getMetadataCache();
+        if (cache != null) {
+            cache.relocate(source, target.toPath());
+        }
+        info.setSourceFile(target);
+        placed.add(info);
+        known.add(target.toPath().toAbsolutePath());
+        LOG.info("Placed \"{}\" as \"{}\" [elapsedMicros={}]", source.getFileName(), target.getName(),
+                (System.nanoTime() - start) / 1000);
+        return target;
+    }
+
+    /**
+     * Move the arrivals after this one that share its position up one suffix, latest first, until the given suffix
+     * is free and every later file's suffix is still greater than the one before it
+     */
+    private void makeRoom(FileInfo info, int index) {
+        List<FileInfo> shifted = new ArrayList<>();
+        int required = index + 1;
+        for (FileInfo next = placed.higher(info); next != null && next.getPosition() == info.getPosition();
+             next = placed.higher(next)) {
+            int suffix = suffixOf(next);
+            if (suffix >= required || suffix < 0) {
+                break;
+            }
+            shifted.add(next);
+            required++;
+        }
+        for (int i = shifted.size() - 1; i >= 0; i--) {
+            FileInfo next = shifted.get(i);
+            placed.remove(next);
+            Path source = next.getSourceFile().toPath();
+            next.setTargetFile(next.getRelativeFile(prefix, index + 1 + i));
+            if (FileRenamer.renameFile(next.getSourceFile(), next.getTargetFile())) {
+                known.remove(source.toAbsolutePath());
+                known.add(next.getTargetFile().toPath().toAbsolutePath());
+                MetadataCache cache = FileInfo.getMetadataCache();
+                if (cache != null) {
+                    cache.relocate(source, next.getTargetFile().toPath());
+                }
+                next.setSourceFile(next.getTargetFile());
+            }
+            placed.add(next);
+        }
+    }
+
+    /**
+     * @return the index suffix of a placed file's current name (0 for none), or -1 if it is not a positional name
+     */
+    private int suffixOf(FileInfo info) {
+        String name = info.getSourceFileName();
+        String base = info.getRelativeName(prefix, 0);
+        int dot = base.lastIndexOf('.');
+        String stem = base.substring(0, dot);
+        String extension = base.substring(dot);
+        if (name.equalsIgnoreCase(base)) {
+            return 0;
+        }
+        if (name.length() > base.length() + 1 && name.startsWith(stem + "_") &&
+                name.toUpperCase().endsWith(extension.toUpperCase())) {
+            String digits = name.substring(stem.length() + 1, name.length() - extension.length());
+            if (digits.matches("\\d{1,9}")) {
+                return Integer.parseInt(digits);
+            }
+        }
+        return -1;
+    }
+
+    private void observe(Path path, long now) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            pending.put(path, new Observation(attrs.size(), attrs.lastModifiedTime().toMillis(), now));
+        } catch (IOException ex) {
+            LOG.debug("Unable to observe [{}]: {}", path, ex.toString());
+        }
+    }
+
+    private void registerTree(Path dir) {
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                    directories.put(d.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY), d);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    // Files copied into a new directory before it was registered
+                    Path path = file.toAbsolutePath();
+                    if (!known.contains(path) && isSupported(path)) {
+                        observe(path, System.currentTimeMillis());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            LOG.error("Unable to watch [{}]", dir, ex);
+        }
+    }
+
+    private static boolean isSupported(Path path) {
+        return FileMetadata.isSupported(path.getFileName().toString());
+    }
+}
@@ -0,0 +1,311 @@
+package org.grizzlytech.metamorphosis;
+
+import org.grizzlytech.metamorphosis.cache.MetadataCache;
+import org.grizzlytech.metamorphosis.catalog.ContentCatalog;
+import org.grizzlytech.metamorphosis.digest.ContentDigest;
+import org.grizzlytech.metamorphosis.digest.DigestEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Import media files (from a card, or any file system such as a zip archive) into a library directory, copying
+ * each to its positional name.
+ * <p>
+ * Each file is read once: the copy goes through DigestEngine's direct buffer, which hashes every block before
+ * writing it, so the digest recorded in the catalog and the metadata cache costs no second read. Only where the
+ * catalog holds content of the same size is the source hashed before copying, so that a file already in the library
+ * is never copied. A copy is written under a temporary name, checked for length and flushed to the device, given
+ * its date taken as its file times, and only then renamed into place, so the library never holds a partial file.
+ * Re-hashing each copy from the library is opt-in (VERIFY_PROPERTY), as it doubles the I/O of an import.
+ */
+public class LibraryImporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LibraryImporter.class);
+
+    /**
+     * System property overriding the number of files copied concurrently
+     */
+    public static final String THREADS_PROPERTY = "metamorphosis.import.threads";
+
+    /**
+     * System property (true/false) to re-read each copy from the library and compare its digest
+     */
+    public static final String VERIFY_PROPERTY = "metamorphosis.import.verify";
+
+    /**
+     * Cards read best sequentially; a second copy overlaps one file's write with the next file's read
+     */
+    private static final int DEFAULT_THREADS = 2;
+
+    private static final String TEMPORARY_SUFFIX = ".importing";
+
+    private final Path library;
+
+    private final String prefix;
+
+    private final ContentCatalog catalog;
+
+    private final MetadataCache cache;
+
+    private final boolean verify;
+
+    private final AtomicInteger copied = new AtomicInteger();
+
+    private final AtomicInteger archived = new AtomicInteger();
+
+    private final AtomicLong bytesCopied = new AtomicLong();
+
+    /**
+     * Striped locks serializing the catalog check and record of each digest (see importFile)
+     */
+    private final Object[] locks = new Object[64];
+
+    /**
+     * @param library directory to copy into
+     * @param prefix  file name prefix, for example "IMG"
+     * @param catalog catalog to record (and check) each copy's content in, or null
+     * @param cache   metadata cache to record each copy's date and digest in, or null
+     * @param verify  true to re-hash each copy from the library
+     */
+    public LibraryImporter(Path library, String prefix, ContentCatalog catalog, MetadataCache cache, boolean verify) {
+        this.library = library;
+        this.prefix = prefix;
+        this.catalog = catalog;
+        this.cache = cache;
+        this.verify = verify;
+        Arrays.setAll(locks, i -> new Object());
+    }
+
+    public static LibraryImporter fromSystemProperties(Path library, String prefix, ContentCatalog catalog,
+                                                       MetadataCache cache) {
+        return new LibraryImporter(library, prefix, catalog, cache, Boolean.getBoolean(VERIFY_PROPERTY));
+    }
+
+    /**
+     * Choose each file's name in the library: its positional name, with an index suffix while that name is held by
+     * a file already in the library (or planned earlier)
+     *
+     * @param table files to import, whose positions are set
+     * @param order rows in date taken order
+     * @return the target of each row in order (by index into order)
+     */
+    public Path[] plan(FileTable table, int[] order) throws IOException {
+        Set<String> taken = new HashSet<>(order.length * 2);
+        if (Files.isDirectory(library)) {
+            try (Stream<Path> listing = Files.list(library)) {
+                listing.forEach(p -> taken.add(p.getFileName().toString()));
+            }
+        }
+        Path[] targets = new Path[order.length];
+        for (int i = 0; i < order.length; i++) {
+            int index = 0;
+            String name = table.getRelativeName(order[i], prefix, index);
+            while (taken.contains(name)) {
+                name = table.getRelativeName(order[i], prefix, ++index);
+            }
+            taken.add(name);
+            targets[i] = library.resolve(name);
+        }
+        return targets;
+    }
+
+    /**
+     * Copy the files concurrently (see THREADS_PROPERTY)
+     *
+     * @return the number of files that failed
+     */
+    public int importFiles(FileTable table, int[] order, Path[] targets) {
+        return importFiles(table, order, targets, Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS));
+    }
+
+    /**
+     * @param targets target of each row in order (see plan)
+     * @param threads maximum number of files copied at once
+     * @return the number of files that failed
+     */
+    public int importFiles(FileTable table, int[] order, Path[] targets, int threads) {
+        try {
+            Files.createDirectories(library);
+        } catch (IOException ex) {
+            LOG.error("Unable to create library [{}]", library, ex);
+            return order.length;
+        }
+        long start = System.nanoTime();
+        int failed = 0;
+        ExecutorService executor = newExecutor(Math.max(1, threads));
+        try {
+            List<Future<Boolean>> results = new ArrayList<>(order.length);
+            for (int i = 0; i < order.length; i++) {
+                int row = order[i];
+                Path target = targets[i];
+                results.add(executor.submit(() -> importFile(table, row, target)));
+            }
+            for (Future<Boolean> result : results) {
+                try {
+                    if (!result.get()) {
+                        failed++;
+                    }
+                } catch (ExecutionException ex) {
+                    LOG.error("Import failed", ex.getCause());
+                    failed++;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    LOG.error("Import interrupted; re-run to import the remaining files");
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        LOG.info("Imported [fileCount={} copied={} archived={} failed={} bytes={} threads={} elapsedMillis={} " +
+                        "megabytesPerSecond={}]", order.length, copied.get(), archived.get(), failed,
+                bytesCopied.get(), threads, elapsedMillis, (bytesCopied.get() >> 20) * 1000L / Math.max(1,
+                        elapsedMillis));
+        return failed;
+    }
+
+    /**
+     * Copy one file into the library, recording its digest
+     *
+     * @return false if the copy failed (any partial copy is removed)
+     */
+    boolean importFile(FileTable table, int row, Path target) {
+        Path source = table.getSourcePath(row);
+        long size = table.getFileLength(row);
+        Path temporary = target.resolveSibling(target.getFileName() + TEMPORARY_SUFFIX);
+        try {
+            // Content of a size never catalogued is new, and is copied (and hashed) in one pass. Otherwise hash the
+            // source first, so that content already in the library costs one read rather than a copy
+            ContentDigest known = null;
+            if (catalog != null && catalog.containsSize(size)) {
+                known = DigestEngine.digest(source);
+                String existing = findArchived(size, known, target);
+                if (existing != null) {
+                    logArchived(known, source, existing);
+                    return true;
+                }
+            }
+
+            ContentDigest digest;
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                digest = DigestEngine.copy(source, out);
+                if (out.size() != size) {
+                    throw new IOException("Copied " + out.size() + " bytes of " + size);
+                }
+                if (known != null && !known.equals(digest)) {
+                    throw new IOException("Source changed during the import");
+                }
+                // The card may be wiped once the import reports success
+                out.force(false);
+            }
+            if (verify && !digest.equals(DigestEngine.digest(temporary))) {
+                throw new IOException("Copy does not match the digest of the source");
+            }
+
+            // Check and record under the digest's lock, so that of two copies of one content in the batch, only the
+            // first is kept
+            synchronized (lockFor(digest)) {
+                String existing = findArchived(size, digest, target);
+                if (existing != null) {
+                    Files.delete(temporary);
+                    logArchived(digest, source, existing);
+                    return true;
+                }
+
+                // Set the times before the rename (which keeps them), so the copy appears with its final dates
+                Instant dateTaken = table.hasDateTaken(row) ? table.getDateTaken(row) : null;
+                FileMetadata.setFileDate(temporary.toFile(),
+                        (dateTaken != null) ? dateTaken : Instant.ofEpochMilli(table.getLastModified(row)));
+                Files.move(temporary, target);
+                LOG.debug("copied \"{}\" \"{}\"", source, target);
+
+                table.setDigest(row, digest);
+                record(target, size, dateTaken, digest);
+            }
+            copied.incrementAndGet();
+            bytesCopied.addAndGet(size);
+            return true;
+        } catch (IOException ex) {
+            LOG.error("FAILED: Import failed for [{}] to [{}]", FileMetadata.getDisplayName(source), target, ex);
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException e) {
+                LOG.error("Unable to remove partial copy [{}]", temporary, e);
+            }
+            return false;
+        }
+    }
+
+    private void logArchived(ContentDigest digest, Path source, String existing) {
+        LOG.info("ARC: {} \"{}\" \"{}\"", digest, FileMetadata.getDisplayName(source), existing);
+        archived.incrementAndGet();
+    }
+
+    private Object lockFor(ContentDigest digest) {
+        return locks[digest.hashCode() & (locks.length - 1)];
+    }
+
+    /**
+     * @return the path of a file (other than the target) the catalog holds with this content, or null
+     */
+    private String findArchived(long size, ContentDigest digest, Path target) throws IOException {
+        if (catalog == null) {
+            return null;
+        }
+        String self = target.toAbsolutePath().toString();
+        for (String path : catalog.find(size, digest)) {
+            // Ignore entries for files since moved or deleted
+            if (!path.equals(self) && new File(path).exists()) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    private void record(Path target, long size, Instant dateTaken, ContentDigest digest) throws IOException {
+        if (catalog != null) {
+            catalog.add(size, digest, target);
+        }
+        if (cache != null) {
+            BasicFileAttributes attrs = Files.readAttributes(target, BasicFileAttributes.class);
+            if (dateTaken != null) {
+                cache.putDateTaken(target, attrs, dateTaken);
+            }
+            cache.putDigest(target, attrs, DigestEngine.getDefaultAlgorithm(), digest);
+        }
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        AtomicInteger threadId = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "import-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(threads, factory);
+    }
+}
@@ -0,0 +1,154 @@
+package org.grizzlytech.metamorphosis;
+
+import org.grizzlytech.metamorphosis.similar.BKTree;
+import org.grizzlytech.metamorphosis.similar.PerceptualHash;
+import org.grizzlytech.metamorphosis.util.ConcurrentIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Find near-duplicate images: re-saved, resized or re-encoded copies that DuplicateFinder cannot see, as their bytes
+ * differ. Each image gets a perceptual hash (from its EXIF thumbnail where it has one); images whose hashes lie
+ * within a small Hamming distance are grouped. Pairs are found through a BK-tree, so the cost grows far more slowly
+ * than comparing every pair.
+ */
+public class NearDuplicateFinder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NearDuplicateFinder.class);
+
+    /**
+     * System property enabling near-duplicate detection, giving the maximum Hamming distance (e.g. 6)
+     */
+    public static final String NEAR_DUPLICATES_PROPERTY = "metamorphosis.nearDuplicates";
+
+    /**
+     * @param files       media files to examine (those ImageIO cannot read, such as videos, are skipped)
+     * @param maxDistance maximum number of differing hash bits between near duplicates (0 to 64)
+     * @return groups of near-duplicate files, each group in FileInfo order
+     */
+    public static List<List<FileInfo>> findNearDuplicates(FileInfo[] files, int maxDistance) {
+        long start = System.nanoTime();
+        List<FileInfo> images = Arrays.stream(files).filter(NearDuplicateFinder::isImage).collect(Collectors.toList());
+
+        // Hash concurrently; files with identical hashes share one entry
+        ConcurrentIndex<Long, FileInfo> byHash = hashAll(images);
+        BKTree tree = new BKTree();
+        List<List<FileInfo>> members = new ArrayList<>(byHash.size());
+        byHash.forEach((hash, group) -> {
+            tree.add(hash);
+            members.add(group);
+        });
+
+        // Join every pair of hashes within maxDistance (union-find over tree IDs)
+        int[] parent = new int[tree.size()];
+        Arrays.setAll(parent, i -> i);
+        for (int id = 0; id < tree.size(); id++) {
+            final int self = id;
+            tree.search(tree.getHash(id), maxDistance, other -> {
+                if (other > self) {
+                    union(parent, self, other);
+                }
+            });
+        }
+
+        Map<Integer, List<FileInfo>> groups = new HashMap<>();
+        for (int id = 0; id < tree.size(); id++) {
+            groups.computeIfAbsent(find(parent, id), root -> new ArrayList<>()).addAll(members.get(id));
+        }
+        List<List<FileInfo>> result = groups.values().stream()
+                .filter(group -> group.size() > 1)
+                .peek(group -> group.sort(null))
+                .sorted(Comparator.comparing((List<FileInfo> group) -> group.get(0)))
+                .collect(Collectors.toList());
+        LOG.info("Near duplicates [images={} hashes={} groups={} maxDistance={} elapsedMillis={}]", images.size(),
+                tree.size(), result.size(), maxDistance, (System.nanoTime() - start) / 1_000_000);
+        return result;
+    }
+
+    /**
+     * Read each image on its device's I/O pool (see DigestExtractor), then decode and hash it on a pool sized to the
+     * processors, so that a single-reader spinning disk does not leave decoding to a single thread. The images read
+     * but not yet decoded are bounded, keeping the encoded bytes held to a few per processor
+     */
+    private static ConcurrentIndex<Long, FileInfo> hashAll(List<FileInfo> images) {
+        ConcurrentIndex<Long, FileInfo> byHash = new ConcurrentIndex<>(FileInfo::compareTo);
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxPending = threads * 2;
+        Semaphore pending = new Semaphore(maxPending);
+        ExecutorService decoders = newExecutor(threads);
+        try {
+            DigestExtractor.indexAll(images, info -> {
+                byte[] image = PerceptualHash.readImage(info.getSourcePath());
+                if (image != null) {
+                    pending.acquireUninterruptibly();
+                    try {
+                        decoders.execute(() -> {
+                            try {
+                                Long hash = PerceptualHash.hashOf(image);
+                                if (hash != null) {
+                                    byHash.insert(hash, info);
+                                }
+                            } finally {
+                                pending.release();
+                            }
+                        });
+                    } catch (RuntimeException ex) {
+                        pending.release();
+                        throw ex;
+                    }
+                }
+                return null;
+            });
+            // All permits are only available once every image is decoded
+            pending.acquireUninterruptibly(maxPending);
+        } finally {
+            decoders.shutdown();
+        }
+        return byHash;
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        AtomicInteger threadId = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "phash-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(threads, factory);
+    }
+
+    private static boolean isImage(FileInfo info) {
+        String extension = FileMetadata.getExtension(info.getSourceFileName()).substring(1);
+        return ImageIO.getImageReadersBySuffix(extension.toLowerCase()).hasNext();
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+}
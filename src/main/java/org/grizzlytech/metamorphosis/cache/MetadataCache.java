@@ -0,0 +1,921 @@
+package org.grizzlytech.metamorphosis.cache;
+
+import org.grizzlytech.metamorphosis.digest.ContentDigest;
+import org.grizzlytech.metamorphosis.digest.DigestAlgorithm;
+import org.grizzlytech.metamorphosis.util.PositionalReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of extracted metadata (date taken and content digest), so re-runs skip unchanged files.
+ * <p>
+ * Rows are keyed by absolute path and are only trusted while the file size, last modified time and file key
+ * (inode, where the platform provides one) still match. The bulk of the cache is a generation file of CRC checked
+ * records sorted by a hash of the path, behind a fixed-width index (hash, record offset and length) that is
+ * memory-mapped and binary searched: opening reads a header however many rows there are, and a lookup reads one
+ * record. Only the rows recorded or removed since the generation was written are held on the heap; they are
+ * appended to a log of the same records (replayed on open; a torn tail left by a crash is detected and discarded).
+ * Once the log has grown past a tenth of the generation (and COMPACT_MIN records), closing merges it into a new
+ * generation file, which gets a new name so that a mapped file is never replaced in place.
+ */
+public class MetadataCache implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetadataCache.class);
+
+    /**
+     * Default cache file name (of the log; generation files are named after it), created in the root of the
+     * scanned directory
+     */
+    public static final String DEFAULT_FILE_NAME = ".metamorphosis.cache";
+
+    /**
+     * System property overriding the cache location. Set to "none" to disable caching
+     */
+    public static final String CACHE_PROPERTY = "metamorphosis.cache";
+
+    private static final int MAGIC = 0x4D4D4333; // "MMC3"
+    private static final int GENERATION_MAGIC = 0x4D4D4347; // "MMCG"
+    private static final int HEADER_LENGTH = Integer.BYTES + Long.BYTES;
+
+    /**
+     * Generation header: magic, timeOffset, rowCount, indexOffset, recordsOffset, recordsLength (then padding)
+     */
+    private static final int GENERATION_HEADER_LENGTH = 64;
+
+    /**
+     * Index entry: path hash, then the record's offset (within the records region) and length packed in one long
+     */
+    private static final int INDEX_ENTRY_LENGTH = 16;
+    private static final int LENGTH_BITS = 24;
+    private static final long LENGTH_MASK = (1L << LENGTH_BITS) - 1;
+    private static final int SEGMENT_SHIFT = 26; // index entries per mapped segment (1 GB)
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private static final int MAX_RECORD_LENGTH = 1 << 16;
+    private static final int FLUSH_EVERY = 4096; // records between fsyncs
+    private static final int BUFFER_SIZE = 1 << 20; // holds at least one whole record
+    private static final int COMPACT_MIN = 100_000; // log records before compaction is considered
+
+    private static final byte HAS_DATE = 1;
+    private static final byte HAS_DIGEST = 2;
+    private static final byte REMOVED = 4;
+
+    /**
+     * Held (and logged) in place of a row removed since the generation was written
+     */
+    private static final Entry REMOVED_ROW = new Entry(-1, -1, "", null, null, null);
+
+    private final Path cacheFile;
+
+    private final Pattern generationName;
+
+    private final long timeOffset;
+
+    /**
+     * Rows recorded or removed since the generation was written: replayed from the log, or from this run
+     */
+    private final Map<String, Entry> appended = new ConcurrentHashMap<>();
+
+    /**
+     * Keys replayed from the log that have not been looked up or recorded during this run
+     */
+    private final Set<String> unseen = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Generation rows looked up during this run
+     */
+    private final BitSet seenRows = new BitSet();
+
+    private long generation = 0;
+
+    private FileChannel data;
+
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    private long rowCount = 0;
+
+    private long recordsOffset;
+
+    private long recordsLength;
+
+    private final ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private FileChannel log;
+
+    private int pendingRecords = 0;
+
+    private int recordCount = 0;
+
+    private int hits = 0;
+
+    private int misses = 0;
+
+    /**
+     * A cached row. Immutable; updates replace the row
+     */
+    public static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;
+        private final Instant dateTaken;
+        private final DigestAlgorithm digestAlgorithm;
+        private final ContentDigest digest;
+
+        Entry(long size, long lastModified, String fileKey, Instant dateTaken,
+              DigestAlgorithm digestAlgorithm, ContentDigest digest) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.dateTaken = dateTaken;
+            this.digestAlgorithm = digestAlgorithm;
+            this.digest = digest;
+        }
+
+        public Instant getDateTaken() {
+            return dateTaken;
+        }
+
+        /**
+         * @return the digest if one was recorded with the given algorithm, else null
+         */
+        public ContentDigest getDigest(DigestAlgorithm algorithm) {
+            return (digestAlgorithm == algorithm) ? digest : null;
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            String key = fileKeyOf(attrs);
+            return size == attrs.size() && lastModified == attrs.lastModifiedTime().toMillis() &&
+                    (fileKey.isEmpty() || key.isEmpty() || fileKey.equals(key));
+        }
+    }
+
+    private MetadataCache(Path cacheFile, long timeOffset) {
+        this.cacheFile = cacheFile;
+        this.generationName = Pattern.compile(Pattern.quote(cacheFile.getFileName().toString()) +
+                "-(\\d{6})\\.dat");
+        this.timeOffset = timeOffset;
+    }
+
+    /**
+     * Open (or create) the cache for a scan root, honouring the CACHE_PROPERTY override
+     *
+     * @param dir        directory being scanned
+     * @param timeOffset camera time offset in force; a cache written under a different offset is discarded
+     * @return the cache, or null if caching is disabled or unavailable
+     */
+    public static MetadataCache open(Path dir, long timeOffset) {
+        String location = System.getProperty(CACHE_PROPERTY);
+        if ("none".equalsIgnoreCase(location)) {
+            return null;
+        }
+        Path cacheFile = (location != null) ? Paths.get(location) : dir.resolve(DEFAULT_FILE_NAME);
+        MetadataCache cache = new MetadataCache(cacheFile.toAbsolutePath(), timeOffset);
+        try {
+            cache.load();
+            return cache;
+        } catch (IOException ex) {
+            LOG.error("Unable to open metadata cache [{}]", cacheFile, ex);
+            cache.closeQuietly();
+            return null;
+        }
+    }
+
+    /**
+     * Find a row that is still valid for the file
+     *
+     * @param path  the file
+     * @param attrs the file's current attributes
+     * @return the row, or null if absent or stale
+     */
+    public Entry lookup(Path path, BasicFileAttributes attrs) {
+        String key = keyOf(path);
+        Entry entry = find(key, true);
+        if (entry != null && !entry.matches(attrs)) {
+            entry = null;
+        }
+        synchronized (this) {
+            if (entry != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Record the date taken for a file, retaining any digest already held for the same content
+     */
+    public void putDateTaken(Path path, BasicFileAttributes attrs, Instant dateTaken) {
+        Entry prior = current(path, attrs);
+        if (prior != null) {
+            put(path, attrs, dateTaken, prior.digestAlgorithm, prior.digest);
+        } else {
+            put(path, attrs, dateTaken, null, null);
+        }
+    }
+
+    /**
+     * Record the content digest for a file, retaining any date taken already held for the same content
+     */
+    public void putDigest(Path path, BasicFileAttributes attrs, DigestAlgorithm algorithm, ContentDigest digest) {
+        Entry prior = current(path, attrs);
+        put(path, attrs, (prior != null) ? prior.dateTaken : null, algorithm, digest);
+    }
+
+    /**
+     * Carry a row across a rename and/or timestamp change, so the next run still hits
+     *
+     * @param source original path
+     * @param target new path (may equal source)
+     */
+    public void relocate(Path source, Path target) {
+        String sourceKey = keyOf(source);
+        Entry prior = find(sourceKey, false);
+        if (prior != null) {
+            remove(sourceKey);
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(target, BasicFileAttributes.class);
+                put(target, attrs, prior.dateTaken, prior.digestAlgorithm, prior.digest);
+            } catch (IOException ex) {
+                LOG.error("Unable to relocate cache row [{}] to [{}]", source, target, ex);
+            }
+        }
+    }
+
+    /**
+     * Drop the rows under a root that were not looked up or recorded during this run. Call only after walking the
+     * whole root: rows elsewhere (a cache shared between roots, or a library being imported into) are kept
+     *
+     * @param root directory whose every file has been scanned
+     */
+    public void pruneUnseen(Path root) {
+        String prefix = keyOf(root);
+        String separator = root.getFileSystem().getSeparator();
+        String under = prefix.endsWith(separator) ? prefix : prefix + separator;
+        int[] pruned = {0};
+        for (String key : unseen) {
+            if (key.startsWith(under)) {
+                remove(key);
+                pruned[0]++;
+            }
+        }
+        // The generation's records lie in row order, so they are streamed rather than looked up one by one
+        long[] row = {0};
+        try {
+            scanGeneration(payload -> {
+                long r = row[0]++;
+                String key = getString(payload);
+                if (key.startsWith(under) && !isSeen(r) && !appended.containsKey(key)) {
+                    remove(key);
+                    pruned[0]++;
+                }
+            });
+        } catch (IOException ex) {
+            LOG.error("Unable to prune metadata cache [{}]", cacheFile, ex);
+        }
+        LOG.info("Pruned metadata cache [root={} rows={}]", root, pruned[0]);
+    }
+
+    /**
+     * Flush pending rows to disk and fsync
+     */
+    public synchronized void flush() {
+        if (log == null || pending.position() == 0) {
+            return;
+        }
+        try {
+            pending.flip();
+            while (pending.hasRemaining()) {
+                log.write(pending);
+            }
+            log.force(false);
+        } catch (IOException ex) {
+            LOG.error("Unable to flush metadata cache [{}]", cacheFile, ex);
+        } finally {
+            pending.clear();
+            pendingRecords = 0;
+        }
+    }
+
+    /**
+     * Flush, then compact if the log has reached the compaction threshold
+     */
+    @Override
+    public synchronized void close() {
+        flush();
+        try {
+            if (log != null && recordCount >= compactThreshold(rowCount)) {
+                compact();
+            }
+        } catch (IOException ex) {
+            LOG.error("Unable to compact metadata cache [{}]", cacheFile, ex);
+        }
+        LOG.info("Metadata cache closed [generation={} rows={} logRecords={} hits={} misses={}]", generation,
+                rowCount, recordCount, hits, misses);
+        closeQuietly();
+    }
+
+    /**
+     * Merge the log into a new generation file, then empty the log
+     */
+    synchronized void compact() throws IOException {
+        flush();
+        long start = System.nanoTime();
+        List<Row> rows = new ArrayList<>(appended.size());
+        appended.forEach((key, entry) -> rows.add(new Row(hashOf(key), key, entry)));
+        rows.sort(null);
+
+        long newGeneration = generation + 1;
+        Path target = generationFile(newGeneration);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Path recordsTemp = target.resolveSibling(target.getFileName() + ".records.tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+             FileChannel recordsOut = FileChannel.open(recordsTemp, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                     StandardOpenOption.DELETE_ON_CLOSE)) {
+            GenerationWriter writer = new GenerationWriter(out, recordsOut);
+            int[] next = {0};
+            scanGeneration(payload -> {
+                String key = getString(payload);
+                Row row = new Row(hashOf(key), key, null);
+                // Rows of this run sort before (or replace) the generation's row
+                while (next[0] < rows.size() && rows.get(next[0]).compareTo(row) <= 0) {
+                    writer.write(rows.get(next[0]++));
+                }
+                if (!appended.containsKey(key)) {
+                    payload.rewind();
+                    writer.write(row.hash, frame(payload));
+                }
+            });
+            while (next[0] < rows.size()) {
+                writer.write(rows.get(next[0]++));
+            }
+            writer.finish(timeOffset);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+
+        // Switch to the new generation, then empty the log (a crash in between only replays rows already held)
+        Path previous = (data != null) ? generationFile(generation) : null;
+        closeGeneration();
+        mapGeneration(target);
+        generation = newGeneration;
+        log.truncate(HEADER_LENGTH);
+        log.force(true);
+        appended.clear();
+        unseen.clear();
+        synchronized (seenRows) {
+            seenRows.clear();
+        }
+        recordCount = 0;
+        if (previous != null) {
+            deleteQuietly(previous);
+        }
+        LOG.info("Compacted metadata cache [generation={} rows={} elapsedMillis={}]", generation, rowCount,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * @param markSeen true to count the row as seen by this run (see pruneUnseen)
+     * @return the row held for the key (valid or not), or null
+     */
+    private Entry find(String key, boolean markSeen) {
+        Entry entry = appended.get(key);
+        if (entry != null) {
+            if (markSeen) {
+                unseen.remove(key);
+            }
+            return (entry != REMOVED_ROW) ? entry : null;
+        }
+        try {
+            long hash = hashOf(key);
+            for (long row = lowerBound(hash); row < rowCount && getIndexLong(row, 0) == hash; row++) {
+                ByteBuffer payload = readRecord(row);
+                if (payload != null && key.equals(getString(payload))) {
+                    if (markSeen) {
+                        synchronized (seenRows) {
+                            seenRows.set((int) row);
+                        }
+                    }
+                    return decodeEntry(payload);
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOG.warn("Unreadable metadata cache row for [{}]: {}", key, ex.toString());
+        }
+        return null;
+    }
+
+    private boolean isSeen(long row) {
+        synchronized (seenRows) {
+            return seenRows.get((int) row);
+        }
+    }
+
+    private Entry current(Path path, BasicFileAttributes attrs) {
+        Entry entry = find(keyOf(path), false);
+        return (entry != null && entry.matches(attrs)) ? entry : null;
+    }
+
+    private void put(Path path, BasicFileAttributes attrs, Instant dateTaken,
+                     DigestAlgorithm digestAlgorithm, ContentDigest digest) {
+        String key = keyOf(path);
+        Entry entry = new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), fileKeyOf(attrs),
+                dateTaken, digestAlgorithm, digest);
+        appended.put(key, entry);
+        unseen.remove(key);
+        append(key, entry);
+    }
+
+    private void remove(String key) {
+        appended.put(key, REMOVED_ROW);
+        unseen.remove(key);
+        append(key, REMOVED_ROW);
+    }
+
+    private synchronized void append(String key, Entry entry) {
+        if (log == null) {
+            return;
+        }
+        ByteBuffer record = encode(key, entry);
+        if (record.remaining() > pending.remaining()) {
+            flush();
+        }
+        pending.put(record);
+        recordCount++;
+        if (++pendingRecords >= FLUSH_EVERY) {
+            flush();
+        }
+    }
+
+    private static long compactThreshold(long rows) {
+        return Math.max(COMPACT_MIN, rows / 10);
+    }
+
+    // Loading
+
+    private void load() throws IOException {
+        long start = System.nanoTime();
+        Path dir = cacheFile.getParent();
+        Files.createDirectories(dir);
+        // The newest generation wins; older ones are left over from compactions
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir,
+                cacheFile.getFileName().toString().replaceAll("[*?\\[\\]{}\\\\]", "?") + "-*.dat")) {
+            for (Path file : files) {
+                Matcher matcher = generationName.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    generations.add(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        generations.sort(null);
+        for (int i = 0; i < generations.size() - 1; i++) {
+            deleteQuietly(generationFile(generations.get(i)));
+        }
+        if (!generations.isEmpty()) {
+            generation = generations.get(generations.size() - 1);
+            Path file = generationFile(generation);
+            try {
+                if (!mapGeneration(file)) {
+                    LOG.info("Metadata cache [{}] is from another version or time offset; discarding", file);
+                    closeGeneration();
+                    deleteQuietly(file);
+                }
+            } catch (IOException ex) {
+                LOG.warn("Discarding unreadable metadata cache [{}]: {}", file, ex.toString());
+                closeGeneration();
+                deleteQuietly(file);
+            }
+        }
+        openLog();
+        LOG.info("Opened metadata cache [{}] [generation={} rows={} logRecords={} elapsedMillis={}]", cacheFile,
+                generation, rowCount, recordCount, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * @return false if the file is from another version or time offset
+     */
+    private boolean mapGeneration(Path file) throws IOException {
+        data = FileChannel.open(file, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(GENERATION_HEADER_LENGTH);
+        PositionalReader.readFully(data, header, 0);
+        header.flip();
+        if (header.getInt() != GENERATION_MAGIC || header.getLong() != timeOffset) {
+            return false;
+        }
+        long count = header.getLong();
+        long indexOffset = header.getLong();
+        recordsOffset = header.getLong();
+        recordsLength = header.getLong();
+        if (count < 0 || count >= Integer.MAX_VALUE || recordsOffset + recordsLength > data.size()) {
+            throw new IOException("Corrupt header");
+        }
+
+        int segmentCount = (int) ((count + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        segments = new MappedByteBuffer[segmentCount];
+        for (int s = 0; s < segmentCount; s++) {
+            long first = (long) s << SEGMENT_SHIFT;
+            long length = Math.min(count - first, 1L << SEGMENT_SHIFT) * INDEX_ENTRY_LENGTH;
+            segments[s] = data.map(FileChannel.MapMode.READ_ONLY, indexOffset + first * INDEX_ENTRY_LENGTH, length);
+        }
+        rowCount = count;
+        return true;
+    }
+
+    private void openLog() throws IOException {
+        log = FileChannel.open(cacheFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ);
+        long valid = HEADER_LENGTH;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        if (log.size() >= HEADER_LENGTH) {
+            PositionalReader.readFully(log, header, 0);
+            header.flip();
+        }
+        if (header.remaining() == HEADER_LENGTH && header.getInt() == MAGIC && header.getLong() == timeOffset) {
+            log.position(HEADER_LENGTH);
+            valid += scanRecords(log, payload -> {
+                String key = getString(payload);
+                Entry entry = decodeEntry(payload);
+                appended.put(key, entry);
+                if (entry != REMOVED_ROW) {
+                    unseen.add(key);
+                } else {
+                    unseen.remove(key);
+                }
+                recordCount++;
+            });
+        } else {
+            // New, incompatible or corrupt header: start afresh
+            if (log.size() > 0) {
+                LOG.info("Metadata cache [{}] is from another version or time offset; discarding", cacheFile);
+            }
+            log.truncate(0);
+            writeHeader(log);
+        }
+        if (log.size() > valid) {
+            LOG.warn("Discarding torn tail of metadata cache [{}] at offset {}", cacheFile, valid);
+            log.truncate(valid);
+        }
+        log.position(valid);
+    }
+
+    /**
+     * Visit the generation's records in row order (nothing if there is no generation)
+     */
+    private void scanGeneration(RecordVisitor visitor) throws IOException {
+        if (data == null || rowCount == 0) {
+            return;
+        }
+        // A channel of its own, so that lookups (positional reads) continue meanwhile
+        try (FileChannel channel = FileChannel.open(generationFile(generation), StandardOpenOption.READ)) {
+            channel.position(recordsOffset);
+            scanRecords(channel, visitor);
+        }
+    }
+
+    /**
+     * Read consecutive records from the channel's position in fixed-size chunks, so reading needs no more heap than
+     * one chunk however large the file has grown. Stops at the first torn or malformed record
+     *
+     * @return the number of bytes of intact records read
+     */
+    private static long scanRecords(FileChannel channel, RecordVisitor visitor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.flip();
+        CRC32 crc = new CRC32();
+        long valid = 0;
+        try {
+            while (fill(channel, buffer, Integer.BYTES)) {
+                int length = buffer.getInt(buffer.position());
+                if (length <= 0 || length > MAX_RECORD_LENGTH ||
+                        !fill(channel, buffer, Integer.BYTES + length + Integer.BYTES)) {
+                    break;
+                }
+                buffer.position(buffer.position() + Integer.BYTES);
+                ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                buffer.position(buffer.position() + length);
+                if ((int) crc.getValue() != buffer.getInt()) {
+                    break;
+                }
+                visitor.visit(payload);
+                valid += Integer.BYTES + length + Integer.BYTES;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException ex) {
+            LOG.warn("Malformed metadata cache record after {} bytes", valid);
+        }
+        return valid;
+    }
+
+    /**
+     * Ensure the buffer (in read mode) holds at least the given number of bytes, moving what remains to the front
+     * and reading more when it does not
+     *
+     * @return false if the file ends first
+     */
+    private static boolean fill(FileChannel channel, ByteBuffer buffer, int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            return true;
+        }
+        buffer.compact();
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // keep reading until the buffer is full or the file ends
+        }
+        buffer.flip();
+        return buffer.remaining() >= length;
+    }
+
+    // Generation file access
+
+    private long getIndexLong(long row, int field) {
+        return segments[(int) (row >>> SEGMENT_SHIFT)].getLong((int) (row & SEGMENT_MASK) * INDEX_ENTRY_LENGTH + field);
+    }
+
+    /**
+     * @return the first row whose hash is not less than the given hash
+     */
+    private long lowerBound(long hash) {
+        long low = 0;
+        long high = rowCount;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (getIndexLong(mid, 0) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the row's payload, or null if its CRC does not match
+     */
+    private ByteBuffer readRecord(long row) throws IOException {
+        long location = getIndexLong(row, 8);
+        ByteBuffer record = ByteBuffer.allocate((int) (location & LENGTH_MASK));
+        PositionalReader.readFully(data, record, recordsOffset + (location >>> LENGTH_BITS));
+        record.flip();
+        int length = record.getInt();
+        ByteBuffer payload = record.slice();
+        payload.limit(length);
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        return ((int) crc.getValue() == record.getInt(Integer.BYTES + length)) ? payload : null;
+    }
+
+    private Path generationFile(long number) {
+        return cacheFile.resolveSibling(cacheFile.getFileName() + String.format("-%06d.dat", number));
+    }
+
+    private void closeGeneration() throws IOException {
+        // The mappings are released by the garbage collector; the file is not replaced in place, so that is safe
+        segments = new MappedByteBuffer[0];
+        rowCount = 0;
+        if (data != null) {
+            data.close();
+            data = null;
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            closeGeneration();
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        } catch (IOException ex) {
+            LOG.error("Unable to close metadata cache [{}]", cacheFile, ex);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            // Still mapped (Windows): removed by a later open instead
+            LOG.debug("Unable to delete old metadata cache generation [{}]: {}", file, ex.toString());
+        }
+    }
+
+    private void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putLong(timeOffset);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Records
+
+    /**
+     * Record layout: length, payload, CRC32(payload). Payload layout:
+     * path, size, lastModified, fileKey, flags, [epochSecond, nano], [digestAlgorithm, digest]
+     */
+    private static ByteBuffer encode(String key, Entry entry) {
+        byte[] path = key.getBytes(StandardCharsets.UTF_8);
+        byte[] fileKey = entry.fileKey.getBytes(StandardCharsets.UTF_8);
+        int length = Short.BYTES + path.length + Long.BYTES * 2 + Short.BYTES + fileKey.length + 1 +
+                ((entry.dateTaken != null) ? Long.BYTES + Integer.BYTES : 0) +
+                ((entry.digest != null) ? 1 + ContentDigest.LENGTH : 0);
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + length + Integer.BYTES);
+        record.putInt(length);
+        record.putShort((short) path.length).put(path);
+        record.putLong(entry.size).putLong(entry.lastModified);
+        record.putShort((short) fileKey.length).put(fileKey);
+        record.put((entry == REMOVED_ROW) ? REMOVED :
+                (byte) (((entry.dateTaken != null) ? HAS_DATE : 0) | ((entry.digest != null) ? HAS_DIGEST : 0)));
+        if (entry.dateTaken != null) {
+            record.putLong(entry.dateTaken.getEpochSecond()).putInt(entry.dateTaken.getNano());
+        }
+        if (entry.digest != null) {
+            record.put((byte) entry.digestAlgorithm.ordinal()).putLong(entry.digest.getHigh()).putLong(entry.digest.getLow());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), Integer.BYTES, length);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    /**
+     * @return the whole record (length, payload, CRC32) holding the payload
+     */
+    private static ByteBuffer frame(ByteBuffer payload) {
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + payload.remaining() + Integer.BYTES);
+        record.putInt(payload.remaining());
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        record.put(payload).putInt((int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Decode the rest of a payload whose path has been read
+     */
+    private static Entry decodeEntry(ByteBuffer payload) {
+        long size = payload.getLong();
+        long lastModified = payload.getLong();
+        String fileKey = getString(payload);
+        byte flags = payload.get();
+        if ((flags & REMOVED) != 0) {
+            return REMOVED_ROW;
+        }
+        Instant dateTaken = ((flags & HAS_DATE) != 0) ? Instant.ofEpochSecond(payload.getLong(), payload.getInt()) : null;
+        DigestAlgorithm digestAlgorithm = null;
+        ContentDigest digest = null;
+        if ((flags & HAS_DIGEST) != 0) {
+            digestAlgorithm = DigestAlgorithm.values()[payload.get()];
+            digest = new ContentDigest(payload.getLong(), payload.getLong());
+        }
+        return new Entry(size, lastModified, fileKey, dateTaken, digestAlgorithm, digest);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a 64-bit hash of the path (FNV-1a over its chars, then mixed), which orders the generation's rows
+     */
+    static long hashOf(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        return h ^ (h >>> 33);
+    }
+
+    private static String keyOf(Path path) {
+        return path.toAbsolutePath().toString();
+    }
+
+    private static String fileKeyOf(BasicFileAttributes attrs) {
+        return (attrs.fileKey() != null) ? attrs.fileKey().toString() : "";
+    }
+
+    private interface RecordVisitor {
+        void visit(ByteBuffer payload) throws IOException;
+    }
+
+    /**
+     * A row of this run, ordered as the generation file's rows (by hash, then path)
+     */
+    private static final class Row implements Comparable<Row> {
+        private final long hash;
+        private final String key;
+        private final Entry entry;
+
+        Row(long hash, String key, Entry entry) {
+            this.hash = hash;
+            this.key = key;
+            this.entry = entry;
+        }
+
+        @Override
+        public int compareTo(Row o) {
+            int result = Long.compare(hash, o.hash);
+            return (result != 0) ? result : key.compareTo(o.key);
+        }
+    }
+
+    /**
+     * Writes a generation file: the index straight into the file, the records into a temporary file that is copied
+     * after the index once its length is known
+     */
+    private static final class GenerationWriter {
+        private final FileChannel out;
+        private final FileChannel recordsOut;
+        private final ByteBuffer index = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteBuffer records = ByteBuffer.allocate(BUFFER_SIZE);
+        private long count = 0;
+        private long recordsLength = 0;
+
+        GenerationWriter(FileChannel out, FileChannel recordsOut) throws IOException {
+            this.out = out;
+            this.recordsOut = recordsOut;
+            out.position(GENERATION_HEADER_LENGTH);
+        }
+
+        void write(Row row) throws IOException {
+            // Rows removed during the run are left out
+            if (row.entry != REMOVED_ROW) {
+                write(row.hash, encode(row.key, row.entry));
+            }
+        }
+
+        void write(long hash, ByteBuffer record) throws IOException {
+            if (index.remaining() < INDEX_ENTRY_LENGTH) {
+                writeFully(out, index);
+            }
+            index.putLong(hash).putLong((recordsLength << LENGTH_BITS) | record.remaining());
+            if (records.remaining() < record.remaining()) {
+                writeFully(recordsOut, records);
+            }
+            recordsLength += record.remaining();
+            records.put(record);
+            count++;
+        }
+
+        void finish(long timeOffset) throws IOException {
+            writeFully(out, index);
+            writeFully(recordsOut, records);
+            long indexOffset = GENERATION_HEADER_LENGTH;
+            long recordsOffset = indexOffset + count * INDEX_ENTRY_LENGTH;
+            for (long copied = 0; copied < recordsLength; ) {
+                copied += recordsOut.transferTo(copied, recordsLength - copied, out.position(recordsOffset + copied));
+            }
+            ByteBuffer header = ByteBuffer.allocate(GENERATION_HEADER_LENGTH);
+            header.putInt(GENERATION_MAGIC).putLong(timeOffset).putLong(count).putLong(indexOffset)
+                    .putLong(recordsOffset).putLong(recordsLength);
+            header.clear();
+            while (header.hasRemaining()) {
+                out.write(header, header.position());
+            }
+            out.force(true);
+        }
+    }
+}
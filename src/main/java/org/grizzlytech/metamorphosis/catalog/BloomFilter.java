@@ -0,0 +1,57 @@
+package org.grizzlytech.metamorphosis.catalog;
+
+/**
+ * A Bloom filter over keys that are already well mixed (content digests), using double hashing on two longs
+ * derived from the key. A negative answer is definite; a positive one means "look it up".
+ */
+public class BloomFilter {
+
+    /**
+     * Bits per expected key; with HASHES probes this gives a false positive rate of about 1%
+     */
+    public static final int BITS_PER_KEY = 10;
+
+    public static final int HASHES = 7;
+
+    private final long[] bits;
+
+    private final long bitCount;
+
+    public BloomFilter(long[] bits) {
+        this.bits = bits;
+        this.bitCount = (long) bits.length * Long.SIZE;
+    }
+
+    /**
+     * @return the number of longs to allocate for the expected number of keys
+     */
+    public static int longsFor(long expectedKeys) {
+        long longs = (Math.max(expectedKeys, 64) * BITS_PER_KEY + Long.SIZE - 1) / Long.SIZE;
+        return (int) Math.min(longs, Integer.MAX_VALUE - 8);
+    }
+
+    public void add(long h1, long h2) {
+        long h = h1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Long.remainderUnsigned(h, bitCount);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+            h += h2;
+        }
+    }
+
+    public boolean mightContain(long h1, long h2) {
+        long h = h1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Long.remainderUnsigned(h, bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+            h += h2;
+        }
+        return true;
+    }
+
+    public long[] getBits() {
+        return bits;
+    }
+}
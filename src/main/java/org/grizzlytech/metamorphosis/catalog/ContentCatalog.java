@@ -0,0 +1,707 @@
+package org.grizzlytech.metamorphosis.catalog;
+
+import org.grizzlytech.metamorphosis.digest.ContentDigest;
+import org.grizzlytech.metamorphosis.digest.DigestAlgorithm;
+import org.grizzlytech.metamorphosis.digest.DigestEngine;
+import org.grizzlytech.metamorphosis.util.PositionalReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent catalog of (size, content digest, path) across a whole archive, answering "is this content already
+ * archived, and where?".
+ * <p>
+ * The bulk of the catalog is a generation file of fixed-width entries sorted by size then digest, memory-mapped and
+ * binary searched, with the paths stored after the entries. A Bloom filter on size and digest is kept in the same
+ * file and loaded onto the heap, so most probes for new content never touch the mapping. New entries are appended to
+ * a CRC checked log (replayed on open) and merged into a new generation by compaction, which runs as soon as the
+ * log has grown past a tenth of the catalog (and COMPACT_MIN entries), so a long ingest holds a bounded number of
+ * log entries in memory. Each Bloom filter is sized for its generation plus a full log, so it never saturates before
+ * the next compaction. A new generation gets a new file name, so a mapped file is never replaced in place.
+ */
+public class ContentCatalog implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentCatalog.class);
+
+    /**
+     * System property giving the catalog directory. The catalog is only used when this is set
+     */
+    public static final String CATALOG_PROPERTY = "metamorphosis.catalog";
+
+    /**
+     * System property giving the number of entries the catalog is expected to reach, to size its Bloom filter
+     */
+    public static final String EXPECTED_ENTRIES_PROPERTY = "metamorphosis.catalog.expectedEntries";
+
+    private static final int MAGIC = 0x4D435431; // "MCT1"
+    private static final int LOG_MAGIC = 0x4D434C31; // "MCL1"
+
+    /**
+     * Generation header: magic, algorithm, entryCount, bloomLongs, entriesOffset, pathsOffset (then padding)
+     */
+    private static final int HEADER_LENGTH = 64;
+    private static final int LOG_HEADER_LENGTH = Integer.BYTES + 1;
+
+    /**
+     * Entry: size, digest high, digest low, path offset (relative to the paths region)
+     */
+    private static final int ENTRY_LENGTH = 32;
+    private static final int SEGMENT_SHIFT = 25; // entries per mapped segment (1 GB)
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private static final int MAX_RECORD_LENGTH = 1 << 16;
+    private static final int COMPACT_MIN = 100_000; // log entries before compaction is considered
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final String LOG_FILE = "catalog.log";
+    private static final Pattern GENERATION_FILE = Pattern.compile("catalog-(\\d{6})\\.dat");
+
+    private final Path dir;
+
+    private final DigestAlgorithm algorithm;
+
+    private final long expectedEntries;
+
+    private long generation = 0;
+
+    private FileChannel data;
+
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    private long entryCount = 0;
+
+    private long pathsOffset;
+
+    private BloomFilter bloom;
+
+    private FileChannel log;
+
+    private final ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Entries held in the log, not yet compacted
+     */
+    private final Map<Key, List<String>> appended = new HashMap<>();
+
+    /**
+     * Sizes of the entries in appended
+     */
+    private final Set<Long> appendedSizes = new HashSet<>();
+
+    private long appendedCount = 0;
+
+    private long lookups = 0;
+
+    private long bloomRejections = 0;
+
+    private ContentCatalog(Path dir, DigestAlgorithm algorithm, long expectedEntries) {
+        this.dir = dir;
+        this.algorithm = algorithm;
+        this.expectedEntries = expectedEntries;
+    }
+
+    /**
+     * @return the catalog named by CATALOG_PROPERTY (using the DigestEngine's default algorithm), or null if unset
+     * or unavailable
+     */
+    public static ContentCatalog fromSystemProperties() {
+        String location = System.getProperty(CATALOG_PROPERTY);
+        return (location != null) ? open(Paths.get(location), DigestEngine.getDefaultAlgorithm(),
+                Long.getLong(EXPECTED_ENTRIES_PROPERTY, 0)) : null;
+    }
+
+    /**
+     * Open (or create) a catalog
+     *
+     * @param dir       catalog directory
+     * @param algorithm digest algorithm of the entries; a catalog built with another algorithm cannot be opened
+     * @return the catalog, or null if it could not be opened
+     */
+    public static ContentCatalog open(Path dir, DigestAlgorithm algorithm) {
+        return open(dir, algorithm, 0);
+    }
+
+    /**
+     * Open (or create) a catalog
+     *
+     * @param dir             catalog directory
+     * @param algorithm       digest algorithm of the entries
+     * @param expectedEntries number of entries the catalog is expected to reach (0 if unknown), so that Bloom
+     *                        filters are sized for it from the start
+     * @return the catalog, or null if it could not be opened
+     */
+    public static ContentCatalog open(Path dir, DigestAlgorithm algorithm, long expectedEntries) {
+        ContentCatalog catalog = new ContentCatalog(dir.toAbsolutePath(), algorithm, expectedEntries);
+        try {
+            catalog.load();
+            return catalog;
+        } catch (IOException ex) {
+            LOG.error("Unable to open content catalog [{}]", dir, ex);
+            catalog.closeQuietly();
+            return null;
+        }
+    }
+
+    /**
+     * Find the archived paths holding the given content
+     *
+     * @param size   file size
+     * @param digest content digest
+     * @return the paths (empty if the content is not catalogued); paths may since have moved or been deleted
+     */
+    public synchronized List<String> find(long size, ContentDigest digest) throws IOException {
+        List<String> paths = new ArrayList<>(1);
+        lookups++;
+        if (!bloom.mightContain(bloomHash1(size, digest), bloomHash2(digest))) {
+            bloomRejections++;
+            return paths;
+        }
+        for (long i = lowerBound(size, digest); i < entryCount && compareEntry(i, size, digest) == 0; i++) {
+            paths.add(readPath(getLong(i, 24)));
+        }
+        List<String> recent = appended.get(new Key(size, digest));
+        if (recent != null) {
+            paths.addAll(recent);
+        }
+        return paths;
+    }
+
+    /**
+     * @param size file size
+     * @return true if any catalogued content has this size; false means content of this size is certainly new,
+     * without digesting it
+     */
+    public synchronized boolean containsSize(long size) {
+        if (appendedSizes.contains(size)) {
+            return true;
+        }
+        long low = 0;
+        long high = entryCount;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (getLong(mid, 0) < size) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < entryCount && getLong(low, 0) == size;
+    }
+
+    /**
+     * Catalog a file (ignored if the same content is already catalogued at the same path)
+     */
+    public synchronized void add(long size, ContentDigest digest, Path path) throws IOException {
+        String text = path.toAbsolutePath().toString();
+        if (find(size, digest).contains(text)) {
+            return;
+        }
+        appendToLog(size, digest, text);
+        remember(size, digest, text);
+        if (appendedCount >= compactThreshold(entryCount)) {
+            compact();
+        }
+    }
+
+    /**
+     * Merge the log into a new generation file, then empty the log
+     */
+    public synchronized void compact() throws IOException {
+        flushLog();
+        long start = System.nanoTime();
+        List<Row> rows = new ArrayList<>((int) appendedCount);
+        appended.forEach((key, paths) -> paths.forEach(path -> rows.add(new Row(key, path))));
+        rows.sort(Comparator.comparing((Row r) -> r.key));
+
+        long newGeneration = generation + 1;
+        Path target = generationFile(newGeneration);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Path pathsTemp = target.resolveSibling(target.getFileName() + ".paths.tmp");
+        BloomFilter newBloom = new BloomFilter(new long[BloomFilter.longsFor(bloomCapacity(entryCount + rows.size()))]);
+        long entriesOffset = HEADER_LENGTH + (long) newBloom.getBits().length * Long.BYTES;
+        long count = 0;
+
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+             FileChannel pathsOut = FileChannel.open(pathsTemp, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                     StandardOpenOption.DELETE_ON_CLOSE)) {
+            ByteBuffer entries = ByteBuffer.allocate(BUFFER_SIZE);
+            ByteBuffer paths = ByteBuffer.allocate(BUFFER_SIZE);
+            out.position(entriesOffset);
+            long pathsLength = 0;
+            int next = 0;
+            for (long i = 0; i <= entryCount; i++) {
+                // Log rows sort before the compacted entry at i (or all remaining, once entries run out)
+                while (next < rows.size() && (i == entryCount || compareEntry(i, rows.get(next).key) > 0)) {
+                    Row row = rows.get(next++);
+                    pathsLength = writeEntry(out, entries, pathsOut, paths, newBloom, row.key.size, row.key.digest,
+                            row.path.getBytes(StandardCharsets.UTF_8), pathsLength);
+                    count++;
+                }
+                if (i < entryCount) {
+                    ContentDigest digest = new ContentDigest(getLong(i, 8), getLong(i, 16));
+                    pathsLength = writeEntry(out, entries, pathsOut, paths, newBloom, getLong(i, 0), digest,
+                            readPathBytes(getLong(i, 24)), pathsLength);
+                    count++;
+                }
+            }
+            writeFully(out, entries);
+            writeFully(pathsOut, paths);
+
+            // Paths follow the entries
+            long newPathsOffset = entriesOffset + count * ENTRY_LENGTH;
+            for (long copied = 0; copied < pathsLength; ) {
+                copied += pathsOut.transferTo(copied, pathsLength - copied, out.position(newPathsOffset + copied));
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(algorithm.ordinal()).putLong(count).putLong(newBloom.getBits().length)
+                    .putLong(entriesOffset).putLong(newPathsOffset);
+            header.clear();
+            writeAt(out, header, 0);
+            ByteBuffer bits = ByteBuffer.allocate(BUFFER_SIZE);
+            long position = HEADER_LENGTH;
+            for (long word : newBloom.getBits()) {
+                if (!bits.hasRemaining()) {
+                    bits.flip();
+                    position += writeAt(out, bits, position);
+                    bits.clear();
+                }
+                bits.putLong(word);
+            }
+            bits.flip();
+            writeAt(out, bits, position);
+            out.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+
+        // Switch to the new generation, then empty the log (a crash in between only replays entries already held)
+        Path previous = (data != null) ? generationFile(generation) : null;
+        closeGeneration();
+        mapGeneration(target, false);
+        generation = newGeneration;
+        bloom = newBloom;
+        log.truncate(LOG_HEADER_LENGTH);
+        log.force(true);
+        appended.clear();
+        appendedSizes.clear();
+        appendedCount = 0;
+        if (previous != null) {
+            deleteQuietly(previous);
+        }
+        LOG.info("Compacted content catalog [generation={} entries={} elapsedMillis={}]", generation, entryCount,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * @return the number of catalogued entries
+     */
+    public synchronized long size() {
+        return entryCount + appendedCount;
+    }
+
+    /**
+     * Flush the log, compacting first if it has reached the compaction threshold
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            if (appendedCount >= compactThreshold(entryCount)) {
+                compact();
+            } else {
+                flushLog();
+            }
+        } catch (IOException ex) {
+            LOG.error("Unable to write content catalog [{}]", dir, ex);
+        }
+        LOG.info("Content catalog closed [entries={} lookups={} bloomRejections={}]", size(), lookups,
+                bloomRejections);
+        closeQuietly();
+    }
+
+    // Loading
+
+    private void load() throws IOException {
+        Files.createDirectories(dir);
+        // The newest generation wins; older ones are left over from compactions
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "catalog-*.dat")) {
+            for (Path file : files) {
+                Matcher matcher = GENERATION_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    generations.add(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        generations.sort(null);
+        for (int i = 0; i < generations.size() - 1; i++) {
+            deleteQuietly(generationFile(generations.get(i)));
+        }
+        if (generations.isEmpty()) {
+            bloom = new BloomFilter(new long[BloomFilter.longsFor(bloomCapacity(0))]);
+        } else {
+            generation = generations.get(generations.size() - 1);
+            mapGeneration(generationFile(generation), true);
+        }
+        openLog();
+        if (appendedCount >= compactThreshold(entryCount)) {
+            // A log left by an interrupted ingest: merge it before it is probed
+            compact();
+        }
+        LOG.info("Opened content catalog [{}] [generation={} entries={} logEntries={}]", dir, generation,
+                entryCount, appendedCount);
+    }
+
+    private void mapGeneration(Path file, boolean loadBloom) throws IOException {
+        data = FileChannel.open(file, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        PositionalReader.readFully(data, header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a content catalog: " + file);
+        }
+        checkAlgorithm(header.getInt(), file);
+        entryCount = header.getLong();
+        int bloomLongs = (int) header.getLong();
+        long entriesOffset = header.getLong();
+        pathsOffset = header.getLong();
+
+        int segmentCount = (int) ((entryCount + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        segments = new MappedByteBuffer[segmentCount];
+        for (int s = 0; s < segmentCount; s++) {
+            long first = (long) s << SEGMENT_SHIFT;
+            long length = Math.min(entryCount - first, 1L << SEGMENT_SHIFT) * ENTRY_LENGTH;
+            segments[s] = data.map(FileChannel.MapMode.READ_ONLY, entriesOffset + first * ENTRY_LENGTH, length);
+        }
+
+        if (loadBloom) {
+            long[] bits = new long[bloomLongs];
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            for (int i = 0; i < bloomLongs; ) {
+                buffer.clear().limit((int) Math.min(BUFFER_SIZE, (bloomLongs - i) * (long) Long.BYTES));
+                PositionalReader.readFully(data, buffer, HEADER_LENGTH + (long) i * Long.BYTES);
+                buffer.flip();
+                int n = buffer.remaining() / Long.BYTES;
+                buffer.asLongBuffer().get(bits, i, n);
+                i += n;
+            }
+            bloom = new BloomFilter(bits);
+        }
+    }
+
+    private void openLog() throws IOException {
+        Path file = dir.resolve(LOG_FILE);
+        log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long valid = LOG_HEADER_LENGTH;
+        if (log.size() >= LOG_HEADER_LENGTH) {
+            valid = replayLog(file);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_LENGTH);
+            header.putInt(LOG_MAGIC).put((byte) algorithm.ordinal()).flip();
+            log.truncate(0);
+            writeAt(log, header, 0);
+        }
+        if (log.size() > valid) {
+            LOG.warn("Discarding torn tail of content catalog log at offset {}", valid);
+            log.truncate(valid);
+        }
+        log.position(valid);
+    }
+
+    /**
+     * @return the offset just after the last intact record
+     */
+    private long replayLog(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) log.size());
+        PositionalReader.readFully(log, buffer, 0);
+        buffer.flip();
+        if (buffer.getInt() != LOG_MAGIC) {
+            throw new IOException("Not a content catalog log: " + file);
+        }
+        checkAlgorithm(buffer.get(), file);
+        CRC32 crc = new CRC32();
+        long valid = buffer.position();
+        try {
+            while (buffer.remaining() >= Integer.BYTES) {
+                int length = buffer.getInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH || buffer.remaining() < length + Integer.BYTES) {
+                    break;
+                }
+                ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                buffer.position(buffer.position() + length);
+                if ((int) crc.getValue() != buffer.getInt()) {
+                    break;
+                }
+                long size = payload.getLong();
+                ContentDigest digest = new ContentDigest(payload.getLong(), payload.getLong());
+                byte[] path = new byte[payload.getShort() & 0xffff];
+                payload.get(path);
+                String text = new String(path, StandardCharsets.UTF_8);
+                // After a crash mid-compaction the log may repeat entries already in the generation
+                if (!find(size, digest).contains(text)) {
+                    remember(size, digest, text);
+                }
+                valid = buffer.position();
+            }
+        } catch (BufferUnderflowException ex) {
+            LOG.warn("Malformed content catalog record at offset {}", valid);
+        }
+        return valid;
+    }
+
+    /**
+     * @return log entries that trigger compaction, for a catalog of the given number of entries
+     */
+    private static long compactThreshold(long entries) {
+        return Math.max(COMPACT_MIN, entries / 10);
+    }
+
+    /**
+     * @return keys a Bloom filter must hold: the generation's entries, a full log, and at least the expected count
+     */
+    private long bloomCapacity(long entries) {
+        return Math.max(expectedEntries, entries + compactThreshold(entries));
+    }
+
+    private void checkAlgorithm(int ordinal, Path file) throws IOException {
+        if (ordinal != algorithm.ordinal()) {
+            throw new IOException("Catalog " + file + " holds digests of another algorithm (not " + algorithm + ")");
+        }
+    }
+
+    // Log
+
+    private void remember(long size, ContentDigest digest, String path) {
+        appended.computeIfAbsent(new Key(size, digest), k -> new ArrayList<>(1)).add(path);
+        appendedSizes.add(size);
+        appendedCount++;
+        bloom.add(bloomHash1(size, digest), bloomHash2(digest));
+    }
+
+    private void appendToLog(long size, ContentDigest digest, String path) throws IOException {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        int length = Long.BYTES * 3 + Short.BYTES + bytes.length;
+        if (length > MAX_RECORD_LENGTH) {
+            throw new IOException("Path too long to catalog: " + path);
+        }
+        if (Integer.BYTES * 2 + length > pending.remaining()) {
+            flushLog();
+        }
+        int start = pending.position();
+        pending.putInt(length).putLong(size).putLong(digest.getHigh()).putLong(digest.getLow())
+                .putShort((short) bytes.length).put(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(pending.array(), start + Integer.BYTES, length);
+        pending.putInt((int) crc.getValue());
+    }
+
+    private void flushLog() throws IOException {
+        if (pending.position() > 0) {
+            writeFully(log, pending);
+            log.force(false);
+        }
+    }
+
+    // Generation file access
+
+    private long getLong(long entry, int field) {
+        return segments[(int) (entry >>> SEGMENT_SHIFT)].getLong((int) (entry & SEGMENT_MASK) * ENTRY_LENGTH + field);
+    }
+
+    private int compareEntry(long entry, long size, ContentDigest digest) {
+        int result = Long.compare(getLong(entry, 0), size);
+        if (result == 0) {
+            result = Long.compare(getLong(entry, 8), digest.getHigh());
+        }
+        if (result == 0) {
+            result = Long.compare(getLong(entry, 16), digest.getLow());
+        }
+        return result;
+    }
+
+    private int compareEntry(long entry, Key key) {
+        return compareEntry(entry, key.size, key.digest);
+    }
+
+    /**
+     * @return the first entry not less than (size, digest)
+     */
+    private long lowerBound(long size, ContentDigest digest) {
+        long low = 0;
+        long high = entryCount;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (compareEntry(mid, size, digest) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private String readPath(long offset) throws IOException {
+        return new String(readPathBytes(offset), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readPathBytes(long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Short.BYTES);
+        PositionalReader.readFully(data, length, pathsOffset + offset);
+        ByteBuffer path = ByteBuffer.allocate(length.getShort(0) & 0xffff);
+        PositionalReader.readFully(data, path, pathsOffset + offset + Short.BYTES);
+        return path.array();
+    }
+
+    private static long writeEntry(FileChannel out, ByteBuffer entries, FileChannel pathsOut, ByteBuffer paths,
+                                   BloomFilter bloom, long size, ContentDigest digest, byte[] path, long pathsLength)
+            throws IOException {
+        if (entries.remaining() < ENTRY_LENGTH) {
+            writeFully(out, entries);
+        }
+        entries.putLong(size).putLong(digest.getHigh()).putLong(digest.getLow()).putLong(pathsLength);
+        if (paths.remaining() < Short.BYTES + path.length) {
+            writeFully(pathsOut, paths);
+        }
+        paths.putShort((short) path.length).put(path);
+        bloom.add(bloomHash1(size, digest), bloomHash2(digest));
+        return pathsLength + Short.BYTES + path.length;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    private static int writeAt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + length - buffer.remaining());
+        }
+        return length;
+    }
+
+    private Path generationFile(long number) {
+        return dir.resolve(String.format("catalog-%06d.dat", number));
+    }
+
+    private void closeGeneration() throws IOException {
+        // The mappings are released by the garbage collector; the file is not replaced in place, so that is safe
+        segments = new MappedByteBuffer[0];
+        entryCount = 0;
+        if (data != null) {
+            data.close();
+            data = null;
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            closeGeneration();
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        } catch (IOException ex) {
+            LOG.error("Unable to close content catalog [{}]", dir, ex);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            // Still mapped (Windows): removed by a later open instead
+            LOG.debug("Unable to delete old catalog generation [{}]: {}", file, ex.toString());
+        }
+    }
+
+    private static long bloomHash1(long size, ContentDigest digest) {
+        return digest.getLow() ^ (size * 0x9E3779B97F4A7C15L);
+    }
+
+    private static long bloomHash2(ContentDigest digest) {
+        return digest.getHigh() | 1;
+    }
+
+    /**
+     * Size and digest, ordered as the generation file's entries
+     */
+    private static final class Key implements Comparable<Key> {
+        private final long size;
+        private final ContentDigest digest;
+
+        Key(long size, ContentDigest digest) {
+            this.size = size;
+            this.digest = digest;
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            int result = Long.compare(size, o.size);
+            if (result == 0) {
+                result = Long.compare(digest.getHigh(), o.digest.getHigh());
+            }
+            if (result == 0) {
+                result = Long.compare(digest.getLow(), o.digest.getLow());
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return size == key.size && digest.equals(key.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, digest);
+        }
+    }
+
+    private static final class Row {
+        private final Key key;
+        private final String path;
+
+        Row(Key key, String path) {
+            this.key = key;
+            this.path = path;
+        }
+    }
+}
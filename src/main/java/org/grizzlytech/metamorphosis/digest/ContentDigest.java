@@ -0,0 +1,66 @@
+package org.grizzlytech.metamorphosis.digest;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * A fixed-size 128-bit content digest, held as two longs rather than a byte array or hex string.
+ * Equality is by value, so digests can key indexes directly.
+ */
+public final class ContentDigest {
+
+    public static final int LENGTH = 16;
+
+    private final long high;
+
+    private final long low;
+
+    public ContentDigest(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @param bytes 16 bytes, most significant first (the canonical form of both MD5 and XXH128)
+     */
+    public static ContentDigest fromBytes(byte[] bytes) {
+        if (bytes.length != LENGTH) {
+            throw new IllegalArgumentException("Digest must be " + LENGTH + " bytes, not " + bytes.length);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new ContentDigest(buffer.getLong(), buffer.getLong());
+    }
+
+    public byte[] toBytes() {
+        return ByteBuffer.allocate(LENGTH).putLong(high).putLong(low).array();
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ContentDigest that = (ContentDigest) o;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(high, low);
+    }
+
+    /**
+     * @return lower case hex text, as printed by md5sum/xxhsum
+     */
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
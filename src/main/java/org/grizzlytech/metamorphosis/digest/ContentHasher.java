@@ -0,0 +1,24 @@
+package org.grizzlytech.metamorphosis.digest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental hash over a stream of bytes, producing a 128-bit digest
+ */
+public interface ContentHasher {
+
+    /**
+     * Consume the remaining bytes of the buffer (advancing its position to its limit)
+     */
+    void update(ByteBuffer buffer);
+
+    /**
+     * @return the digest of all bytes consumed so far
+     */
+    ContentDigest digest();
+
+    /**
+     * Discard all consumed bytes, ready for a new stream
+     */
+    void reset();
+}
@@ -0,0 +1,38 @@
+package org.grizzlytech.metamorphosis.digest;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content digest algorithms offered by the DigestEngine
+ */
+public enum DigestAlgorithm {
+    /**
+     * MD5, for compatibility with checksums recorded by earlier versions and other tools
+     */
+    MD5 {
+        @Override
+        public ContentHasher newHasher() {
+            return new MessageDigestHasher(getMessageDigest("MD5"));
+        }
+    },
+    /**
+     * XXH3 128-bit: non-cryptographic, several times faster than MD5 per core
+     */
+    XXH128 {
+        @Override
+        public ContentHasher newHasher() {
+            return new Xxh128Hasher();
+        }
+    };
+
+    public abstract ContentHasher newHasher();
+
+    private static MessageDigest getMessageDigest(String name) {
+        try {
+            return MessageDigest.getInstance(name);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(name + " is required by the Java platform", ex);
+        }
+    }
+}
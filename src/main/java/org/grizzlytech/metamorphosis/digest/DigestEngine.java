@@ -0,0 +1,169 @@
+package org.grizzlytech.metamorphosis.digest;
+
+import org.grizzlytech.metamorphosis.util.PositionalReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Compute content digests of files.
+ * <p>
+ * Files are read with positional FileChannel reads into a large direct buffer, re-used per thread, so hashing
+ * costs no allocation and no copy through the heap. Files on other file systems (such as entries in a zip archive)
+ * are streamed through the same buffer (see PositionalReader.openChannel), never extracted to disk. The algorithm
+ * defaults to MD5 (compatible with md5sum and earlier versions) and can be switched with the DIGEST_PROPERTY system
+ * property, e.g. -Dmetamorphosis.digest=XXH128
+ */
+public class DigestEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DigestEngine.class);
+
+    /**
+     * System property selecting the DigestAlgorithm (by name)
+     */
+    public static final String DIGEST_PROPERTY = "metamorphosis.digest";
+
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN));
+
+    private static final ThreadLocal<Map<DigestAlgorithm, ContentHasher>> HASHERS =
+            ThreadLocal.withInitial(() -> new EnumMap<>(DigestAlgorithm.class));
+
+    private static volatile DigestAlgorithm defaultAlgorithm = algorithmFromSystemProperties();
+
+    public static DigestAlgorithm getDefaultAlgorithm() {
+        return defaultAlgorithm;
+    }
+
+    public static void setDefaultAlgorithm(DigestAlgorithm algorithm) {
+        DigestEngine.defaultAlgorithm = algorithm;
+    }
+
+    /**
+     * @return digest of the whole file using the default algorithm
+     */
+    public static ContentDigest digest(Path path) throws IOException {
+        return digest(path, defaultAlgorithm);
+    }
+
+    /**
+     * @return digest of the whole file
+     */
+    public static ContentDigest digest(Path path, DigestAlgorithm algorithm) throws IOException {
+        ContentHasher hasher = hasher(algorithm);
+        try (SeekableByteChannel channel = PositionalReader.openChannel(path)) {
+            update(hasher, channel, 0, channel.size());
+        }
+        return hasher.digest();
+    }
+
+    /**
+     * Digest a sample of the file: its length, then the first, middle and last blocks. Equal files always have equal
+     * partial digests, so this cheaply splits candidate duplicates that differ early, late or in the middle. Files of
+     * up to three blocks are read in full anyway, so for them this is the full digest (see isPartialDigestFull)
+     *
+     * @param path      file to sample
+     * @param blockSize bytes per sampled block
+     * @return the partial digest, using the default algorithm
+     */
+    public static ContentDigest partialDigest(Path path, int blockSize) throws IOException {
+        ContentHasher hasher = hasher(defaultAlgorithm);
+        try (SeekableByteChannel channel = PositionalReader.openChannel(path)) {
+            long length = channel.size();
+            if (isPartialDigestFull(length, blockSize)) {
+                update(hasher, channel, 0, length);
+            } else {
+                hasher.update(ByteBuffer.allocate(Long.BYTES).putLong(0, length));
+                update(hasher, channel, 0, blockSize);
+                update(hasher, channel, (length - blockSize) / 2, blockSize);
+                update(hasher, channel, length - blockSize, blockSize);
+            }
+        }
+        return hasher.digest();
+    }
+
+    /**
+     * @return true if partialDigest of a file of the given length is its full digest
+     */
+    public static boolean isPartialDigestFull(long length, int blockSize) {
+        return length <= 3L * blockSize;
+    }
+
+    /**
+     * Copy a file while digesting it, so the source is read once: each block read into the thread's direct buffer
+     * is hashed and then written out from the same buffer
+     *
+     * @param source file to copy, on any file system
+     * @param target channel to write the whole file to (from its current position)
+     * @return digest of the bytes copied, using the default algorithm
+     */
+    public static ContentDigest copy(Path source, WritableByteChannel target) throws IOException {
+        ContentHasher hasher = hasher(defaultAlgorithm);
+        ByteBuffer buffer = BUFFER.get();
+        try (SeekableByteChannel channel = PositionalReader.openChannel(source)) {
+            long pos = 0;
+            long end = channel.size();
+            while (pos < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - pos));
+                PositionalReader.readFully(channel, buffer, pos);
+                buffer.flip();
+                pos += buffer.remaining();
+                // The hasher consumes what it is given, so hash a view and write the buffer itself
+                hasher.update(buffer.duplicate().order(buffer.order()));
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+            }
+        }
+        return hasher.digest();
+    }
+
+    /**
+     * @return the number of bytes partialDigest reads for a file of the given length
+     */
+    public static long getPartialDigestLength(long length, int blockSize) {
+        return Math.min(length, 3L * blockSize);
+    }
+
+    private static ContentHasher hasher(DigestAlgorithm algorithm) {
+        ContentHasher hasher = HASHERS.get().computeIfAbsent(algorithm, DigestAlgorithm::newHasher);
+        hasher.reset();
+        return hasher;
+    }
+
+    private static void update(ContentHasher hasher, SeekableByteChannel channel, long position, long length)
+            throws IOException {
+        ByteBuffer buffer = BUFFER.get();
+        long pos = position;
+        long end = position + length;
+        while (pos < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - pos));
+            PositionalReader.readFully(channel, buffer, pos);
+            buffer.flip();
+            pos += buffer.remaining();
+            hasher.update(buffer);
+        }
+    }
+
+    private static DigestAlgorithm algorithmFromSystemProperties() {
+        String name = System.getProperty(DIGEST_PROPERTY);
+        if (name != null) {
+            try {
+                return DigestAlgorithm.valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                LOG.error("Unknown digest algorithm [{}={}]; using MD5", DIGEST_PROPERTY, name);
+            }
+        }
+        return DigestAlgorithm.MD5;
+    }
+}
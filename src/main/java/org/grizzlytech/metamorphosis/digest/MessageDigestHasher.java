@@ -0,0 +1,31 @@
+package org.grizzlytech.metamorphosis.digest;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * ContentHasher backed by a 128-bit java.security.MessageDigest (e.g. MD5)
+ */
+class MessageDigestHasher implements ContentHasher {
+
+    private final MessageDigest messageDigest;
+
+    MessageDigestHasher(MessageDigest messageDigest) {
+        this.messageDigest = messageDigest;
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        messageDigest.update(buffer);
+    }
+
+    @Override
+    public ContentDigest digest() {
+        return ContentDigest.fromBytes(messageDigest.digest());
+    }
+
+    @Override
+    public void reset() {
+        messageDigest.reset();
+    }
+}
@@ -0,0 +1,351 @@
+package org.grizzlytech.metamorphosis.digest;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Pure Java XXH3 128-bit hash (xxHash v0.8 XXH3_128bits, seed 0, default secret), streaming over ByteBuffers.
+ * <p>
+ * Inputs of up to 240 bytes use the short-input paths; longer inputs are consumed in 1 KB blocks of 64 byte stripes
+ * straight from the caller's buffer, with only the final (partial) block copied into an internal buffer.
+ * Output matches XXH3_128bits / xxhsum -H2 (canonical form: high 64 bits first).
+ */
+public class Xxh128Hasher implements ContentHasher {
+
+    private static final long PRIME32_1 = 0x9E3779B1L;
+    private static final long PRIME32_2 = 0x85EBCA77L;
+    private static final long PRIME32_3 = 0xC2B2AE3DL;
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+    private static final long PRIME_MX1 = 0x165667919E3779F9L;
+    private static final long PRIME_MX2 = 0x9FB21C651E98DF25L;
+
+    private static final int STRIPE_LENGTH = 64;
+    private static final int SECRET_LENGTH = 192;
+    private static final int STRIPES_PER_BLOCK = (SECRET_LENGTH - STRIPE_LENGTH) / 8; // 16
+    private static final int BLOCK_LENGTH = STRIPE_LENGTH * STRIPES_PER_BLOCK; // 1024
+    private static final int MIDSIZE_MAX = 240;
+
+    private static final int SCRAMBLE_SECRET = SECRET_LENGTH - STRIPE_LENGTH;
+    private static final int LAST_STRIPE_SECRET = SECRET_LENGTH - STRIPE_LENGTH - 7;
+    private static final int MERGE_SECRET_LOW = 11;
+    private static final int MERGE_SECRET_HIGH = SECRET_LENGTH - STRIPE_LENGTH - 11;
+
+    private static final byte[] SECRET_BYTES = {
+            (byte) 0xb8, (byte) 0xfe, (byte) 0x6c, (byte) 0x39, (byte) 0x23, (byte) 0xa4, (byte) 0x4b, (byte) 0xbe,
+            (byte) 0x7c, (byte) 0x01, (byte) 0x81, (byte) 0x2c, (byte) 0xf7, (byte) 0x21, (byte) 0xad, (byte) 0x1c,
+            (byte) 0xde, (byte) 0xd4, (byte) 0x6d, (byte) 0xe9, (byte) 0x83, (byte) 0x90, (byte) 0x97, (byte) 0xdb,
+            (byte) 0x72, (byte) 0x40, (byte) 0xa4, (byte) 0xa4, (byte) 0xb7, (byte) 0xb3, (byte) 0x67, (byte) 0x1f,
+            (byte) 0xcb, (byte) 0x79, (byte) 0xe6, (byte) 0x4e, (byte) 0xcc, (byte) 0xc0, (byte) 0xe5, (byte) 0x78,
+            (byte) 0x82, (byte) 0x5a, (byte) 0xd0, (byte) 0x7d, (byte) 0xcc, (byte) 0xff, (byte) 0x72, (byte) 0x21,
+            (byte) 0xb8, (byte) 0x08, (byte) 0x46, (byte) 0x74, (byte) 0xf7, (byte) 0x43, (byte) 0x24, (byte) 0x8e,
+            (byte) 0xe0, (byte) 0x35, (byte) 0x90, (byte) 0xe6, (byte) 0x81, (byte) 0x3a, (byte) 0x26, (byte) 0x4c,
+            (byte) 0x3c, (byte) 0x28, (byte) 0x52, (byte) 0xbb, (byte) 0x91, (byte) 0xc3, (byte) 0x00, (byte) 0xcb,
+            (byte) 0x88, (byte) 0xd0, (byte) 0x65, (byte) 0x8b, (byte) 0x1b, (byte) 0x53, (byte) 0x2e, (byte) 0xa3,
+            (byte) 0x71, (byte) 0x64, (byte) 0x48, (byte) 0x97, (byte) 0xa2, (byte) 0x0d, (byte) 0xf9, (byte) 0x4e,
+            (byte) 0x38, (byte) 0x19, (byte) 0xef, (byte) 0x46, (byte) 0xa9, (byte) 0xde, (byte) 0xac, (byte) 0xd8,
+            (byte) 0xa8, (byte) 0xfa, (byte) 0x76, (byte) 0x3f, (byte) 0xe3, (byte) 0x9c, (byte) 0x34, (byte) 0x3f,
+            (byte) 0xf9, (byte) 0xdc, (byte) 0xbb, (byte) 0xc7, (byte) 0xc7, (byte) 0x0b, (byte) 0x4f, (byte) 0x1d,
+            (byte) 0x8a, (byte) 0x51, (byte) 0xe0, (byte) 0x4b, (byte) 0xcd, (byte) 0xb4, (byte) 0x59, (byte) 0x31,
+            (byte) 0xc8, (byte) 0x9f, (byte) 0x7e, (byte) 0xc9, (byte) 0xd9, (byte) 0x78, (byte) 0x73, (byte) 0x64,
+            (byte) 0xea, (byte) 0xc5, (byte) 0xac, (byte) 0x83, (byte) 0x34, (byte) 0xd3, (byte) 0xeb, (byte) 0xc3,
+            (byte) 0xc5, (byte) 0x81, (byte) 0xa0, (byte) 0xff, (byte) 0xfa, (byte) 0x13, (byte) 0x63, (byte) 0xeb,
+            (byte) 0x17, (byte) 0x0d, (byte) 0xdd, (byte) 0x51, (byte) 0xb7, (byte) 0xf0, (byte) 0xda, (byte) 0x49,
+            (byte) 0xd3, (byte) 0x16, (byte) 0x55, (byte) 0x26, (byte) 0x29, (byte) 0xd4, (byte) 0x68, (byte) 0x9e,
+            (byte) 0x2b, (byte) 0x16, (byte) 0xbe, (byte) 0x58, (byte) 0x7d, (byte) 0x47, (byte) 0xa1, (byte) 0xfc,
+            (byte) 0x8f, (byte) 0xf8, (byte) 0xb8, (byte) 0xd1, (byte) 0x7a, (byte) 0xd0, (byte) 0x31, (byte) 0xce,
+            (byte) 0x45, (byte) 0xcb, (byte) 0x3a, (byte) 0x8f, (byte) 0x95, (byte) 0x16, (byte) 0x04, (byte) 0x28,
+            (byte) 0xaf, (byte) 0xd7, (byte) 0xfb, (byte) 0xca, (byte) 0xbb, (byte) 0x4b, (byte) 0x40, (byte) 0x7e,
+    };
+
+    /**
+     * SECRET[i] is the little endian long at byte offset i of the secret (offsets are not always 8-aligned)
+     */
+    private static final long[] SECRET = new long[SECRET_LENGTH - Long.BYTES + 1];
+
+    static {
+        ByteBuffer secret = ByteBuffer.wrap(SECRET_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < SECRET.length; i++) {
+            SECRET[i] = secret.getLong(i);
+        }
+    }
+
+    private final long[] acc = new long[8];
+
+    /**
+     * Bytes not yet consumed into the accumulators. The final block is always held back here, as it is treated
+     * differently; bytes [BLOCK_LENGTH - STRIPE_LENGTH, BLOCK_LENGTH) keep the tail of the previous block
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+
+    private int buffered;
+
+    private long totalLength;
+
+    public Xxh128Hasher() {
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        acc[0] = PRIME32_3;
+        acc[1] = PRIME64_1;
+        acc[2] = PRIME64_2;
+        acc[3] = PRIME64_3;
+        acc[4] = PRIME64_4;
+        acc[5] = PRIME32_2;
+        acc[6] = PRIME64_5;
+        acc[7] = PRIME32_1;
+        buffered = 0;
+        totalLength = 0;
+    }
+
+    @Override
+    public void update(ByteBuffer input) {
+        int remaining = input.remaining();
+        totalLength += remaining;
+        if (buffered + remaining <= BLOCK_LENGTH) {
+            // Cannot yet tell whether this is the final block
+            copy(input, remaining, buffered);
+            buffered += remaining;
+            return;
+        }
+        if (buffered > 0) {
+            // More input follows, so the buffered block is a full (non-final) block
+            copy(input, BLOCK_LENGTH - buffered, buffered);
+            consumeBlock(buffer, 0);
+            buffered = 0;
+        }
+        ByteBuffer in = input.order() == ByteOrder.LITTLE_ENDIAN ? input :
+                input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int position = input.position();
+        int consumed = 0;
+        while (input.limit() - (position + consumed) > BLOCK_LENGTH) {
+            consumeBlock(in, position + consumed);
+            consumed += BLOCK_LENGTH;
+        }
+        if (consumed > 0) {
+            // Keep the last stripe consumed, in case the final block is shorter than a stripe
+            for (int i = 0; i < STRIPE_LENGTH; i++) {
+                buffer.put(BLOCK_LENGTH - STRIPE_LENGTH + i, input.get(position + consumed - STRIPE_LENGTH + i));
+            }
+            input.position(position + consumed);
+        }
+        buffered = input.remaining();
+        copy(input, buffered, 0);
+    }
+
+    @Override
+    public ContentDigest digest() {
+        if (totalLength <= MIDSIZE_MAX) {
+            return hashShort(buffer, (int) totalLength);
+        }
+        long[] a = acc.clone();
+        int stripes = (buffered - 1) / STRIPE_LENGTH;
+        for (int s = 0; s < stripes; s++) {
+            accumulate(a, buffer, s * STRIPE_LENGTH, s * 8);
+        }
+        // The last stripe always ends on the last byte, overlapping earlier data if need be
+        if (buffered >= STRIPE_LENGTH) {
+            accumulate(a, buffer, buffered - STRIPE_LENGTH, LAST_STRIPE_SECRET);
+        } else {
+            ByteBuffer lastStripe = ByteBuffer.allocate(STRIPE_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            int catchUp = STRIPE_LENGTH - buffered;
+            for (int i = 0; i < catchUp; i++) {
+                lastStripe.put(i, buffer.get(BLOCK_LENGTH - catchUp + i));
+            }
+            for (int i = 0; i < buffered; i++) {
+                lastStripe.put(catchUp + i, buffer.get(i));
+            }
+            accumulate(a, lastStripe, 0, LAST_STRIPE_SECRET);
+        }
+        long low = mergeAccumulators(a, MERGE_SECRET_LOW, totalLength * PRIME64_1);
+        long high = mergeAccumulators(a, MERGE_SECRET_HIGH, ~(totalLength * PRIME64_2));
+        return new ContentDigest(high, low);
+    }
+
+    /**
+     * One-shot hash of a byte array (convenience for tests and small inputs)
+     */
+    public static ContentDigest hash(byte[] data) {
+        Xxh128Hasher hasher = new Xxh128Hasher();
+        hasher.update(ByteBuffer.wrap(data));
+        return hasher.digest();
+    }
+
+    private void copy(ByteBuffer input, int length, int offset) {
+        for (int i = 0; i < length; i++) {
+            buffer.put(offset + i, input.get());
+        }
+    }
+
+    private void consumeBlock(ByteBuffer in, int offset) {
+        for (int s = 0; s < STRIPES_PER_BLOCK; s++) {
+            accumulate(acc, in, offset + s * STRIPE_LENGTH, s * 8);
+        }
+        // Scramble
+        for (int i = 0; i < 8; i++) {
+            long a = acc[i];
+            a ^= a >>> 47;
+            a ^= SECRET[SCRAMBLE_SECRET + i * 8];
+            acc[i] = a * PRIME32_1;
+        }
+    }
+
+    private static void accumulate(long[] acc, ByteBuffer in, int offset, int secretOffset) {
+        for (int i = 0; i < 8; i++) {
+            long data = in.getLong(offset + i * 8);
+            long key = data ^ SECRET[secretOffset + i * 8];
+            acc[i ^ 1] += data;
+            acc[i] += (key & 0xFFFFFFFFL) * (key >>> 32);
+        }
+    }
+
+    private static long mergeAccumulators(long[] acc, int secretOffset, long start) {
+        long result = start;
+        for (int i = 0; i < 4; i++) {
+            result += mul128Fold64(acc[2 * i] ^ SECRET[secretOffset + 16 * i],
+                    acc[2 * i + 1] ^ SECRET[secretOffset + 16 * i + 8]);
+        }
+        return avalanche(result);
+    }
+
+    // Short inputs (0 to 240 bytes)
+
+    private static ContentDigest hashShort(ByteBuffer in, int length) {
+        if (length == 0) {
+            return new ContentDigest(xxh64Avalanche(SECRET[80] ^ SECRET[88]), xxh64Avalanche(SECRET[64] ^ SECRET[72]));
+        } else if (length <= 3) {
+            return hash1To3(in, length);
+        } else if (length <= 8) {
+            return hash4To8(in, length);
+        } else if (length <= 16) {
+            return hash9To16(in, length);
+        } else if (length <= 128) {
+            return hash17To128(in, length);
+        } else {
+            return hash129To240(in, length);
+        }
+    }
+
+    private static ContentDigest hash1To3(ByteBuffer in, int length) {
+        int c1 = in.get(0) & 0xff;
+        int c2 = in.get(length >> 1) & 0xff;
+        int c3 = in.get(length - 1) & 0xff;
+        int combinedLow = (c1 << 16) | (c2 << 24) | c3 | (length << 8);
+        int combinedHigh = Integer.rotateLeft(Integer.reverseBytes(combinedLow), 13);
+        long bitflipLow = (SECRET[0] & 0xFFFFFFFFL) ^ (SECRET[4] & 0xFFFFFFFFL);
+        long bitflipHigh = (SECRET[8] & 0xFFFFFFFFL) ^ (SECRET[12] & 0xFFFFFFFFL);
+        long keyedLow = (combinedLow & 0xFFFFFFFFL) ^ bitflipLow;
+        long keyedHigh = (combinedHigh & 0xFFFFFFFFL) ^ bitflipHigh;
+        return new ContentDigest(xxh64Avalanche(keyedHigh), xxh64Avalanche(keyedLow));
+    }
+
+    private static ContentDigest hash4To8(ByteBuffer in, int length) {
+        long inputLow = in.getInt(0) & 0xFFFFFFFFL;
+        long inputHigh = in.getInt(length - 4) & 0xFFFFFFFFL;
+        long input64 = inputLow + (inputHigh << 32);
+        long keyed = input64 ^ (SECRET[16] ^ SECRET[24]);
+        long multiplier = PRIME64_1 + ((long) length << 2);
+        long low = keyed * multiplier;
+        long high = unsignedMultiplyHigh(keyed, multiplier);
+        high += low << 1;
+        low ^= high >>> 3;
+        low ^= low >>> 35;
+        low *= PRIME_MX2;
+        low ^= low >>> 28;
+        return new ContentDigest(avalanche(high), low);
+    }
+
+    private static ContentDigest hash9To16(ByteBuffer in, int length) {
+        long bitflipLow = SECRET[32] ^ SECRET[40];
+        long bitflipHigh = SECRET[48] ^ SECRET[56];
+        long inputLow = in.getLong(0);
+        long inputHigh = in.getLong(length - 8);
+        long keyed = inputLow ^ inputHigh ^ bitflipLow;
+        long mLow = keyed * PRIME64_1;
+        long mHigh = unsignedMultiplyHigh(keyed, PRIME64_1);
+        mLow += (long) (length - 1) << 54;
+        inputHigh ^= bitflipHigh;
+        mHigh += inputHigh + (inputHigh & 0xFFFFFFFFL) * (PRIME32_2 - 1);
+        mLow ^= Long.reverseBytes(mHigh);
+        long hLow = mLow * PRIME64_2;
+        long hHigh = unsignedMultiplyHigh(mLow, PRIME64_2) + mHigh * PRIME64_2;
+        return new ContentDigest(avalanche(hHigh), avalanche(hLow));
+    }
+
+    private static ContentDigest hash17To128(ByteBuffer in, int length) {
+        long[] a = {length * PRIME64_1, 0};
+        if (length > 32) {
+            if (length > 64) {
+                if (length > 96) {
+                    mix32(a, in, 48, length - 64, 96);
+                }
+                mix32(a, in, 32, length - 48, 64);
+            }
+            mix32(a, in, 16, length - 32, 32);
+        }
+        mix32(a, in, 0, length - 16, 0);
+        return finish(a, length);
+    }
+
+    private static ContentDigest hash129To240(ByteBuffer in, int length) {
+        long[] a = {length * PRIME64_1, 0};
+        int rounds = length / 32;
+        for (int i = 0; i < 4; i++) {
+            mix32(a, in, 32 * i, 32 * i + 16, 32 * i);
+        }
+        a[0] = avalanche(a[0]);
+        a[1] = avalanche(a[1]);
+        for (int i = 4; i < rounds; i++) {
+            mix32(a, in, 32 * i, 32 * i + 16, 3 + 32 * (i - 4));
+        }
+        // Last bytes
+        mix32(a, in, length - 16, length - 32, 136 - 17 - 16);
+        return finish(a, length);
+    }
+
+    private static ContentDigest finish(long[] a, int length) {
+        long low = a[0] + a[1];
+        long high = a[0] * PRIME64_1 + a[1] * PRIME64_4 + length * PRIME64_2;
+        return new ContentDigest(-avalanche(high), avalanche(low));
+    }
+
+    private static void mix32(long[] a, ByteBuffer in, int offset1, int offset2, int secretOffset) {
+        a[0] += mix16(in, offset1, secretOffset);
+        a[0] ^= in.getLong(offset2) + in.getLong(offset2 + 8);
+        a[1] += mix16(in, offset2, secretOffset + 16);
+        a[1] ^= in.getLong(offset1) + in.getLong(offset1 + 8);
+    }
+
+    private static long mix16(ByteBuffer in, int offset, int secretOffset) {
+        return mul128Fold64(in.getLong(offset) ^ SECRET[secretOffset], in.getLong(offset + 8) ^ SECRET[secretOffset + 8]);
+    }
+
+    // Mixing primitives
+
+    private static long mul128Fold64(long a, long b) {
+        return (a * b) ^ unsignedMultiplyHigh(a, b);
+    }
+
+    private static long unsignedMultiplyHigh(long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 37;
+        h *= PRIME_MX1;
+        return h ^ (h >>> 32);
+    }
+
+    private static long xxh64Avalanche(long h) {
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        return h ^ (h >>> 32);
+    }
+}
@@ -0,0 +1,51 @@
+package org.grizzlytech.metamorphosis.imaging;
+
+import java.nio.file.Path;
+
+/**
+ * The format a file's extension claims, and the format its content shows
+ */
+public final class FormatCheck {
+
+    private final Path path;
+    private final MediaFormat extensionFormat;
+    private final MediaFormat contentFormat;
+
+    public FormatCheck(Path path, MediaFormat extensionFormat, MediaFormat contentFormat) {
+        this.path = path;
+        this.extensionFormat = extensionFormat;
+        this.contentFormat = contentFormat;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public MediaFormat getExtensionFormat() {
+        return extensionFormat;
+    }
+
+    public MediaFormat getContentFormat() {
+        return contentFormat;
+    }
+
+    /**
+     * @return the format to parse the file as: its content's, when recognised, else its extension's
+     */
+    public MediaFormat getFormat() {
+        return (contentFormat != MediaFormat.UNKNOWN) ? contentFormat : extensionFormat;
+    }
+
+    /**
+     * @return true if the content is recognised and is not what the extension claims
+     */
+    public boolean isMismatch() {
+        return contentFormat != MediaFormat.UNKNOWN && contentFormat != extensionFormat;
+    }
+
+    @Override
+    public String toString() {
+        return "FormatCheck{path=" + path + ", extensionFormat=" + extensionFormat +
+                ", contentFormat=" + contentFormat + '}';
+    }
+}
@@ -0,0 +1,140 @@
+package org.grizzlytech.metamorphosis.imaging;
+
+import org.grizzlytech.metamorphosis.util.PositionalReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Identify a media file's format from its first bytes (magic numbers, TIFF headers and the ISO BMFF ftyp brands), so
+ * that it can be parsed as what it is rather than as what its extension claims.
+ */
+public class FormatSniffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FormatSniffer.class);
+
+    /**
+     * Bytes examined: enough for the PNG signature and an ftyp box's major and first compatible brands
+     */
+    public static final int HEADER_LENGTH = 32;
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final byte[] TIFF_LITTLE_ENDIAN = {'I', 'I', 42, 0};
+
+    private static final byte[] TIFF_BIG_ENDIAN = {'M', 'M', 0, 42};
+
+    private static final List<String> HEIF_BRANDS =
+            Arrays.asList("heic", "heix", "hevc", "hevx", "heim", "heis", "mif1", "msf1");
+
+    private static final List<String> MP4_BRANDS =
+            Arrays.asList("isom", "iso2", "iso4", "iso5", "iso6", "mp41", "mp42", "avc1", "M4V ", "M4A ", "3gp4",
+                    "3gp5", "3gp6", "dash", "f4v ");
+
+    /**
+     * Atoms that may open a QuickTime file written without an ftyp box
+     */
+    private static final List<String> QUICKTIME_ATOMS = Arrays.asList("moov", "mdat", "wide", "free", "skip", "pnot");
+
+    private static final ThreadLocal<ByteBuffer> HEADER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(HEADER_LENGTH));
+
+    /**
+     * @param path      media file
+     * @param extension the file's extension (including the dot)
+     * @return the formats claimed by the extension and shown by the content
+     */
+    public static FormatCheck check(Path path, String extension) {
+        return new FormatCheck(path, MediaFormat.fromExtension(extension), sniff(path));
+    }
+
+    /**
+     * @param path media file
+     * @return the format of the file's content, or UNKNOWN if unrecognised (or unreadable)
+     */
+    public static MediaFormat sniff(Path path) {
+        ByteBuffer header = HEADER.get();
+        header.clear();
+        try (SeekableByteChannel channel = PositionalReader.openChannel(path)) {
+            while (header.hasRemaining() && channel.read(header) > 0) {
+                // keep reading: a channel may return fewer bytes than asked
+            }
+        } catch (IOException ex) {
+            LOG.debug("Unable to sniff {}: {}", path, ex.toString());
+            return MediaFormat.UNKNOWN;
+        }
+        header.flip();
+        return sniff(header);
+    }
+
+    /**
+     * @param header the first bytes of a file (up to HEADER_LENGTH)
+     * @return the format of the content, or UNKNOWN if unrecognised
+     */
+    public static MediaFormat sniff(ByteBuffer header) {
+        int length = header.remaining();
+        int base = header.position();
+        if (length >= 3 && (header.get(base) & 0xFF) == 0xFF && (header.get(base + 1) & 0xFF) == 0xD8 &&
+                (header.get(base + 2) & 0xFF) == 0xFF) {
+            return MediaFormat.JPEG;
+        }
+        if (length >= PNG_SIGNATURE.length && startsWith(header, base, PNG_SIGNATURE)) {
+            return MediaFormat.PNG;
+        }
+        if (length >= 4 && (startsWith(header, base, TIFF_LITTLE_ENDIAN) || startsWith(header, base, TIFF_BIG_ENDIAN))) {
+            return MediaFormat.RAW;
+        }
+        if (length < 12) {
+            return MediaFormat.UNKNOWN;
+        }
+        String type = ascii(header, base + 4);
+        if (!"ftyp".equals(type)) {
+            return QUICKTIME_ATOMS.contains(type) ? MediaFormat.QUICKTIME : MediaFormat.UNKNOWN;
+        }
+        // Major brand, then the compatible brands that fit in the header (and in the ftyp box)
+        long boxSize = header.getInt(base) & 0xFFFFFFFFL;
+        int end = (int) Math.min(length, Math.max(boxSize, 16));
+        for (int offset = 8; offset + 4 <= end; offset += (offset == 8) ? 8 : 4) {
+            MediaFormat format = fromBrand(ascii(header, base + offset));
+            if (format != MediaFormat.UNKNOWN) {
+                return format;
+            }
+        }
+        return MediaFormat.UNKNOWN;
+    }
+
+    private static MediaFormat fromBrand(String brand) {
+        if (HEIF_BRANDS.contains(brand)) {
+            return MediaFormat.HEIF;
+        } else if ("qt  ".equals(brand)) {
+            return MediaFormat.QUICKTIME;
+        } else if (MP4_BRANDS.contains(brand)) {
+            return MediaFormat.MP4;
+        }
+        return MediaFormat.UNKNOWN;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int base, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(base + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String ascii(ByteBuffer buffer, int position) {
+        byte[] bytes = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            bytes[i] = buffer.get(position + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
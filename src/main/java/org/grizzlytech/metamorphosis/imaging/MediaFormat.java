@@ -0,0 +1,47 @@
+package org.grizzlytech.metamorphosis.imaging;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Container formats that dates can be extracted from, each with its file extensions (preferred first)
+ */
+public enum MediaFormat {
+    JPEG(".JPG", ".JPEG"),
+    PNG(".PNG"),
+    HEIF(".HEIC"),
+    QUICKTIME(".MOV"),
+    MP4(".MP4"),
+    /**
+     * TIFF-based camera RAW (the content is recognised by its TIFF header)
+     */
+    RAW(".DNG", ".CR2", ".NEF", ".ARW"),
+    UNKNOWN;
+
+    private final List<String> extensions;
+
+    MediaFormat(String... extensions) {
+        this.extensions = Arrays.asList(extensions);
+    }
+
+    /**
+     * @return the preferred extension (including the dot), or null for UNKNOWN
+     */
+    public String getExtension() {
+        return extensions.isEmpty() ? null : extensions.get(0);
+    }
+
+    /**
+     * @param extension extension including the dot, in any case
+     * @return the format the extension claims, or UNKNOWN
+     */
+    public static MediaFormat fromExtension(String extension) {
+        String upper = extension.toUpperCase();
+        for (MediaFormat format : values()) {
+            if (format.extensions.contains(upper)) {
+                return format;
+            }
+        }
+        return UNKNOWN;
+    }
+}
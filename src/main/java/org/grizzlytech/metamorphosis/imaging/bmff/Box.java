@@ -0,0 +1,154 @@
+package org.grizzlytech.metamorphosis.imaging.bmff;
+
+import org.grizzlytech.metamorphosis.util.PositionalReader;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An ISO base media file format (ISO-BMFF / QuickTime) box header: MOV, MP4 and HEIF are all built from these.
+ * <p>
+ * Only the header is read. The payload (e.g. mdat) is skipped by size, so walking a container costs one small
+ * read per box regardless of how large the boxes are.
+ */
+public class Box {
+
+    public static final int FTYP = fourcc("ftyp");
+    public static final int MOOV = fourcc("moov");
+    public static final int MVHD = fourcc("mvhd");
+    public static final int META = fourcc("meta");
+    public static final int HDLR = fourcc("hdlr");
+    public static final int KEYS = fourcc("keys");
+    public static final int ILST = fourcc("ilst");
+    public static final int DATA = fourcc("data");
+    public static final int UUID = fourcc("uuid");
+
+    private final int type;
+
+    private final long start;
+
+    private final int headerLength;
+
+    private final long size;
+
+    private Box(int type, long start, int headerLength, long size) {
+        this.type = type;
+        this.start = start;
+        this.headerLength = headerLength;
+        this.size = size;
+    }
+
+    /**
+     * Read the box header at a position
+     *
+     * @param reader   reader bound to the file
+     * @param position start of the box
+     * @param limit    end of the enclosing container (or file)
+     * @return the box, or null if there is no plausible box header at the position
+     */
+    public static Box read(PositionalReader reader, long position, long limit) throws IOException {
+        return read(reader, position, limit, true);
+    }
+
+    /**
+     * @param checkType whether to reject non-printable types (ilst items are typed by integer key index)
+     */
+    private static Box read(PositionalReader reader, long position, long limit, boolean checkType)
+            throws IOException {
+        if (position + 8 > limit) {
+            return null;
+        }
+        long size = reader.getInt(position, ByteOrder.BIG_ENDIAN);
+        int type = (int) reader.getInt(position + 4, ByteOrder.BIG_ENDIAN);
+        int headerLength = 8;
+        if (size == 1) { // 64-bit largesize follows the type
+            if (position + 16 > limit) {
+                return null;
+            }
+            size = reader.getLong(position + 8, ByteOrder.BIG_ENDIAN);
+            headerLength = 16;
+        } else if (size == 0) { // box extends to the end of its container
+            size = limit - position;
+        }
+        if (type == UUID) {
+            headerLength += 16;
+        }
+        if ((checkType && !isPrintable(type)) || size < headerLength || position + size > limit) {
+            return null;
+        }
+        return new Box(type, position, headerLength, size);
+    }
+
+    /**
+     * Find the first child of the given type within a range of sibling boxes
+     *
+     * @return the box, or null if absent (or the range is malformed)
+     */
+    public static Box find(PositionalReader reader, long from, long limit, int type) throws IOException {
+        boolean checkType = isPrintable(type);
+        long position = from;
+        Box box;
+        while ((box = read(reader, position, limit, checkType)) != null) {
+            if (box.getType() == type) {
+                return box;
+            }
+            position = box.getEnd();
+        }
+        return null;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return position of the first payload byte (after size, type, largesize and uuid)
+     */
+    public long getPayload() {
+        return start + headerLength;
+    }
+
+    public long getEnd() {
+        return start + size;
+    }
+
+    public static int fourcc(String code) {
+        byte[] bytes = code.getBytes(StandardCharsets.US_ASCII);
+        return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+    }
+
+    public static String toString(int fourcc) {
+        return new String(new byte[]{(byte) (fourcc >> 24), (byte) (fourcc >> 16), (byte) (fourcc >> 8),
+                (byte) fourcc}, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Box types are four characters; treating anything else as corrupt stops a walk over non-BMFF data
+     */
+    private static boolean isPrintable(int fourcc) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            int c = (fourcc >> shift) & 0xff;
+            if (c < 0x20 || c > 0x7e) {
+                // Apple uses 0xA9 (copyright sign) as the first character of some metadata types
+                if (c != 0xa9) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "Box{" + toString(type) + " start=" + start + " size=" + size + '}';
+    }
+}
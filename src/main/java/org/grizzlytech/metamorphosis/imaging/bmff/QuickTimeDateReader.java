@@ -0,0 +1,131 @@
+package org.grizzlytech.metamorphosis.imaging.bmff;
+
+import org.grizzlytech.metamorphosis.util.PositionalReader;
+import org.grizzlytech.metamorphosis.util.TimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Fast-path reader for the dates in MOV and MP4 files.
+ * <p>
+ * Walks the top level boxes by size, never reading mdat (wherever moov is placed), then reads the mvhd creation time
+ * and the com.apple.quicktime.creationdate key from moov/meta (keys + ilst). A multi-GB video costs a handful of
+ * small positional reads.
+ */
+public class QuickTimeDateReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QuickTimeDateReader.class);
+
+    private static final String CREATION_DATE_KEY = "com.apple.quicktime.creationdate";
+
+    private static final int MAX_VALUE_LENGTH = 64;
+
+    /**
+     * QuickTime times count seconds from 1904-01-01. As metadata-extractor does, the epoch is taken in the default
+     * time zone (this appears to be the "wall time" when the movie was taken)
+     */
+    private static final Instant EPOCH_1904 = LocalDateTime.of(1904, 1, 1, 0, 0)
+            .atZone(ZoneId.systemDefault()).toInstant();
+
+    private static final ThreadLocal<PositionalReader> READER =
+            ThreadLocal.withInitial(() -> new PositionalReader(PositionalReader.DEFAULT_WINDOW));
+
+    /**
+     * @param path MOV or MP4 file
+     * @return the dates, or null if the fast path could not read them (caller should fall back to a full parse)
+     */
+    public static QuickTimeDates readDates(Path path) {
+        try (SeekableByteChannel channel = PositionalReader.openChannel(path)) {
+            return readDates(READER.get().bind(channel));
+        } catch (IOException ex) {
+            LOG.debug("Fast path failed for {}: {}", path, ex.toString());
+            return null;
+        }
+    }
+
+    static QuickTimeDates readDates(PositionalReader reader) throws IOException {
+        // Top level boxes are skipped by size, so mdat is never read even when moov follows it
+        Box moov = Box.find(reader, 0, reader.size(), Box.MOOV);
+        if (moov == null) {
+            return null;
+        }
+        Box mvhd = Box.find(reader, moov.getPayload(), moov.getEnd(), Box.MVHD);
+        if (mvhd == null) {
+            return null;
+        }
+        return new QuickTimeDates(readCreationTime(reader, mvhd), readCreationDate(reader, moov));
+    }
+
+    /**
+     * mvhd is a full box: version (1), flags (3), then creation_time as 32-bit (version 0) or 64-bit (version 1)
+     */
+    private static Instant readCreationTime(PositionalReader reader, Box mvhd) throws IOException {
+        long payload = mvhd.getPayload();
+        int version = reader.getByte(payload);
+        long seconds = (version == 1) ? reader.getLong(payload + 4, ByteOrder.BIG_ENDIAN) :
+                reader.getInt(payload + 4, ByteOrder.BIG_ENDIAN);
+        return EPOCH_1904.plusSeconds(seconds);
+    }
+
+    /**
+     * Resolve the creation date key's index from meta/keys, then read its value from the matching meta/ilst item
+     */
+    private static Instant readCreationDate(PositionalReader reader, Box moov) throws IOException {
+        Box meta = Box.find(reader, moov.getPayload(), moov.getEnd(), Box.META);
+        if (meta == null) {
+            return null;
+        }
+        // QuickTime meta has no version/flags; the ISO (MP4) form is a full box
+        long children = meta.getPayload();
+        if (reader.getInt(children + 4, ByteOrder.BIG_ENDIAN) != Box.HDLR) {
+            children += 4;
+        }
+        Box keys = Box.find(reader, children, meta.getEnd(), Box.KEYS);
+        Box ilst = Box.find(reader, children, meta.getEnd(), Box.ILST);
+        if (keys == null || ilst == null) {
+            return null;
+        }
+
+        int index = findKeyIndex(reader, keys, CREATION_DATE_KEY);
+        if (index < 0) {
+            return null;
+        }
+        Box item = Box.find(reader, ilst.getPayload(), ilst.getEnd(), index);
+        Box data = (item != null) ? Box.find(reader, item.getPayload(), item.getEnd(), Box.DATA) : null;
+        if (data == null) {
+            return null;
+        }
+        // data payload: type indicator (4), locale (4), value
+        long length = Math.min(data.getEnd() - data.getPayload() - 8, MAX_VALUE_LENGTH);
+        return (length > 0) ? TimeUtil.parseDateTime(reader.getString(data.getPayload() + 8, (int) length)) : null;
+    }
+
+    /**
+     * keys is a full box: version/flags (4), entry_count (4), then entries of key_size (4), namespace (4), name
+     *
+     * @return the 1-based key index (which is the ilst item type), or -1 if absent
+     */
+    private static int findKeyIndex(PositionalReader reader, Box keys, String name) throws IOException {
+        long count = reader.getInt(keys.getPayload() + 4, ByteOrder.BIG_ENDIAN);
+        long position = keys.getPayload() + 8;
+        for (int index = 1; index <= count && position + 8 <= keys.getEnd(); index++) {
+            long keySize = reader.getInt(position, ByteOrder.BIG_ENDIAN);
+            if (keySize < 8 || position + keySize > keys.getEnd()) {
+                return -1;
+            }
+            if (keySize - 8 == name.length() && name.equals(reader.getString(position + 8, name.length()))) {
+                return index;
+            }
+            position += keySize;
+        }
+        return -1;
+    }
+}
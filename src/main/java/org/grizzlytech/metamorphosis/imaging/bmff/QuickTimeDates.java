@@ -0,0 +1,37 @@
+package org.grizzlytech.metamorphosis.imaging.bmff;
+
+import java.time.Instant;
+
+/**
+ * The QuickTime/MP4 dates of interest, as read by QuickTimeDateReader
+ */
+public class QuickTimeDates {
+
+    /**
+     * mvhd creation_time (QuickTimeDirectory.TAG_CREATION_TIME / Mp4Directory.TAG_CREATION_TIME)
+     */
+    private final Instant creationTime;
+
+    /**
+     * com.apple.quicktime.creationdate metadata key, if present (null otherwise)
+     */
+    private final Instant creationDate;
+
+    public QuickTimeDates(Instant creationTime, Instant creationDate) {
+        this.creationTime = creationTime;
+        this.creationDate = creationDate;
+    }
+
+    public Instant getCreationTime() {
+        return creationTime;
+    }
+
+    public Instant getCreationDate() {
+        return creationDate;
+    }
+
+    @Override
+    public String toString() {
+        return "QuickTimeDates{creationTime=" + creationTime + ", creationDate=" + creationDate + '}';
+    }
+}
@@ -5,80 +5,259 @@ import com.drew.lang.ByteArrayReader;
 import com.drew.lang.annotations.NotNull;
 import com.drew.metadata.Metadata;
 import com.drew.metadata.exif.ExifReader;
-import com.nokia.heif.ExifItem;
-import com.nokia.heif.HEIF;
-import com.nokia.heif.ImageItem;
-import com.nokia.heif.MetaItem;
+import org.grizzlytech.metamorphosis.imaging.bmff.Box;
+import org.grizzlytech.metamorphosis.util.PositionalReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
 
 /**
- * Read metadata from HEIF images. Class uses Nokia HEIF API
+ * Read metadata from HEIF images in pure Java (no native libraries).
+ * <p>
+ * Only the meta box is parsed: pitm gives the primary item, iinf the Exif item(s), iref/cdsc ties the Exif item to
+ * the primary image and iloc gives its extents. Just those extents are then read with positional reads.
  */
 public class HEIFMetadataReader {
 
     private static final Logger LOG = LoggerFactory.getLogger(HEIFMetadataReader.class);
 
-    /**
-     * EXIF metadata preamble (See ExifReader.JPEG_SEGMENT_PREAMBLE) is prefixed by this
-     */
-    private static final byte[] PREAMBLE = {0, 0, 0, 6};
+    private static final int PITM = Box.fourcc("pitm");
+    private static final int IINF = Box.fourcc("iinf");
+    private static final int INFE = Box.fourcc("infe");
+    private static final int IREF = Box.fourcc("iref");
+    private static final int ILOC = Box.fourcc("iloc");
+    private static final int IDAT = Box.fourcc("idat");
+    private static final int CDSC = Box.fourcc("cdsc");
+    private static final int EXIF = Box.fourcc("Exif");
 
-    private static final int JPEG_SEGMENT_PREAMBLE_OFFSET = PREAMBLE.length + ExifReader.JPEG_SEGMENT_PREAMBLE.length();
+    private static final int MAX_EXIF_LENGTH = 1 << 20; // guard against corrupt extents
+
+    private static final ThreadLocal<PositionalReader> READER =
+            ThreadLocal.withInitial(() -> new PositionalReader(PositionalReader.DEFAULT_WINDOW));
 
     /**
      * Locating the primary image and extracting the EXIF byte array is not directly supported by Drew Noakes library.
-     * We use the Nokia HEIF reference implementation to perform this task, then hand back parsing to Drew.
+     * We walk the HEIF item structure ourselves, then hand back parsing to Drew.
      *
-     * @param file
-     * @return
+     * @param file HEIF image
+     * @return metadata read from the primary image's Exif item
      */
     @NotNull
     public static Metadata readMetadata(@NotNull File file)
             throws ImageProcessingException {
+        return readMetadata(file.toPath());
+    }
+
+    @NotNull
+    public static Metadata readMetadata(@NotNull Path path)
+            throws ImageProcessingException {
         // Read metadata into byte array
-        byte[] data = readExifMetadataAsBytes(file.getAbsolutePath());
+        byte[] data = readExifMetadataAsBytes(path);
+
+        // The Exif item starts with the offset of the TIFF header (usually past an "Exif\0\0" preamble)
+        if (data.length < Integer.BYTES) {
+            throw new ImageProcessingException("Truncated Exif item in " + path);
+        }
+        long tiffOffset = Integer.BYTES + (ByteBuffer.wrap(data).getInt() & 0xffffffffL);
+        if (tiffOffset >= data.length) {
+            throw new ImageProcessingException("Invalid Exif TIFF header offset in " + path);
+        }
 
         // Read the Exif byte array into the Metadata object using the ExifReader helper class
         Metadata metadata = new Metadata();
-        new ExifReader().extract(new ByteArrayReader(data), metadata, JPEG_SEGMENT_PREAMBLE_OFFSET, null);
+        new ExifReader().extract(new ByteArrayReader(data), metadata, (int) tiffOffset, null);
 
         return metadata;
     }
 
-    private static byte[] readExifMetadataAsBytes(String filename)
+    private static byte[] readExifMetadataAsBytes(Path path)
             throws ImageProcessingException {
-        HEIF heif = null;
-        try {
+        try (SeekableByteChannel channel = PositionalReader.openChannel(path)) {
+            PositionalReader reader = READER.get().bind(channel);
+            Box meta = Box.find(reader, 0, reader.size(), Box.META);
+            if (meta == null) {
+                throw new ImageProcessingException("Unable to locate meta box for " + path);
+            }
+            // meta is a full box: skip version and flags
+            long children = meta.getPayload() + 4;
+
             // Obtain the primary image within the HEIF image set
-            heif = new HEIF();
-            heif.load(filename);
-            ImageItem primaryImage = heif.getPrimaryImage();
-            if (primaryImage == null) {
-                throw new ImageProcessingException("Unable to locate primaryImage for " + filename);
+            Box pitm = Box.find(reader, children, meta.getEnd(), PITM);
+            if (pitm == null) {
+                throw new ImageProcessingException("Unable to locate primaryImage for " + path);
+            }
+            long primaryId = readId(reader, pitm.getPayload() + 4, reader.getByte(pitm.getPayload()) == 0);
+
+            // Obtain the Exif metadata item describing the primary image
+            long exifId = findExifItem(reader, children, meta.getEnd(), primaryId);
+            if (exifId < 0) {
+                throw new ImageProcessingException("Unable to locate ExifItem metadata for " + path);
+            }
+
+            // Return the item's data as a byte array
+            return readItem(reader, children, meta.getEnd(), exifId, path);
+        } catch (IOException ex) {
+            throw new ImageProcessingException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * @return the Exif item whose cdsc reference points at the primary item, else the first Exif item, else -1
+     */
+    private static long findExifItem(PositionalReader reader, long from, long limit, long primaryId)
+            throws IOException {
+        Box iinf = Box.find(reader, from, limit, IINF);
+        if (iinf == null) {
+            return -1;
+        }
+        boolean v0 = reader.getByte(iinf.getPayload()) == 0;
+        long position = iinf.getPayload() + 4 + (v0 ? 2 : 4); // version/flags, entry_count
+        long firstExif = -1;
+        Box infe;
+        while ((infe = Box.read(reader, position, iinf.getEnd())) != null) {
+            // infe version 2 has 16-bit item IDs, version 3 32-bit; item_type follows the protection index
+            int version = reader.getByte(infe.getPayload());
+            if (infe.getType() == INFE && version >= 2) {
+                long itemId = readId(reader, infe.getPayload() + 4, version == 2);
+                long typePosition = infe.getPayload() + 4 + (version == 2 ? 2 : 4) + 2;
+                if ((int) reader.getInt(typePosition, ByteOrder.BIG_ENDIAN) == EXIF) {
+                    if (describes(reader, from, limit, itemId, primaryId)) {
+                        return itemId;
+                    }
+                    if (firstExif < 0) {
+                        firstExif = itemId;
+                    }
+                }
+            }
+            position = infe.getEnd();
+        }
+        return firstExif;
+    }
+
+    /**
+     * @return true if iref holds a cdsc ("content describes") reference from itemId to primaryId
+     */
+    private static boolean describes(PositionalReader reader, long from, long limit, long itemId, long primaryId)
+            throws IOException {
+        Box iref = Box.find(reader, from, limit, IREF);
+        if (iref == null) {
+            return false;
+        }
+        boolean shortIds = reader.getByte(iref.getPayload()) == 0;
+        int idLength = shortIds ? 2 : 4;
+        long position = iref.getPayload() + 4;
+        Box reference;
+        while ((reference = Box.read(reader, position, iref.getEnd())) != null) {
+            if (reference.getType() == CDSC && readId(reader, reference.getPayload(), shortIds) == itemId) {
+                long count = reader.getShort(reference.getPayload() + idLength, ByteOrder.BIG_ENDIAN);
+                long to = reference.getPayload() + idLength + 2;
+                for (int i = 0; i < count; i++) {
+                    if (readId(reader, to + (long) i * idLength, shortIds) == primaryId) {
+                        return true;
+                    }
+                }
+            }
+            position = reference.getEnd();
+        }
+        return false;
+    }
+
+    /**
+     * Read an item's extents as located by iloc (construction method 0: file offsets; 1: idat offsets)
+     */
+    private static byte[] readItem(PositionalReader reader, long from, long limit, long itemId, Path path)
+            throws IOException, ImageProcessingException {
+        Box iloc = Box.find(reader, from, limit, ILOC);
+        if (iloc == null) {
+            throw new ImageProcessingException("Unable to locate iloc for " + path);
+        }
+        long position = iloc.getPayload();
+        int version = reader.getByte(position);
+        int sizes = reader.getShort(position + 4, ByteOrder.BIG_ENDIAN);
+        int offsetSize = (sizes >> 12) & 0xf;
+        int lengthSize = (sizes >> 8) & 0xf;
+        int baseOffsetSize = (sizes >> 4) & 0xf;
+        int indexSize = (version == 1 || version == 2) ? sizes & 0xf : 0;
+        position += 6;
+        long itemCount = (version < 2) ? reader.getShort(position, ByteOrder.BIG_ENDIAN) :
+                reader.getInt(position, ByteOrder.BIG_ENDIAN);
+        position += (version < 2) ? 2 : 4;
+
+        for (long i = 0; i < itemCount && position < iloc.getEnd(); i++) {
+            long id = readId(reader, position, version < 2);
+            position += (version < 2) ? 2 : 4;
+            int constructionMethod = 0;
+            if (version == 1 || version == 2) {
+                constructionMethod = reader.getShort(position, ByteOrder.BIG_ENDIAN) & 0xf;
+                position += 2;
             }
+            position += 2; // data_reference_index
+            long baseOffset = readSized(reader, position, baseOffsetSize);
+            position += baseOffsetSize;
+            int extentCount = reader.getShort(position, ByteOrder.BIG_ENDIAN);
+            position += 2;
 
-            // Obtain the Exif metadata from the image
-            ExifItem exifItem = null;
-            for (MetaItem item : primaryImage.getMetadatas()) {
-                if (item instanceof ExifItem) {
-                    exifItem = (ExifItem) item;
-                    break;
+            ByteArrayOutputStream data = (id == itemId) ? new ByteArrayOutputStream() : null;
+            for (int e = 0; e < extentCount; e++) {
+                position += indexSize;
+                long extentOffset = readSized(reader, position, offsetSize);
+                position += offsetSize;
+                long extentLength = readSized(reader, position, lengthSize);
+                position += lengthSize;
+                if (data != null) {
+                    long origin = (constructionMethod == 1) ? idatPayload(reader, from, limit, path) : 0;
+                    readExtent(reader, origin + baseOffset + extentOffset, extentLength, data, path);
                 }
             }
-            if (exifItem == null) {
-                throw new ImageProcessingException("Unable to locate ExifItem metadata for " + filename);
+            if (data != null) {
+                return data.toByteArray();
             }
+        }
+        throw new ImageProcessingException("Unable to locate item " + itemId + " in iloc for " + path);
+    }
 
-            // Return the data as a byte array
-            return exifItem.getDataAsArray();
+    private static void readExtent(PositionalReader reader, long offset, long length, ByteArrayOutputStream data,
+                                   Path path) throws IOException, ImageProcessingException {
+        if (length == 0 || data.size() + length > MAX_EXIF_LENGTH || offset + length > reader.size()) {
+            throw new ImageProcessingException("Invalid Exif extent [" + offset + "+" + length + "] in " + path);
+        }
+        byte[] bytes = reader.getBytes(offset, (int) length);
+        data.write(bytes, 0, bytes.length);
+    }
 
-        } catch (com.nokia.heif.Exception ex) {
-            throw new ImageProcessingException(ex.getMessage(), ex);
-        } finally {
-            heif.release(); // free resources
+    private static long idatPayload(PositionalReader reader, long from, long limit, Path path)
+            throws IOException, ImageProcessingException {
+        Box idat = Box.find(reader, from, limit, IDAT);
+        if (idat == null) {
+            throw new ImageProcessingException("Unable to locate idat for " + path);
+        }
+        return idat.getPayload();
+    }
+
+    private static long readId(PositionalReader reader, long position, boolean shortId) throws IOException {
+        return shortId ? reader.getShort(position, ByteOrder.BIG_ENDIAN) : reader.getInt(position, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Read an unsigned big endian field of 0, 4 or 8 bytes (as used for iloc offsets and lengths)
+     */
+    private static long readSized(PositionalReader reader, long position, int size) throws IOException {
+        switch (size) {
+            case 0:
+                return 0;
+            case 4:
+                return reader.getInt(position, ByteOrder.BIG_ENDIAN);
+            case 8:
+                return reader.getLong(position, ByteOrder.BIG_ENDIAN);
+            default:
+                throw new IOException("Unsupported iloc field size " + size);
         }
     }
 }
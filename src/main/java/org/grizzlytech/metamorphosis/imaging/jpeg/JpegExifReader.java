@@ -0,0 +1,111 @@
+package org.grizzlytech.metamorphosis.imaging.jpeg;
+
+import org.grizzlytech.metamorphosis.imaging.tiff.ExifDates;
+import org.grizzlytech.metamorphosis.imaging.tiff.TiffDateReader;
+import org.grizzlytech.metamorphosis.imaging.tiff.TiffThumbnailReader;
+import org.grizzlytech.metamorphosis.util.PositionalReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * Fast-path reader for the EXIF dates in a JPEG.
+ * <p>
+ * Walks the marker segments using only their headers, stops at the APP1 Exif segment, then resolves the date tags
+ * from its TIFF structure. Other segments (XMP, ICC, thumbnails, maker notes) and the image data are never read.
+ * Each thread re-uses one small read window, so a typical file costs a single 4 KB read and no buffer allocation.
+ */
+public class JpegExifReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JpegExifReader.class);
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final byte[] EXIF_PREAMBLE = {'E', 'x', 'i', 'f', 0, 0};
+
+    private static final ThreadLocal<PositionalReader> READER =
+            ThreadLocal.withInitial(() -> new PositionalReader(PositionalReader.DEFAULT_WINDOW));
+
+    /**
+     * @param path JPEG file
+     * @return the EXIF dates, or null if the fast path could not read them (caller should fall back to a full parse)
+     */
+    public static ExifDates readDates(Path path) {
+        try (SeekableByteChannel channel = PositionalReader.openChannel(path)) {
+            PositionalReader reader = READER.get().bind(channel);
+            long tiff = findExifTiffHeader(reader);
+            return (tiff < 0) ? null : TiffDateReader.readDates(reader, tiff);
+        } catch (IOException ex) {
+            LOG.debug("Fast path failed for {}: {}", path, ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * @param path JPEG file
+     * @return the embedded EXIF thumbnail (itself a JPEG), or null if there is none
+     */
+    public static byte[] readThumbnail(Path path) {
+        try (SeekableByteChannel channel = PositionalReader.openChannel(path)) {
+            PositionalReader reader = READER.get().bind(channel);
+            long tiff = findExifTiffHeader(reader);
+            long[] thumbnail = (tiff < 0) ? null : TiffThumbnailReader.findThumbnail(reader, tiff);
+            if (thumbnail == null) {
+                return null;
+            }
+            byte[] bytes = reader.getBytes(thumbnail[0], (int) thumbnail[1]);
+            return ((bytes[0] & 0xff) == 0xFF && (bytes[1] & 0xff) == MARKER_SOI) ? bytes : null;
+        } catch (IOException ex) {
+            LOG.debug("Unable to read thumbnail of {}: {}", path, ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Walk the JPEG marker segments looking for APP1 Exif
+     *
+     * @param reader reader bound to the file
+     * @return absolute position of the TIFF header within APP1, or -1 if there is none before the image data
+     */
+    public static long findExifTiffHeader(PositionalReader reader) throws IOException {
+        if (reader.size() < 4 || reader.getByte(0) != 0xFF || reader.getByte(1) != MARKER_SOI) {
+            return -1;
+        }
+        long pos = 2;
+        while (pos + 4 <= reader.size()) {
+            if (reader.getByte(pos) != 0xFF) {
+                return -1;
+            }
+            // Markers may be preceded by any number of 0xFF fill bytes
+            while (pos + 1 < reader.size() && reader.getByte(pos + 1) == 0xFF) {
+                pos++;
+            }
+            int marker = reader.getByte(pos + 1);
+            if (marker == MARKER_EOI || marker == MARKER_SOS) {
+                return -1;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                pos += 2; // standalone marker, no length
+                continue;
+            }
+            int length = reader.getShort(pos + 2, ByteOrder.BIG_ENDIAN);
+            if (length < 2) {
+                return -1;
+            }
+            long payload = pos + 4;
+            if (marker == MARKER_APP1 && length >= 2 + EXIF_PREAMBLE.length + 8 &&
+                    reader.matches(payload, EXIF_PREAMBLE)) {
+                return payload + EXIF_PREAMBLE.length;
+            }
+            pos = pos + 2 + length;
+        }
+        return -1;
+    }
+}
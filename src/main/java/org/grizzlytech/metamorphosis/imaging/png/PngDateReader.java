@@ -0,0 +1,262 @@
+package org.grizzlytech.metamorphosis.imaging.png;
+
+import org.grizzlytech.metamorphosis.imaging.tiff.ExifDates;
+import org.grizzlytech.metamorphosis.imaging.tiff.TiffDateReader;
+import org.grizzlytech.metamorphosis.util.PositionalReader;
+import org.grizzlytech.metamorphosis.util.TimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Fast-path reader for the dates in a PNG.
+ * <p>
+ * Walks the chunk headers with positional reads, reading the payload of only the chunks that carry dates (eXIf,
+ * tIME, and the text chunks holding XMP or a "Creation Time"), and stops at the first IDAT, so the pixels are never
+ * read. PNG allows tIME and text chunks after the image data (libpng writes them there from png_write_end); dates
+ * stored after IDAT are deliberately skipped, trading them for a read bounded by the header chunks.
+ */
+public class PngDateReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PngDateReader.class);
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int CHUNK_IDAT = type("IDAT");
+    private static final int CHUNK_IEND = type("IEND");
+    private static final int CHUNK_EXIF = type("eXIf");
+    private static final int CHUNK_TIME = type("tIME");
+    private static final int CHUNK_TEXT = type("tEXt");
+    private static final int CHUNK_ZTXT = type("zTXt");
+    private static final int CHUNK_ITXT = type("iTXt");
+
+    private static final String KEY_XMP = "XML:com.adobe.xmp";
+    private static final String KEY_CREATION_TIME = "Creation Time";
+
+    private static final int MAX_KEYWORD_LENGTH = 79;
+
+    private static final byte[] EXIF_PREAMBLE = {'E', 'x', 'i', 'f', 0, 0};
+
+    /**
+     * Text chunks larger than this are skipped (an XMP packet is typically a few KB)
+     */
+    private static final int MAX_TEXT_LENGTH = 1 << 20;
+
+    /**
+     * XMP date properties (CreateDate, DateTimeOriginal, DateCreated) in order of preference, each matched as an
+     * attribute (xmp:CreateDate="...") or an element (<xmp:CreateDate>...</xmp:CreateDate>)
+     */
+    private static final Pattern[] XMP_DATES = {xmpProperty("CreateDate"), xmpProperty("DateTimeOriginal"),
+            xmpProperty("DateCreated")};
+
+    private static final ThreadLocal<PositionalReader> READER =
+            ThreadLocal.withInitial(() -> new PositionalReader(PositionalReader.DEFAULT_WINDOW));
+
+    /**
+     * @param path PNG file
+     * @return the dates (any may be null), or null if the file is not a readable PNG (caller should fall back)
+     */
+    public static PngDates readDates(Path path) {
+        try (SeekableByteChannel channel = PositionalReader.openChannel(path)) {
+            return readDates(READER.get().bind(channel));
+        } catch (IOException ex) {
+            LOG.debug("Fast path failed for {}: {}", path, ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * @param reader reader bound to a PNG file
+     * @return the dates (any may be null), or null if there is no PNG signature or the chunks are not readable
+     */
+    public static PngDates readDates(PositionalReader reader) throws IOException {
+        if (!reader.matches(0, SIGNATURE)) {
+            return null;
+        }
+        ExifDates exifDates = null;
+        Instant xmpCreateDate = null;
+        Instant creationTime = null;
+        Instant modificationTime = null;
+
+        long pos = SIGNATURE.length;
+        while (pos + 8 <= reader.size()) {
+            long length = reader.getInt(pos, ByteOrder.BIG_ENDIAN);
+            int type = (int) reader.getInt(pos + 4, ByteOrder.BIG_ENDIAN);
+            long data = pos + 8;
+            if (type == CHUNK_IDAT || type == CHUNK_IEND) {
+                break;
+            }
+            if (length > Integer.MAX_VALUE || data + length > reader.size()) {
+                LOG.debug("Truncated {} chunk at {}", name(type), pos);
+                return null;
+            }
+            if (type == CHUNK_EXIF && exifDates == null) {
+                // Some writers keep the JPEG APP1 preamble
+                long tiff = reader.matches(data, EXIF_PREAMBLE) ? data + EXIF_PREAMBLE.length : data;
+                exifDates = TiffDateReader.readDates(reader, tiff);
+            } else if (type == CHUNK_TIME && length == 7) {
+                modificationTime = readTime(reader, data);
+            } else if ((type == CHUNK_TEXT || type == CHUNK_ZTXT || type == CHUNK_ITXT) && length <= MAX_TEXT_LENGTH) {
+                String[] text = readText(reader, type, data, (int) length);
+                if (text != null && KEY_XMP.equals(text[0]) && xmpCreateDate == null) {
+                    xmpCreateDate = parseXmpDate(text[1]);
+                } else if (text != null && KEY_CREATION_TIME.equals(text[0]) && creationTime == null) {
+                    creationTime = parseCreationTime(text[1]);
+                }
+            }
+            pos = data + length + 4; // skip the CRC
+        }
+        return new PngDates(exifDates, xmpCreateDate, creationTime, modificationTime);
+    }
+
+    /**
+     * @return the tIME chunk (year, month, day, hour, minute, second; in UTC), or null if invalid
+     */
+    private static Instant readTime(PositionalReader reader, long data) throws IOException {
+        try {
+            return LocalDateTime.of(reader.getShort(data, ByteOrder.BIG_ENDIAN), reader.getByte(data + 2),
+                    reader.getByte(data + 3), reader.getByte(data + 4), reader.getByte(data + 5),
+                    Math.min(reader.getByte(data + 6), 59)).toInstant(ZoneOffset.UTC); // 60 is a leap second
+        } catch (DateTimeException ex) {
+            LOG.debug("Invalid tIME chunk [{}]", ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Decode a text chunk: tEXt (keyword NUL text), zTXt (keyword NUL method deflated-text) or iTXt (keyword NUL
+     * flag method language NUL translated-keyword NUL text, the text optionally deflated)
+     *
+     * @return the keyword and the text, or null if the chunk is malformed
+     */
+    private static String[] readText(PositionalReader reader, int type, long data, int length) throws IOException {
+        // Read just the keyword first, so that other text (comments, raw profiles) is skipped unread
+        byte[] head = reader.getBytes(data, Math.min(length, MAX_KEYWORD_LENGTH + 1));
+        int keyEnd = indexOf(head, 0);
+        if (keyEnd < 1) {
+            return null;
+        }
+        String keyword = new String(head, 0, keyEnd, StandardCharsets.ISO_8859_1);
+        if (!KEY_XMP.equals(keyword) && !KEY_CREATION_TIME.equals(keyword)) {
+            return null;
+        }
+        byte[] bytes = reader.getBytes(data, length);
+        try {
+            if (type == CHUNK_TEXT) {
+                return new String[]{keyword, latin1(bytes, keyEnd + 1, length)};
+            } else if (type == CHUNK_ZTXT) {
+                return new String[]{keyword, new String(inflate(bytes, keyEnd + 2, length),
+                        StandardCharsets.ISO_8859_1)};
+            }
+            if (keyEnd + 3 > length) {
+                return null;
+            }
+            boolean compressed = bytes[keyEnd + 1] != 0;
+            int languageEnd = indexOf(bytes, keyEnd + 3);
+            int translatedEnd = (languageEnd < 0) ? -1 : indexOf(bytes, languageEnd + 1);
+            if (translatedEnd < 0) {
+                return null;
+            }
+            byte[] text = compressed ? inflate(bytes, translatedEnd + 1, length) :
+                    Arrays.copyOfRange(bytes, translatedEnd + 1, length);
+            return new String[]{keyword, new String(text, StandardCharsets.UTF_8)};
+        } catch (DataFormatException ex) {
+            LOG.debug("Corrupt {} chunk [{}]", name(type), ex.getMessage());
+            return null;
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes, int from, int to) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, from, Math.max(0, to - from));
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, (to - from) * 4));
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished() && out.size() <= MAX_TEXT_LENGTH) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return the first XMP date property found (see XMP_DATES), or null
+     */
+    static Instant parseXmpDate(String xmp) {
+        for (Pattern property : XMP_DATES) {
+            Matcher m = property.matcher(xmp);
+            if (m.find()) {
+                Instant date = TimeUtil.parseDateTime((m.group(1) != null) ? m.group(1) : m.group(2));
+                if (date != null) {
+                    return date;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the "Creation Time" text as an instant: EXIF/ISO style, or the RFC 1123 style the PNG spec suggests
+     */
+    static Instant parseCreationTime(String text) {
+        Instant date = TimeUtil.parseDateTime(text);
+        if (date == null) {
+            try {
+                date = ZonedDateTime.parse(text.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            } catch (DateTimeException ex) {
+                LOG.debug("Unrecognised Creation Time [{}]", text);
+            }
+        }
+        return date;
+    }
+
+    private static Pattern xmpProperty(String name) {
+        return Pattern.compile(":" + name + "(?:\\s*=\\s*[\"']([^\"']+)[\"']|>([^<]+)<)");
+    }
+
+    private static int indexOf(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String latin1(byte[] bytes, int from, int to) {
+        return new String(bytes, from, Math.max(0, to - from), StandardCharsets.ISO_8859_1);
+    }
+
+    private static int type(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+    }
+
+    private static String name(int type) {
+        return new String(new byte[]{(byte) (type >>> 24), (byte) (type >>> 16), (byte) (type >>> 8), (byte) type},
+                StandardCharsets.ISO_8859_1);
+    }
+}
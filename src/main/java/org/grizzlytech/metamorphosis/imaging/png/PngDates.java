@@ -0,0 +1,60 @@
+package org.grizzlytech.metamorphosis.imaging.png;
+
+import org.grizzlytech.metamorphosis.imaging.tiff.ExifDates;
+
+import java.time.Instant;
+
+/**
+ * The PNG dates of interest, as read by PngDateReader. Any may be null if the chunk (or key) is absent
+ */
+public class PngDates {
+
+    /**
+     * eXIf chunk dates
+     */
+    private final ExifDates exifDates;
+
+    /**
+     * XMP (iTXt "XML:com.adobe.xmp") CreateDate, else DateTimeOriginal or DateCreated
+     */
+    private final Instant xmpCreateDate;
+
+    /**
+     * tEXt/iTXt/zTXt "Creation Time" keyword
+     */
+    private final Instant creationTime;
+
+    /**
+     * tIME chunk (the last modification, in UTC)
+     */
+    private final Instant modificationTime;
+
+    public PngDates(ExifDates exifDates, Instant xmpCreateDate, Instant creationTime, Instant modificationTime) {
+        this.exifDates = exifDates;
+        this.xmpCreateDate = xmpCreateDate;
+        this.creationTime = creationTime;
+        this.modificationTime = modificationTime;
+    }
+
+    public ExifDates getExifDates() {
+        return exifDates;
+    }
+
+    public Instant getXmpCreateDate() {
+        return xmpCreateDate;
+    }
+
+    public Instant getCreationTime() {
+        return creationTime;
+    }
+
+    public Instant getModificationTime() {
+        return modificationTime;
+    }
+
+    @Override
+    public String toString() {
+        return "PngDates{exifDates=" + exifDates + ", xmpCreateDate=" + xmpCreateDate +
+                ", creationTime=" + creationTime + ", modificationTime=" + modificationTime + '}';
+    }
+}
@@ -0,0 +1,37 @@
+package org.grizzlytech.metamorphosis.imaging.tiff;
+
+import java.time.Instant;
+
+/**
+ * The EXIF dates of interest, as read by TiffDateReader. Either may be null if the tag is absent
+ */
+public class ExifDates {
+
+    /**
+     * IFD0 DateTime (TAG_DATETIME)
+     */
+    private final Instant dateTime;
+
+    /**
+     * Exif SubIFD DateTimeOriginal (TAG_DATETIME_ORIGINAL)
+     */
+    private final Instant dateTimeOriginal;
+
+    public ExifDates(Instant dateTime, Instant dateTimeOriginal) {
+        this.dateTime = dateTime;
+        this.dateTimeOriginal = dateTimeOriginal;
+    }
+
+    public Instant getDateTime() {
+        return dateTime;
+    }
+
+    public Instant getDateTimeOriginal() {
+        return dateTimeOriginal;
+    }
+
+    @Override
+    public String toString() {
+        return "ExifDates{dateTime=" + dateTime + ", dateTimeOriginal=" + dateTimeOriginal + '}';
+    }
+}
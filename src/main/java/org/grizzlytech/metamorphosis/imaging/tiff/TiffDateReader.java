@@ -0,0 +1,183 @@
+package org.grizzlytech.metamorphosis.imaging.tiff;
+
+import org.grizzlytech.metamorphosis.util.PositionalReader;
+import org.grizzlytech.metamorphosis.util.TimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * Resolve just the EXIF date tags from a TIFF structure (as embedded in JPEG APP1, HEIF Exif items and RAW files).
+ * <p>
+ * Only the IFD entry tables and the date strings are read, never the image data, maker notes or thumbnails. A
+ * 50 MB RAW file typically costs one 4 KB read.
+ */
+public class TiffDateReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TiffDateReader.class);
+
+    public static final int TAG_DATETIME = 0x0132;
+    public static final int TAG_EXIF_IFD_POINTER = 0x8769;
+    public static final int TAG_DATETIME_ORIGINAL = 0x9003;
+
+    private static final int TYPE_ASCII = 2;
+    private static final int ENTRY_LENGTH = 12;
+    private static final int MAX_ENTRIES = 1000; // guard against corrupt counts
+    private static final int MAX_IFDS = 8; // guard against looping chains
+
+    private static final ThreadLocal<PositionalReader> READER =
+            ThreadLocal.withInitial(() -> new PositionalReader(PositionalReader.DEFAULT_WINDOW));
+
+    /**
+     * Read the dates of a TIFF-based file, such as a RAW (DNG, CR2, NEF, ARW), from its header and IFDs alone
+     *
+     * @param path TIFF-based file
+     * @return the dates (either may be null), or null if they could not be read
+     */
+    public static ExifDates readDates(Path path) {
+        try (SeekableByteChannel channel = PositionalReader.openChannel(path)) {
+            return readDates(READER.get().bind(channel), 0);
+        } catch (IOException ex) {
+            LOG.debug("Unable to read TIFF dates of {}: {}", path, ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Read the dates from the TIFF structure starting at base (the byte order mark)
+     *
+     * @param reader reader bound to the file
+     * @param base   absolute position of the TIFF header; IFD offsets are relative to it
+     * @return the dates (either may be null), or null if the structure could not be read, or no date present could be
+     */
+    public static ExifDates readDates(PositionalReader reader, long base) throws IOException {
+        ByteOrder order = readByteOrder(reader, base);
+        if (order == null) {
+            return null;
+        }
+        long ifd0 = reader.getInt(base + 4, order);
+
+        long[] values = new long[2];
+        if (!scanIfd(reader, base, ifd0, order, TAG_DATETIME, TAG_EXIF_IFD_POINTER, values)) {
+            return null;
+        }
+        // IFD0 almost always holds both tags; otherwise follow the chain (RAW files add preview IFDs), stopping
+        // quietly at the first IFD that cannot be read
+        long next = nextIfd(reader, base, ifd0, order);
+        for (int n = 1; n < MAX_IFDS && next != 0 && (values[0] == 0 || values[1] == 0); n++) {
+            long[] more = new long[2];
+            if (!scanIfd(reader, base, next, order, TAG_DATETIME, TAG_EXIF_IFD_POINTER, more)) {
+                break;
+            }
+            values[0] = (values[0] != 0) ? values[0] : more[0];
+            values[1] = (values[1] != 0) ? values[1] : more[1];
+            next = nextIfd(reader, base, next, order);
+        }
+        boolean unreadable = false;
+        Instant dateTime = null;
+        if (values[0] != 0) {
+            dateTime = readDate(reader, base, values[0], order);
+            unreadable = (dateTime == null);
+        }
+
+        Instant dateTimeOriginal = null;
+        long exifIfd = values[1];
+        if (exifIfd != 0) {
+            long[] exifValues = new long[2];
+            if (!scanIfd(reader, base, exifIfd, order, TAG_DATETIME_ORIGINAL, -1, exifValues)) {
+                unreadable = true;
+            } else if (exifValues[0] != 0) {
+                dateTimeOriginal = readDate(reader, base, exifValues[0], order);
+                unreadable |= (dateTimeOriginal == null);
+            }
+        }
+        // A blank or zeroed date (as written by a camera whose clock was never set) reads as null, leaving the other
+        // date to stand; only when neither can be read is the caller sent to its fallback
+        if (unreadable && dateTime == null && dateTimeOriginal == null) {
+            return null;
+        }
+        return new ExifDates(dateTime, dateTimeOriginal);
+    }
+
+    /**
+     * @return the offset of the IFD following the one at ifdOffset (0 at the end of the chain)
+     */
+    static long nextIfd(PositionalReader reader, long base, long ifdOffset, ByteOrder order) throws IOException {
+        long ifd = base + ifdOffset;
+        long link = ifd + 2 + (long) reader.getShort(ifd, order) * ENTRY_LENGTH;
+        return (link + 4 <= reader.size()) ? reader.getInt(link, order) : 0;
+    }
+
+    /**
+     * @return the byte order declared by the TIFF header at base, or null if there is no valid header
+     */
+    public static ByteOrder readByteOrder(PositionalReader reader, long base) throws IOException {
+        if (base + 8 > reader.size()) {
+            return null;
+        }
+        int mark = reader.getShort(base, ByteOrder.BIG_ENDIAN);
+        ByteOrder order;
+        if (mark == 0x4949) { // "II"
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (mark == 0x4D4D) { // "MM"
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            return null;
+        }
+        int magic = reader.getShort(base + 2, order);
+        // 42 is standard TIFF; 0x4F52 ("RO") and 0x5352 ("RS") are Olympus ORF, 0x55 is Panasonic RW2
+        return (magic == 42 || magic == 0x4F52 || magic == 0x5352 || magic == 0x55) ? order : null;
+    }
+
+    /**
+     * Scan one IFD for up to two tags, storing each entry's position (or, for a pointer tag, its value)
+     *
+     * @param dateTag    ASCII tag whose entry position is stored in values[0]
+     * @param pointerTag LONG/IFD tag whose value is stored in values[1] (-1 for none)
+     * @return false if the IFD lies outside the file or is implausible
+     */
+    static boolean scanIfd(PositionalReader reader, long base, long ifdOffset, ByteOrder order,
+                           int dateTag, int pointerTag, long[] values) throws IOException {
+        long ifd = base + ifdOffset;
+        if (ifdOffset < 8 || ifd + 2 > reader.size()) {
+            return false;
+        }
+        int count = reader.getShort(ifd, order);
+        if (count > MAX_ENTRIES || ifd + 2 + (long) count * ENTRY_LENGTH > reader.size()) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            long entry = ifd + 2 + (long) i * ENTRY_LENGTH;
+            int tag = reader.getShort(entry, order);
+            if (tag == dateTag) {
+                values[0] = entry;
+            } else if (tag == pointerTag) {
+                values[1] = reader.getInt(entry + 8, order);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param entry absolute position of an ASCII IFD entry
+     * @return the parsed date, or null if the entry is not a readable date
+     */
+    static Instant readDate(PositionalReader reader, long base, long entry, ByteOrder order) throws IOException {
+        int type = reader.getShort(entry + 2, order);
+        long count = reader.getInt(entry + 4, order);
+        if (type != TYPE_ASCII || count < 10 || count > 64) {
+            LOG.debug("Unexpected date entry [type={} count={}]", type, count);
+            return null;
+        }
+        long valuePosition = base + reader.getInt(entry + 8, order);
+        if (valuePosition + count > reader.size()) {
+            return null;
+        }
+        return TimeUtil.parseDateTime(reader.getString(valuePosition, (int) count));
+    }
+}
@@ -0,0 +1,51 @@
+package org.grizzlytech.metamorphosis.imaging.tiff;
+
+import org.grizzlytech.metamorphosis.util.PositionalReader;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+/**
+ * Locate the JPEG thumbnail that EXIF keeps in IFD1 (tags JPEGInterchangeFormat and JPEGInterchangeFormatLength),
+ * reading only the IFD entry tables.
+ */
+public class TiffThumbnailReader {
+
+    public static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    public static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    private static final int ENTRY_LENGTH = 12;
+    private static final int MAX_THUMBNAIL_LENGTH = 1 << 20; // guard against corrupt lengths
+
+    /**
+     * @param reader reader bound to the file
+     * @param base   absolute position of the TIFF header; IFD offsets are relative to it
+     * @return the absolute position [0] and length [1] of the thumbnail, or null if there is none
+     */
+    public static long[] findThumbnail(PositionalReader reader, long base) throws IOException {
+        ByteOrder order = TiffDateReader.readByteOrder(reader, base);
+        if (order == null) {
+            return null;
+        }
+        // IFD1 follows IFD0: its offset is stored after IFD0's entries
+        long ifd0 = base + reader.getInt(base + 4, order);
+        if (ifd0 + 2 > reader.size()) {
+            return null;
+        }
+        long ifd1Offset = reader.getInt(ifd0 + 2 + (long) reader.getShort(ifd0, order) * ENTRY_LENGTH, order);
+        if (ifd1Offset == 0) {
+            return null;
+        }
+        long[] values = new long[2];
+        if (!TiffDateReader.scanIfd(reader, base, ifd1Offset, order, TAG_THUMBNAIL_OFFSET, TAG_THUMBNAIL_LENGTH,
+                values) || values[0] == 0) {
+            return null;
+        }
+        long offset = base + reader.getInt(values[0] + 8, order);
+        long length = values[1];
+        if (length < 4 || length > MAX_THUMBNAIL_LENGTH || offset + length > reader.size()) {
+            return null;
+        }
+        return new long[]{offset, length};
+    }
+}
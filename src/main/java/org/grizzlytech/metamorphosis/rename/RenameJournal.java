@@ -0,0 +1,604 @@
+package org.grizzlytech.metamorphosis.rename;
+
+import org.grizzlytech.metamorphosis.FileMetadata;
+import org.grizzlytech.metamorphosis.FileInfo;
+import org.grizzlytech.metamorphosis.cache.MetadataCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe rename: the whole plan is written to an append-only journal before any file is touched, and the
+ * outcome of each move is then recorded as it happens (fsynced in batches).
+ * <p>
+ * After a crash, open the journal and execute it again: moves already recorded are skipped, and a move in doubt
+ * (performed, but not yet recorded) is recognised by finding the file, with its planned size and times, at its target.
+ * No metadata is extracted again, as each move carries its date taken. The journal of the last run is kept, so its
+ * moves can also be rolled back (restoring names and file times).
+ * <p>
+ * Each directory's moves are performed in plan order, but separate directories are renamed concurrently, hiding
+ * the per-operation latency of network filesystems.
+ */
+public class RenameJournal implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenameJournal.class);
+
+    /**
+     * Journal file name, created in the root of the renamed directory
+     */
+    public static final String DEFAULT_FILE_NAME = ".metamorphosis.journal";
+
+    private static final int MAGIC = 0x4D4D4A31; // "MMJ1"
+    private static final int MAX_RECORD_LENGTH = 1 << 16;
+    private static final int SYNC_EVERY = 256; // outcome records between fsyncs
+
+    private static final byte PLAN = 1;
+    private static final byte PLANNED = 2;
+    private static final byte DONE = 3;
+    private static final byte FAILED = 4;
+    private static final byte UNDONE = 5;
+    private static final byte COMPLETE = 6;
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    /**
+     * System property overriding the number of directories renamed concurrently
+     */
+    public static final String THREADS_PROPERTY = "metamorphosis.rename.threads";
+
+    /**
+     * Renames are bound by metadata latency (notably on network filesystems) rather than CPU
+     */
+    private static final int DEFAULT_THREADS = 8;
+
+    /**
+     * One planned move. A move whose source and target are the same only sets the file's dates
+     */
+    public static class Move {
+        private final Path source;
+        private final Path target;
+        private final Instant dateTaken;
+        private final long size;
+        private final long lastModified;
+        private final long creationTime;
+
+        /**
+         * @param source    current name
+         * @param target    new name
+         * @param dateTaken date to give the file (null to leave its dates alone)
+         * @param attrs     the source's attributes (null when the source is created by an earlier move)
+         * @param size      the file's size
+         */
+        public Move(Path source, Path target, Instant dateTaken, BasicFileAttributes attrs, long size) {
+            this(source, target, dateTaken, size,
+                    (attrs != null) ? attrs.lastModifiedTime().toMillis() : NONE,
+                    (attrs != null) ? attrs.creationTime().toMillis() : NONE);
+        }
+
+        /**
+         * @param lastModified original last modified time in milliseconds (Long.MIN_VALUE if unknown)
+         * @param creationTime original creation time in milliseconds (Long.MIN_VALUE if unknown)
+         */
+        public Move(Path source, Path target, Instant dateTaken, long size, long lastModified, long creationTime) {
+            this.source = source.toAbsolutePath();
+            this.target = target.toAbsolutePath();
+            this.dateTaken = dateTaken;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.creationTime = creationTime;
+        }
+
+        public Path getSource() {
+            return source;
+        }
+
+        public Path getTarget() {
+            return target;
+        }
+
+        boolean isRename() {
+            return !source.equals(target);
+        }
+    }
+
+    private final Path journalFile;
+
+    private final List<Move> moves;
+
+    /**
+     * Per move: PLAN (pending), DONE, FAILED or UNDONE
+     */
+    private final byte[] states;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer pending = ByteBuffer.allocate(1 << 20);
+
+    private int unsynced = 0;
+
+    private final AtomicInteger datesWritten = new AtomicInteger();
+
+    private final AtomicInteger datesSkipped = new AtomicInteger();
+
+    private boolean complete;
+
+    /**
+     * True when opened after an earlier run: its pending moves may have happened without being recorded
+     */
+    private final boolean resuming;
+
+    private RenameJournal(Path journalFile, List<Move> moves, byte[] states, FileChannel channel, boolean complete,
+                          boolean resuming) {
+        this.journalFile = journalFile;
+        this.moves = moves;
+        this.states = states;
+        this.channel = channel;
+        this.complete = complete;
+        this.resuming = resuming;
+    }
+
+    /**
+     * Write a new plan (replacing any earlier journal) and make it durable
+     *
+     * @param dir   root of the renamed directory
+     * @param moves moves, in execution order
+     * @return the journal, ready to execute
+     */
+    public static RenameJournal create(Path dir, List<Move> moves) throws IOException {
+        Path journalFile = dir.resolve(DEFAULT_FILE_NAME);
+        FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        RenameJournal journal = new RenameJournal(journalFile, new ArrayList<>(moves), new byte[moves.size()],
+                channel, false, false);
+        journal.pending.putInt(MAGIC);
+        for (int seq = 0; seq < moves.size(); seq++) {
+            journal.appendPlan(seq, moves.get(seq));
+            journal.states[seq] = PLAN;
+        }
+        journal.append(PLANNED, moves.size());
+        journal.sync();
+        LOG.info("Rename journal written [{}] [moves={}]", journalFile, moves.size());
+        return journal;
+    }
+
+    /**
+     * Open the journal left by an earlier run
+     *
+     * @param dir root of the renamed directory
+     * @return the journal, or null if there is none (or its plan was never completely written)
+     */
+    public static RenameJournal open(Path dir) throws IOException {
+        Path journalFile = dir.resolve(DEFAULT_FILE_NAME);
+        if (!Files.exists(journalFile)) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // keep reading
+        }
+        buffer.flip();
+
+        List<Move> moves = new ArrayList<>();
+        List<Byte> outcomes = new ArrayList<>();
+        List<Integer> outcomeSeqs = new ArrayList<>();
+        boolean planned = false;
+        boolean complete = false;
+        long valid = 0;
+        CRC32 crc = new CRC32();
+        try {
+            if (buffer.getInt() != MAGIC) {
+                LOG.error("Not a rename journal [{}]", journalFile);
+                channel.close();
+                return null;
+            }
+            valid = buffer.position();
+            while (buffer.remaining() >= Integer.BYTES) {
+                int length = buffer.getInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH || buffer.remaining() < length + Integer.BYTES) {
+                    break;
+                }
+                ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                buffer.position(buffer.position() + length);
+                if ((int) crc.getValue() != buffer.getInt()) {
+                    break;
+                }
+                byte type = payload.get();
+                int seq = payload.getInt();
+                if (type == PLAN) {
+                    moves.add(decodeMove(payload));
+                } else if (type == PLANNED) {
+                    planned = true;
+                } else if (type == COMPLETE) {
+                    complete = true;
+                } else {
+                    outcomes.add(type);
+                    outcomeSeqs.add(seq);
+                }
+                valid = buffer.position();
+            }
+        } catch (BufferUnderflowException ex) {
+            LOG.warn("Malformed rename journal record at offset {}", valid);
+        }
+        if (!planned) {
+            // Crashed while planning: nothing was renamed
+            LOG.warn("Rename journal [{}] holds an incomplete plan; ignoring it", journalFile);
+            channel.close();
+            return null;
+        }
+        if (channel.size() > valid) {
+            LOG.warn("Discarding torn tail of rename journal [{}] at offset {}", journalFile, valid);
+            channel.truncate(valid);
+        }
+        channel.position(valid);
+
+        byte[] states = new byte[moves.size()];
+        Arrays.fill(states, PLAN);
+        for (int i = 0; i < outcomes.size(); i++) {
+            states[outcomeSeqs.get(i)] = outcomes.get(i);
+        }
+        return new RenameJournal(journalFile, moves, states, channel, complete, true);
+    }
+
+    /**
+     * @return true if every move has been attempted
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the number of moves not yet attempted
+     */
+    public int getPendingCount() {
+        int count = 0;
+        for (byte state : states) {
+            if (state == PLAN) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return true if the move with the given sequence number (its index in the plan) has been performed
+     */
+    public boolean isDone(int seq) {
+        return states[seq] == DONE;
+    }
+
+    /**
+     * Perform every move not yet attempted, with directories renamed concurrently (see THREADS_PROPERTY)
+     *
+     * @return the number of moves that failed
+     */
+    public int execute() throws IOException {
+        return execute(Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS));
+    }
+
+    /**
+     * Perform every move not yet attempted. Moves are partitioned by directory: each directory's moves run in plan
+     * order (which keeps chains and cycles safe), while up to the given number of directories run at once
+     *
+     * @param threads maximum number of directories renamed concurrently
+     * @return the number of moves that failed
+     */
+    public int execute(int threads) throws IOException {
+        long start = System.nanoTime();
+        Map<Path, List<Integer>> partitions = new LinkedHashMap<>();
+        for (int seq = 0; seq < moves.size(); seq++) {
+            if (states[seq] == PLAN) {
+                partitions.computeIfAbsent(moves.get(seq).source.getParent(), d -> new ArrayList<>()).add(seq);
+            }
+        }
+
+        int failed = 0;
+        int moved = 0;
+        if (threads <= 1 || partitions.size() <= 1) {
+            for (Map.Entry<Path, List<Integer>> partition : partitions.entrySet()) {
+                failed += executePartition(partition.getKey(), partition.getValue());
+                moved += partition.getValue().size();
+            }
+        } else {
+            ExecutorService executor = newExecutor(Math.min(threads, partitions.size()));
+            try {
+                List<Future<Integer>> results = new ArrayList<>(partitions.size());
+                for (Map.Entry<Path, List<Integer>> partition : partitions.entrySet()) {
+                    results.add(executor.submit(() -> executePartition(partition.getKey(), partition.getValue())));
+                    moved += partition.getValue().size();
+                }
+                IOException error = null;
+                for (Future<Integer> result : results) {
+                    try {
+                        failed += getUninterruptibly(result);
+                    } catch (ExecutionException ex) {
+                        if (!(ex.getCause() instanceof IOException)) {
+                            throw new IllegalStateException(ex.getCause());
+                        }
+                        error = (IOException) ex.getCause();
+                    }
+                }
+                if (error != null) {
+                    // The journal could not be written: its outcomes are incomplete, so resume on the next run
+                    throw error;
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+        append(COMPLETE, moves.size());
+        sync();
+        complete = true;
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        LOG.info("Rename journal executed [moves={} failed={} directories={} threads={} datesWritten={} " +
+                        "datesUnchanged={} elapsedMillis={} movesPerSecond={}]", moved, failed, partitions.size(), threads,
+                datesWritten.get(), datesSkipped.get(), elapsedMillis, moved * 1000L / Math.max(1, elapsedMillis));
+        return failed;
+    }
+
+    /**
+     * Perform one directory's moves, in plan order
+     *
+     * @return the number of moves that failed
+     */
+    private int executePartition(Path dir, List<Integer> seqs) throws IOException {
+        long start = System.nanoTime();
+        int failed = 0;
+        for (int seq : seqs) {
+            boolean ok = resuming ? resume(moves.get(seq)) : perform(moves.get(seq));
+            record(seq, ok ? DONE : FAILED);
+            if (!ok) {
+                failed++;
+            }
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        LOG.info(" Renamed [{}] [moves={} failed={} elapsedMillis={} movesPerSecond={}]", dir, seqs.size(), failed,
+                elapsedMillis, seqs.size() * 1000L / Math.max(1, elapsedMillis));
+        return failed;
+    }
+
+    private synchronized void record(int seq, byte state) throws IOException {
+        states[seq] = state;
+        append(state, seq);
+    }
+
+    private static int getUninterruptibly(Future<Integer> result) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (InterruptedException ex) {
+                    // Renames in flight must finish and be recorded before the journal is closed
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        AtomicInteger threadId = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "rename-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(threads, factory);
+    }
+
+    /**
+     * Undo every completed move, latest first, restoring the original names and file times
+     *
+     * @return the number of moves that could not be undone
+     */
+    public int rollback() throws IOException {
+        int failed = 0;
+        for (int seq = moves.size() - 1; seq >= 0; seq--) {
+            if (states[seq] != DONE) {
+                continue;
+            }
+            Move move = moves.get(seq);
+            try {
+                if (move.isRename()) {
+                    Files.move(move.target, move.source);
+                    relocate(move.target, move.source);
+                }
+                if (move.lastModified != NONE) {
+                    Files.getFileAttributeView(move.source, BasicFileAttributeView.class).setTimes(
+                            FileTime.fromMillis(move.lastModified), null, FileTime.fromMillis(move.creationTime));
+                }
+                states[seq] = UNDONE;
+                append(UNDONE, seq);
+            } catch (IOException ex) {
+                LOG.error("ROLLBACK FAILED: [{}] to [{}]", move.target, move.source, ex);
+                failed++;
+            }
+        }
+        sync();
+        LOG.info("Rename journal rolled back [failed={}]", failed);
+        return failed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        channel.close();
+    }
+
+    /**
+     * Move a file, trusting the plan (no checks beyond those the move itself makes)
+     */
+    private boolean perform(Move move) {
+        syncDates(move.source, move);
+        if (move.isRename()) {
+            try {
+                // Never replaces an existing file
+                Files.move(move.source, move.target);
+            } catch (IOException ex) {
+                LOG.error("FAILED: Rename failed for [{}] to [{}]: {}", move.source, move.target, ex.toString());
+                return false;
+            }
+        }
+        relocate(move.source, move.target);
+        return true;
+    }
+
+    /**
+     * Set the file's dates, unless its times (as read by the scan) already match
+     */
+    private void syncDates(Path path, Move move) {
+        if (move.dateTaken == null) {
+            return;
+        }
+        if (move.lastModified != NONE && FileMetadata.isFileDate(move.creationTime, move.lastModified, move.dateTaken)) {
+            datesSkipped.incrementAndGet();
+        } else {
+            FileMetadata.setFileDate(path.toFile(), move.dateTaken);
+            datesWritten.incrementAndGet();
+        }
+    }
+
+    /**
+     * Redo a move after a restart, unless it already happened
+     */
+    private boolean resume(Move move) {
+        if (!move.isRename() || isPlannedFile(move.source, move)) {
+            return perform(move);
+        }
+        if (isPlannedFile(move.target, move)) {
+            LOG.debug("Already moved [{}] to [{}]", move.source, move.target);
+            syncDates(move.target, move);
+            relocate(move.source, move.target);
+            return true;
+        }
+        LOG.error("FAILED: Cannot resume move of [{}] to [{}]: file not found", move.source, move.target);
+        return false;
+    }
+
+    /**
+     * @return true if path holds the move's file: the planned size, and its original or planned modified time
+     */
+    private static boolean isPlannedFile(Path path, Move move) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            long modified = attrs.lastModifiedTime().toMillis();
+            return attrs.size() == move.size && (move.lastModified == NONE || modified == move.lastModified ||
+                    (move.dateTaken != null && modified == move.dateTaken.toEpochMilli()));
+        } catch (NoSuchFileException ex) {
+            return false;
+        } catch (IOException ex) {
+            LOG.error("Unable to read attributes of {}", path, ex);
+            return false;
+        }
+    }
+
+    private static void relocate(Path source, Path target) {
+        MetadataCache cache = FileInfo.getMetadataCache();
+        if (cache != null) {
+            cache.relocate(source, target);
+        }
+    }
+
+    // Records: length, payload, CRC32(payload). Payload: type, seq, [move]
+
+    private void appendPlan(int seq, Move move) throws IOException {
+        byte[] source = move.source.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] target = move.target.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(1 + Integer.BYTES + Short.BYTES * 2 + source.length + target.length +
+                Long.BYTES * 4 + Integer.BYTES);
+        payload.put(PLAN).putInt(seq);
+        payload.putShort((short) source.length).put(source);
+        payload.putShort((short) target.length).put(target);
+        payload.putLong(move.size).putLong(move.lastModified).putLong(move.creationTime);
+        if (move.dateTaken != null) {
+            payload.putLong(move.dateTaken.getEpochSecond()).putInt(move.dateTaken.getNano());
+        } else {
+            payload.putLong(NONE).putInt(0);
+        }
+        write(payload.array());
+    }
+
+    private static Move decodeMove(ByteBuffer payload) {
+        Path source = Paths.get(getString(payload));
+        Path target = Paths.get(getString(payload));
+        long size = payload.getLong();
+        long lastModified = payload.getLong();
+        long creationTime = payload.getLong();
+        long epochSecond = payload.getLong();
+        int nano = payload.getInt();
+        Instant dateTaken = (epochSecond != NONE) ? Instant.ofEpochSecond(epochSecond, nano) : null;
+        return new Move(source, target, dateTaken, size, lastModified, creationTime);
+    }
+
+    private synchronized void append(byte type, int seq) throws IOException {
+        write(ByteBuffer.allocate(1 + Integer.BYTES).put(type).putInt(seq).array());
+        if (++unsynced >= SYNC_EVERY) {
+            sync();
+        }
+    }
+
+    private void write(byte[] payload) throws IOException {
+        if (payload.length > MAX_RECORD_LENGTH) {
+            throw new IOException("Rename journal record too long");
+        }
+        if (pending.remaining() < payload.length + Integer.BYTES * 2) {
+            flush();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        pending.putInt(payload.length).put(payload).putInt((int) crc.getValue());
+    }
+
+    private void flush() throws IOException {
+        pending.flip();
+        while (pending.hasRemaining()) {
+            channel.write(pending);
+        }
+        pending.clear();
+    }
+
+    private synchronized void sync() throws IOException {
+        flush();
+        channel.force(false);
+        unsynced = 0;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
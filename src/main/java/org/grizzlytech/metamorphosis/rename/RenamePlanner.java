@@ -0,0 +1,203 @@
+package org.grizzlytech.metamorphosis.rename;
+
+import org.grizzlytech.metamorphosis.FileInfo;
+import org.grizzlytech.metamorphosis.FileTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Plan a rename entirely in memory, so that executing it needs no exists() checks and no second pass.
+ * <p>
+ * Each directory is listed once. Every file gets its final (positional) name up front; only a name held by a file
+ * outside the rename forces an index suffix. As target names are distinct, the moves form a partial permutation:
+ * chains (each file waiting for the next to vacate its target) and cycles. Chains are ordered from their free end;
+ * each cycle is broken by moving one of its files to a temporary name, so no file moves more than twice.
+ * <p>
+ * Files never change directory, so each directory is planned on its own, holding only that directory's names.
+ */
+public class RenamePlanner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenamePlanner.class);
+
+    private static final String TEMPORARY_SUFFIX = ".renaming";
+
+    /**
+     * Plan the rename of files whose positions are set, setting each file's target to its final name
+     *
+     * @param files  files to rename
+     * @param prefix file name prefix, for example "IMG"
+     * @return the moves, in a safe execution order (every file appears, those keeping their name as date-only moves)
+     */
+    public static List<RenameJournal.Move> plan(FileInfo[] files, String prefix) {
+        FileTable table = FileTable.of(files);
+        int[] order = new int[files.length];
+        Arrays.setAll(order, i -> i);
+        List<RenameJournal.Move> moves = plan(table, order, prefix);
+        for (int row = 0; row < files.length; row++) {
+            files[row].setTargetFile(table.getTargetFile(row));
+        }
+        return moves;
+    }
+
+    /**
+     * Plan the rename of a table's files, whose positions are set, recording each row's target in the table
+     *
+     * @param table  files to rename
+     * @param order  rows in date taken order (within a directory, targets are assigned in this order)
+     * @param prefix file name prefix, for example "IMG"
+     * @return the moves, in a safe execution order (every file appears, those keeping their name as date-only moves)
+     */
+    public static List<RenameJournal.Move> plan(FileTable table, int[] order, String prefix) {
+        // Group the rows by directory, keeping their order (a counting sort on directory ID)
+        int[] start = new int[table.getDirectoryCount() + 1];
+        for (int row : order) {
+            start[table.getDirectoryId(row) + 1]++;
+        }
+        for (int d = 0; d < table.getDirectoryCount(); d++) {
+            start[d + 1] += start[d];
+        }
+        int[] grouped = new int[order.length];
+        int[] fill = start.clone();
+        for (int row : order) {
+            grouped[fill[table.getDirectoryId(row)]++] = row;
+        }
+
+        List<RenameJournal.Move> moves = new ArrayList<>(order.length);
+        int[] counts = new int[2]; // suffixed, cycles
+        for (int d = 0; d < table.getDirectoryCount(); d++) {
+            if (start[d] < start[d + 1]) {
+                planDirectory(table, Arrays.copyOfRange(grouped, start[d], start[d + 1]), prefix, moves, counts);
+            }
+        }
+        LOG.info("Rename planned [directories={} moves={} suffixed={} cycles={}]",
+                table.getDirectoryCount(), moves.size(), counts[0], counts[1]);
+        return moves;
+    }
+
+    private static void planDirectory(FileTable table, int[] rows, String prefix, List<RenameJournal.Move> moves,
+                                      int[] counts) {
+        File dir = table.getDirectory(rows[0]);
+        Set<String> listing = list(dir);
+        String[] sources = new String[rows.length];
+        Map<String, Integer> bySource = new HashMap<>(rows.length * 2);
+        for (int i = 0; i < rows.length; i++) {
+            sources[i] = table.getName(rows[i]);
+            bySource.put(sources[i], i);
+        }
+
+        // Final names: avoid names held by files outside the rename, and names already planned
+        Set<String> taken = new HashSet<>(rows.length * 2);
+        String[] targets = new String[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            int index = 0;
+            String target = table.getRelativeName(rows[i], prefix, index);
+            while (!target.equals(sources[i]) && (taken.contains(target) ||
+                    (listing.contains(target) && !bySource.containsKey(target)))) {
+                target = table.getRelativeName(rows[i], prefix, ++index);
+            }
+            if (index > 0) {
+                counts[0]++;
+            }
+            taken.add(target);
+            targets[i] = target;
+            table.setTarget(rows[i], prefix, index);
+        }
+
+        // Each moving file waits on the file (if any) currently holding its target
+        boolean[] moving = new boolean[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            moving[i] = !targets[i].equals(sources[i]);
+        }
+        int[] blocker = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            Integer holder = moving[i] ? bySource.get(targets[i]) : null;
+            blocker[i] = (holder != null && moving[holder]) ? holder : -1;
+        }
+
+        boolean[] scheduled = new boolean[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            if (!moving[i]) {
+                moves.add(move(table, rows[i], new File(dir, sources[i]), new File(dir, sources[i]), true));
+                scheduled[i] = true;
+            }
+        }
+
+        boolean[] onPath = new boolean[rows.length];
+        List<Integer> path = new ArrayList<>();
+        for (int i = 0; i < rows.length; i++) {
+            if (scheduled[i]) {
+                continue;
+            }
+            // Follow the files blocking each other until reaching a free target (or one vacated earlier) or a cycle
+            path.clear();
+            int j = i;
+            while (j != -1 && !scheduled[j] && !onPath[j]) {
+                onPath[j] = true;
+                path.add(j);
+                j = blocker[j];
+            }
+            if (j != -1 && onPath[j]) {
+                // Cycle (j is always path[0], as no two files share a target): park j, move the rest, then place j
+                counts[1]++;
+                File temporary = new File(dir, temporaryName(targets[j], listing, taken));
+                File target = new File(dir, targets[j]);
+                moves.add(move(table, rows[j], new File(dir, sources[j]), temporary, true));
+                for (int p = path.size() - 1; p > 0; p--) {
+                    int k = path.get(p);
+                    moves.add(move(table, rows[k], new File(dir, sources[k]), new File(dir, targets[k]), true));
+                }
+                moves.add(move(table, rows[j], temporary, target, false));
+            } else {
+                // Chain: the last file's target is free, so move from the end back
+                for (int p = path.size() - 1; p >= 0; p--) {
+                    int k = path.get(p);
+                    moves.add(move(table, rows[k], new File(dir, sources[k]), new File(dir, targets[k]), true));
+                }
+            }
+            for (int index : path) {
+                onPath[index] = false;
+                scheduled[index] = true;
+            }
+        }
+    }
+
+    /**
+     * @param first true for the file's first move (which sets its dates); false for a move out of a temporary name
+     */
+    private static RenameJournal.Move move(FileTable table, int row, File source, File target, boolean first) {
+        return first ?
+                new RenameJournal.Move(source.toPath(), target.toPath(), table.getDateTaken(row),
+                        table.getFileLength(row), table.getLastModified(row), table.getCreationTime(row)) :
+                new RenameJournal.Move(source.toPath(), target.toPath(), null, null, table.getFileLength(row));
+    }
+
+    /**
+     * @return a name in the directory that is neither present nor planned
+     */
+    private static String temporaryName(String target, Set<String> listing, Set<String> taken) {
+        String name = target + TEMPORARY_SUFFIX;
+        for (int n = 1; listing.contains(name) || taken.contains(name); n++) {
+            name = target + TEMPORARY_SUFFIX + n;
+        }
+        taken.add(name);
+        return name;
+    }
+
+    private static Set<String> list(File dir) {
+        String[] names = dir.list();
+        if (names == null) {
+            LOG.error("Unable to list [{}]", dir);
+            return new HashSet<>();
+        }
+        return new HashSet<>(Arrays.asList(names));
+    }
+}
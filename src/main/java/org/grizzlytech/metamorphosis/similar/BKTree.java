@@ -0,0 +1,99 @@
+package org.grizzlytech.metamorphosis.similar;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * BK-tree over 64-bit hashes under Hamming distance, for finding every hash within distance k of a query without
+ * comparing against all of them. Each child is labelled with its distance from its parent; by the triangle
+ * inequality a search only descends into children whose label lies within k of the query's distance to the parent.
+ * <p>
+ * Nodes are held in parallel arrays (children as first-child/next-sibling lists), about 20 bytes per hash, and each
+ * hash is identified by its insertion ID.
+ */
+public class BKTree {
+
+    private static final int NONE = -1;
+
+    private long[] hashes = new long[64];
+
+    private int[] firstChild = new int[64];
+
+    private int[] nextSibling = new int[64];
+
+    /**
+     * Distance from the node to its parent
+     */
+    private byte[] label = new byte[64];
+
+    private int size;
+
+    /**
+     * Add a hash
+     *
+     * @return its ID (IDs are assigned in insertion order, from 0; the first hash is the root)
+     */
+    public int add(long hash) {
+        int id = size;
+        if (id == hashes.length) {
+            hashes = Arrays.copyOf(hashes, id * 2);
+            firstChild = Arrays.copyOf(firstChild, id * 2);
+            nextSibling = Arrays.copyOf(nextSibling, id * 2);
+            label = Arrays.copyOf(label, id * 2);
+        }
+        hashes[id] = hash;
+        firstChild[id] = NONE;
+        nextSibling[id] = NONE;
+        size++;
+        int node = (id > 0) ? 0 : NONE;
+        while (node != NONE) {
+            int d = PerceptualHash.distance(hashes[node], hash);
+            int child = firstChild[node];
+            while (child != NONE && label[child] != d) {
+                child = nextSibling[child];
+            }
+            if (child == NONE) {
+                label[id] = (byte) d;
+                nextSibling[id] = firstChild[node];
+                firstChild[node] = id;
+            }
+            node = child;
+        }
+        return id;
+    }
+
+    public long getHash(int id) {
+        return hashes[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Visit the ID of every hash within maxDistance of the query (including an equal hash)
+     */
+    public void search(long query, int maxDistance, IntConsumer consumer) {
+        if (size == 0) {
+            return;
+        }
+        int[] pending = new int[64];
+        int top = 0;
+        pending[top++] = 0;
+        while (top > 0) {
+            int node = pending[--top];
+            int d = PerceptualHash.distance(hashes[node], query);
+            if (d <= maxDistance) {
+                consumer.accept(node);
+            }
+            for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+                if (Math.abs(label[child] - d) <= maxDistance) {
+                    if (top == pending.length) {
+                        pending = Arrays.copyOf(pending, top * 2);
+                    }
+                    pending[top++] = child;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.grizzlytech.metamorphosis.similar;
+
+import org.grizzlytech.metamorphosis.imaging.jpeg.JpegExifReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * 64-bit difference hash (dHash) of an image: the image is reduced to 9x8 grey levels and each bit records whether
+ * a cell is brighter than its right-hand neighbour. Re-saved, resized or re-compressed copies of a photo hash to
+ * the same or nearby values (compare with Hamming distance).
+ * <p>
+ * Where a JPEG carries an EXIF thumbnail the hash is taken from that, so the full image is never read or decoded;
+ * otherwise the image is decoded with subsampling down to roughly thumbnail size. Reading (readImage) and decoding
+ * (hashOf(byte[])) are separate steps, so that callers can run them on I/O and CPU threads respectively.
+ */
+public class PerceptualHash {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PerceptualHash.class);
+
+    private static final int WIDTH = 9;
+    private static final int HEIGHT = 8;
+
+    /**
+     * Approximate width decoded when there is no thumbnail to work from
+     */
+    private static final int DECODE_WIDTH = 256;
+
+    /**
+     * @param path image file (JPEG or any format ImageIO reads)
+     * @return the hash, or null if the image could not be read
+     */
+    public static Long hashOf(Path path) {
+        byte[] image = readImage(path);
+        return (image != null) ? hashOf(image) : null;
+    }
+
+    /**
+     * Read the encoded image to hash: the I/O half of hashOf, leaving the decode (the CPU half) to hashOf(byte[])
+     *
+     * @param path image file (JPEG or any format ImageIO reads)
+     * @return the file's EXIF thumbnail where it has one, otherwise the whole file; null if it could not be read
+     */
+    public static byte[] readImage(Path path) {
+        byte[] thumbnail = JpegExifReader.readThumbnail(path);
+        if (thumbnail != null && thumbnail.length > 2 && (thumbnail[0] & 0xff) == 0xFF
+                && (thumbnail[1] & 0xff) == 0xD8) {
+            return thumbnail;
+        }
+        try {
+            return Files.readAllBytes(path);
+        } catch (IOException | RuntimeException ex) {
+            LOG.debug("Unable to read {}: {}", path, ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * @param image encoded image (see readImage)
+     * @return the hash, or null if the image could not be decoded
+     */
+    public static Long hashOf(byte[] image) {
+        try {
+            BufferedImage decoded = decodeSubsampled(image);
+            return (decoded != null) ? dHash(decoded) : null;
+        } catch (IOException | RuntimeException ex) {
+            LOG.debug("Unable to hash image: {}", ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * @return the dHash of the image
+     */
+    public static long dHash(BufferedImage image) {
+        double[] grey = reduce(image);
+        long hash = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH - 1; x++) {
+                hash <<= 1;
+                if (grey[y * WIDTH + x] > grey[y * WIDTH + x + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return the number of differing bits
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Average the luminance of the image over a WIDTH x HEIGHT grid (area averaging, so no detail is skipped)
+     */
+    private static double[] reduce(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        double[] sums = new double[WIDTH * HEIGHT];
+        int[] counts = new int[WIDTH * HEIGHT];
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            image.getRGB(0, y, w, 1, row, 0, w);
+            int cellRow = (int) ((long) y * HEIGHT / h) * WIDTH;
+            for (int x = 0; x < w; x++) {
+                int rgb = row[x];
+                int cell = cellRow + (int) ((long) x * WIDTH / w);
+                sums[cell] += 0.299 * ((rgb >> 16) & 0xff) + 0.587 * ((rgb >> 8) & 0xff) + 0.114 * (rgb & 0xff);
+                counts[cell]++;
+            }
+        }
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] = (counts[i] > 0) ? sums[i] / counts[i] : 0;
+        }
+        return sums;
+    }
+
+    /**
+     * Decode the image, subsampled down to roughly DECODE_WIDTH (a thumbnail is decoded whole)
+     */
+    private static BufferedImage decodeSubsampled(byte[] image) throws IOException {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(image))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int step = Math.max(1, reader.getWidth(0) / DECODE_WIDTH);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.grizzlytech.metamorphosis.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * A thread-safe Index: values may be inserted from many threads at once.
+ * <p>
+ * Insertion order is not meaningful under concurrency, so collisions are returned ordered by the comparator given
+ * at construction (keeping reports stable from run to run).
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class ConcurrentIndex<K, V> {
+
+    private final ConcurrentHashMap<K, List<V>> entries = new ConcurrentHashMap<>();
+
+    private final Comparator<? super V> order;
+
+    public ConcurrentIndex(Comparator<? super V> order) {
+        this.order = order;
+    }
+
+    /**
+     * Insert a new Key, Value pair into the Index. Each value is expected to be inserted once
+     *
+     * @param k the key
+     * @param v the value
+     */
+    public void insert(K k, V v) {
+        entries.compute(k, (key, values) -> {
+            if (values == null) {
+                values = new ArrayList<>(2);
+            }
+            values.add(v);
+            return values;
+        });
+    }
+
+    /**
+     * @return the number of distinct keys
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Visit each key with the values inserted for it
+     */
+    public void forEach(BiConsumer<? super K, ? super List<V>> action) {
+        entries.forEach(action);
+    }
+
+    /**
+     * @return all values that collided (i.e, two of more values had the same key)
+     */
+    public List<V> getCollisions() {
+        return getGroupedCollisions().stream().flatMap(Collection::stream).collect(Collectors.toList());
+    }
+
+    /**
+     * @return all values that collided, grouped (as lists) by key
+     */
+    public List<List<V>> getGroupedCollisions() {
+        // Order within and across groups, so the result does not depend on thread scheduling
+        Comparator<List<V>> byFirst = Comparator.comparing(group -> group.get(0), order);
+        return entries.values().stream().filter(v -> v.size() > 1)
+                .map(group -> {
+                    List<V> sorted = new ArrayList<>(group);
+                    sorted.sort(order);
+                    return sorted;
+                })
+                .sorted(byFirst)
+                .collect(Collectors.toList());
+    }
+}
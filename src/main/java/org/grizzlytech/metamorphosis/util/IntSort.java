@@ -0,0 +1,61 @@
+package org.grizzlytech.metamorphosis.util;
+
+/**
+ * Stable sort of an int array (typically row numbers) under a comparator, without boxing
+ */
+public class IntSort {
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /**
+     * Compares two ints, as Comparator does for objects
+     */
+    @FunctionalInterface
+    public interface IntComparator {
+        int compare(int a, int b);
+    }
+
+    /**
+     * Sort values in place (a merge sort, so equal values keep their order)
+     */
+    public static void sort(int[] values, IntComparator comparator) {
+        if (values.length < 2) {
+            return;
+        }
+        int[] buffer = values.clone();
+        mergeSort(buffer, values, 0, values.length, comparator);
+    }
+
+    /**
+     * Sort src[from, to) into dst[from, to); both must hold the same values on entry
+     */
+    private static void mergeSort(int[] src, int[] dst, int from, int to, IntComparator comparator) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int value = dst[i];
+                int j = i - 1;
+                while (j >= from && comparator.compare(dst[j], value) > 0) {
+                    dst[j + 1] = dst[j];
+                    j--;
+                }
+                dst[j + 1] = value;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        // Sort each half of dst into src, then merge the halves back into dst
+        mergeSort(dst, src, from, mid, comparator);
+        mergeSort(dst, src, mid, to, comparator);
+        if (comparator.compare(src[mid - 1], src[mid]) <= 0) {
+            System.arraycopy(src, from, dst, from, to - from);
+            return;
+        }
+        for (int i = from, p = from, q = mid; i < to; i++) {
+            if (q >= to || (p < mid && comparator.compare(src[p], src[q]) <= 0)) {
+                dst[i] = src[p++];
+            } else {
+                dst[i] = src[q++];
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.grizzlytech.metamorphosis.util;
+
+import java.util.Arrays;
+
+/**
+ * An Index specialised for primitive long keys and int row IDs (e.g. positions in a FileInfo array).
+ * <p>
+ * Keys live in an open addressing (linear probing) table; the rows sharing a key are chained through a single int
+ * array in insertion order. Nothing is boxed and nothing is allocated per insert, and collision groups are visited
+ * in place (see forEachCollision) rather than copied out. Each row is expected to be inserted once.
+ */
+public class LongIndex {
+
+    /**
+     * Visits one group of rows sharing a key: walk it with {@code for (int r = firstRow; r >= 0; r = nextRow(r))}
+     */
+    public interface GroupConsumer {
+        void accept(long key, int firstRow, int size);
+    }
+
+    private static final int NO_ROW = -1;
+
+    private static final float MAX_LOAD = 0.5f;
+
+    private long[] keys;
+
+    /**
+     * Per slot: first and last row with the slot's key, and the number of rows (0 marks a free slot)
+     */
+    private int[] heads;
+
+    private int[] tails;
+
+    private int[] sizes;
+
+    /**
+     * Per row: the next row with the same key
+     */
+    private int[] next;
+
+    private int keyCount;
+
+    private int rowCount;
+
+    public LongIndex(int expectedRows) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedRows / MAX_LOAD)) - 1) << 1;
+        allocateSlots(capacity);
+        next = new int[Math.max(16, expectedRows)];
+    }
+
+    /**
+     * Insert a row under a key. Rows with the same key are kept in insertion order
+     *
+     * @param key the key
+     * @param row non-negative row ID
+     */
+    public void insert(long key, int row) {
+        if (row < 0) {
+            throw new IllegalArgumentException("Row IDs must not be negative: " + row);
+        }
+        if (row >= next.length) {
+            int length = next.length;
+            next = Arrays.copyOf(next, Math.max(row + 1, length + (length >> 1)));
+        }
+        next[row] = NO_ROW;
+        int slot = find(key);
+        if (sizes[slot] == 0) {
+            keys[slot] = key;
+            heads[slot] = row;
+            keyCount++;
+        } else {
+            next[tails[slot]] = row;
+        }
+        tails[slot] = row;
+        sizes[slot]++;
+        rowCount++;
+        if (keyCount > keys.length * MAX_LOAD) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * @return the number of rows held under the key
+     */
+    public int size(long key) {
+        return sizes[find(key)];
+    }
+
+    /**
+     * @return the first row held under the key, or -1 if there is none
+     */
+    public int firstRow(long key) {
+        int slot = find(key);
+        return (sizes[slot] == 0) ? NO_ROW : heads[slot];
+    }
+
+    /**
+     * @return the next row with the same key as row, or -1 at the end of the group
+     */
+    public int nextRow(int row) {
+        return next[row];
+    }
+
+    /**
+     * Visit every group of two or more rows sharing a key
+     */
+    public void forEachCollision(GroupConsumer consumer) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (sizes[slot] > 1) {
+                consumer.accept(keys[slot], heads[slot], sizes[slot]);
+            }
+        }
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the approximate heap used by the index's arrays
+     */
+    public long getMemoryBytes() {
+        return (long) keys.length * (Long.BYTES + 3 * Integer.BYTES) + (long) next.length * Integer.BYTES;
+    }
+
+    /**
+     * @return the slot holding key, else the free slot where it belongs
+     */
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (sizes[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldHeads = heads;
+        int[] oldTails = tails;
+        int[] oldSizes = sizes;
+        allocateSlots(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldSizes[i] != 0) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                heads[slot] = oldHeads[i];
+                tails[slot] = oldTails[i];
+                sizes[slot] = oldSizes[i];
+            }
+        }
+    }
+
+    private void allocateSlots(int capacity) {
+        keys = new long[capacity];
+        heads = new int[capacity];
+        tails = new int[capacity];
+        sizes = new int[capacity];
+    }
+
+    /**
+     * Spread the key bits (packed keys differ mostly in their high and low bits)
+     */
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,185 @@
+package org.grizzlytech.metamorphosis.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Random access reads over a channel through a small reusable window.
+ * <p>
+ * Reads that fall inside the current window are served from memory; anything else refills the window with a single
+ * positional read. Headers and metadata structures tend to be clustered, so a few KB window typically serves a whole
+ * parse in one or two reads. Instances are not thread safe, but can be re-bound to another channel to avoid
+ * re-allocating the buffer (see bind).
+ */
+public class PositionalReader {
+
+    public static final int DEFAULT_WINDOW = 4096;
+
+    private final ByteBuffer window;
+
+    private SeekableByteChannel channel;
+
+    private long size;
+
+    private long windowStart = 0;
+
+    private long bytesRead = 0;
+
+    public PositionalReader(int windowSize) {
+        this.window = ByteBuffer.allocate(windowSize);
+    }
+
+    /**
+     * Point this reader at a new channel, discarding any buffered bytes
+     *
+     * @param channel channel to read
+     * @return this reader
+     */
+    public PositionalReader bind(SeekableByteChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.windowStart = 0;
+        this.bytesRead = 0;
+        this.window.clear().limit(0);
+        return this;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return bytes read from the channel since bind, useful for checking that a parse stayed header-only
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public int getByte(long position) throws IOException {
+        return window(position, 1).get(offset(position)) & 0xff;
+    }
+
+    public int getShort(long position, ByteOrder order) throws IOException {
+        return window(position, Short.BYTES).order(order).getShort(offset(position)) & 0xffff;
+    }
+
+    public long getInt(long position, ByteOrder order) throws IOException {
+        return window(position, Integer.BYTES).order(order).getInt(offset(position)) & 0xffffffffL;
+    }
+
+    public long getLong(long position, ByteOrder order) throws IOException {
+        return window(position, Long.BYTES).order(order).getLong(offset(position));
+    }
+
+    /**
+     * Copy bytes, reading around the window when the request is larger than it
+     */
+    public void getBytes(long position, byte[] dst, int offset, int length) throws IOException {
+        if (length > window.capacity()) {
+            readAt(ByteBuffer.wrap(dst, offset, length), position);
+        } else {
+            ByteBuffer buffer = window(position, length);
+            int start = offset(position);
+            for (int i = 0; i < length; i++) {
+                dst[offset + i] = buffer.get(start + i);
+            }
+        }
+    }
+
+    public byte[] getBytes(long position, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        getBytes(position, bytes, 0, length);
+        return bytes;
+    }
+
+    /**
+     * @return ASCII/UTF-8 text, stopping at the first NUL
+     */
+    public String getString(long position, int length) throws IOException {
+        byte[] bytes = getBytes(position, length);
+        int end = 0;
+        while (end < length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compare bytes at a position with an expected signature
+     */
+    public boolean matches(long position, byte[] expected) throws IOException {
+        if (position < 0 || position + expected.length > size) {
+            return false;
+        }
+        ByteBuffer buffer = window(position, expected.length);
+        int start = offset(position);
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read into a caller supplied buffer at an absolute position, bypassing the window
+     */
+    public void readAt(ByteBuffer dst, long position) throws IOException {
+        readFully(channel, dst, position);
+        bytesRead += dst.position();
+    }
+
+    /**
+     * Open a file for positional reads: a FileChannel on the default file system, else a StreamChannel (so a file
+     * inside a zip archive is read from its stream, not inflated whole or copied out first)
+     */
+    public static SeekableByteChannel openChannel(Path path) throws IOException {
+        if (path.getFileSystem() == FileSystems.getDefault()) {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        }
+        return new StreamChannel(path, Files.size(path));
+    }
+
+    /**
+     * Fill the buffer from the channel at an absolute position. FileChannel reads are positional (thread safe);
+     * other channels are positioned first
+     */
+    public static void readFully(SeekableByteChannel channel, ByteBuffer dst, long position) throws IOException {
+        long pos = position;
+        while (dst.hasRemaining()) {
+            int n = (channel instanceof FileChannel) ? ((FileChannel) channel).read(dst, pos) :
+                    channel.position(pos).read(dst);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of channel at " + pos);
+            }
+            pos += n;
+        }
+    }
+
+    private int offset(long position) {
+        return (int) (position - windowStart);
+    }
+
+    private ByteBuffer window(long position, int length) throws IOException {
+        if (position < 0 || position + length > size) {
+            throw new EOFException("Read of " + length + " bytes at " + position + " outside size " + size);
+        }
+        if (position < windowStart || position + length > windowStart + window.limit()) {
+            window.clear();
+            window.limit((int) Math.min(window.capacity(), size - position));
+            readFully(channel, window, position);
+            bytesRead += window.limit();
+            windowStart = position;
+        }
+        return window;
+    }
+}
@@ -0,0 +1,60 @@
+package org.grizzlytech.metamorphosis.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Classify the storage behind a FileStore, so I/O concurrency can suit the device
+ * (many readers for SSD/NVMe, one or two for spinning disks, which thrash when seeking between files).
+ */
+public class StorageDevices {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StorageDevices.class);
+
+    /**
+     * System property forcing every device to be treated as rotational (true) or solid state (false)
+     */
+    public static final String ROTATIONAL_PROPERTY = "metamorphosis.io.rotational";
+
+    private static final Path SYS_BLOCK = Paths.get("/sys/class/block");
+
+    /**
+     * @param store the file store
+     * @return true if the store is backed by a spinning disk. Where this cannot be determined (non-Linux platforms,
+     * network shares, device mapper volumes) the store is assumed to be solid state, unless ROTATIONAL_PROPERTY says
+     * otherwise
+     */
+    public static boolean isRotational(FileStore store) {
+        String override = System.getProperty(ROTATIONAL_PROPERTY);
+        if (override != null) {
+            return Boolean.parseBoolean(override);
+        }
+        // On Linux the store name is the block device, e.g. /dev/sda1
+        String name = store.name();
+        if (!name.startsWith("/dev/") || !Files.isDirectory(SYS_BLOCK)) {
+            return false;
+        }
+        Path device = SYS_BLOCK.resolve(name.substring("/dev/".length()));
+        try {
+            // A partition has no queue of its own: use its parent disk's
+            Path queue = device.resolve("queue");
+            if (!Files.isDirectory(queue) && Files.isSymbolicLink(device)) {
+                queue = device.toRealPath().getParent().resolve("queue");
+            }
+            Path rotational = queue.resolve("rotational");
+            boolean result = Files.exists(rotational) &&
+                    new String(Files.readAllBytes(rotational)).trim().equals("1");
+            LOG.debug("Storage device [store={} name={} rotational={}]", store, name, result);
+            return result;
+        } catch (IOException ex) {
+            LOG.debug("Unable to classify storage device [{}]: {}", name, ex.toString());
+            return false;
+        }
+    }
+}
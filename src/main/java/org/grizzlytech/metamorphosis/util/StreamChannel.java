@@ -0,0 +1,166 @@
+package org.grizzlytech.metamorphosis.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Read-only seekable channel over a file's input stream, for file systems (such as the zip provider) whose own
+ * channels are costly: the zip provider inflates a whole entry into memory, or copies it to a temporary file, before
+ * the first byte can be read.
+ * <p>
+ * Moving forward skips along the stream (for a stored zip entry, a seek; for a deflated one, inflating without
+ * keeping the output), and the stream is only opened on the first read, so reading a file's header costs its first
+ * few KB. Moving backward re-opens the stream, so the channel suits parsers that read mostly forward.
+ */
+public class StreamChannel implements SeekableByteChannel {
+
+    private static final int SCRATCH_SIZE = 64 * 1024;
+
+    private final Path path;
+
+    private final long size;
+
+    private InputStream in;
+
+    /**
+     * Position of the next byte the stream would return
+     */
+    private long streamPosition;
+
+    /**
+     * Position of the next read (may be ahead of, or behind, the stream)
+     */
+    private long position;
+
+    private byte[] scratch;
+
+    private boolean open = true;
+
+    /**
+     * @param path file to read
+     * @param size its size in bytes
+     */
+    public StreamChannel(Path path, long size) {
+        this.path = path;
+        this.size = size;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        seekStream();
+        int length = (int) Math.min(dst.remaining(), size - position);
+        int n;
+        if (dst.hasArray()) {
+            n = in.read(dst.array(), dst.arrayOffset() + dst.position(), length);
+            if (n > 0) {
+                dst.position(dst.position() + n);
+            }
+        } else {
+            n = in.read(scratch(), 0, Math.min(length, SCRATCH_SIZE));
+            if (n > 0) {
+                dst.put(scratch, 0, n);
+            }
+        }
+        if (n < 0) {
+            throw new EOFException("Stream shorter than its size " + size + " at " + position + " [" + path + "]");
+        }
+        position += n;
+        streamPosition += n;
+        return n;
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position " + newPosition);
+        }
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+
+    /**
+     * Bring the stream to the requested position: re-open it to move back, skip to move forward
+     */
+    private void seekStream() throws IOException {
+        if (in == null || position < streamPosition) {
+            if (in != null) {
+                in.close();
+            }
+            in = Files.newInputStream(path);
+            streamPosition = 0;
+        }
+        while (streamPosition < position) {
+            long skipped = in.skip(position - streamPosition);
+            if (skipped <= 0) {
+                // skip may stop short of the end; a read tells the end of the stream from a pause
+                int n = in.read(scratch(), 0, (int) Math.min(SCRATCH_SIZE, position - streamPosition));
+                if (n < 0) {
+                    throw new EOFException("Unable to skip to " + position + " [" + path + "]");
+                }
+                skipped = n;
+            }
+            streamPosition += skipped;
+        }
+    }
+
+    private byte[] scratch() {
+        if (scratch == null) {
+            scratch = new byte[SCRATCH_SIZE];
+        }
+        return scratch;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
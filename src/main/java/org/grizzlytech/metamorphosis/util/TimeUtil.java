@@ -5,6 +5,8 @@ import org.slf4j.LoggerFactory;
 
 import java.time.*;
 import java.time.temporal.ChronoUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Utility functions for comparing Instants
@@ -12,6 +14,14 @@ import java.time.temporal.ChronoUnit;
 public class TimeUtil {
     private static final Logger LOG = LoggerFactory.getLogger(TimeUtil.class);
 
+    /**
+     * Date/time text as found in EXIF and QuickTime metadata, e.g. "2018:07:31 17:03:03" or "2018-07-31T17:03:03"
+     */
+    private static final Pattern DATE_TIME = Pattern.compile(
+            "^(\\d{4})[:\\-.](\\d{2})[:\\-.](\\d{2})(?:[ T](\\d{2}):(\\d{2})(?::(\\d{2})(\\.\\d+)?)?)?");
+
+    private static final Pattern ZONE = Pattern.compile("(Z|[+-]\\d\\d:\\d\\d)$");
+
     public static boolean withinASecond(Instant time1, Instant time2) {
         final long PERIOD = 1000; // milliseconds per second
         final long ERROR = error(PERIOD); // milliseconds
@@ -73,7 +83,7 @@ public class TimeUtil {
     public static int compareDurationToPeriodOfMilliseconds(Instant time1, Instant time2, long millis, long error) {
         final Duration MILLIS = ChronoUnit.MILLIS.getDuration();
         int cmp = 0; // assume time difference is equal to the time period (+/- the error margin)
-        long delta = Duration.between(time1, time2).dividedBy(MILLIS);
+        long delta = Math.abs(Duration.between(time1, time2).dividedBy(MILLIS));
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("{} & {} & {} & {}", time1, time2, millis, error);
@@ -141,4 +151,39 @@ public class TimeUtil {
         final double margin = 0.1;
         return (long) (period * margin);
     }
+
+    /**
+     * Parse date/time text the same way metadata-extractor's Directory.getDate does: the time is taken as UTC
+     * unless the text ends with "Z" or a "+HH:MM" offset (so "+0100" is ignored), and fractional seconds are kept.
+     *
+     * @param text date/time text
+     * @return the instant, or null if the text is not a valid date
+     */
+    public static Instant parseDateTime(String text) {
+        if (text == null) {
+            return null;
+        }
+        String trimmed = text.trim();
+        Matcher m = DATE_TIME.matcher(trimmed);
+        if (!m.find()) {
+            return null;
+        }
+        try {
+            LocalDateTime ldt = LocalDateTime.of(
+                    Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)),
+                    (m.group(4) != null) ? Integer.parseInt(m.group(4)) : 0,
+                    (m.group(5) != null) ? Integer.parseInt(m.group(5)) : 0,
+                    (m.group(6) != null) ? Integer.parseInt(m.group(6)) : 0,
+                    (m.group(7) != null) ? (int) (Double.parseDouble(m.group(7)) * 1000) * 1_000_000 : 0);
+            ZoneOffset offset = ZoneOffset.UTC;
+            Matcher zone = ZONE.matcher(trimmed);
+            if (m.group(4) != null && zone.find()) {
+                offset = ZoneOffset.of(zone.group(1));
+            }
+            return ldt.toInstant(offset);
+        } catch (DateTimeException ex) {
+            LOG.debug("Invalid date/time [{}]", text);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,59 @@
+package org.grizzlytech.metamorphosis;
+
+import org.grizzlytech.metamorphosis.util.ConcurrentIndex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DigestExtractorTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void slowDeviceDoesNotHoldBackFastOne() throws IOException {
+        Path slow = Files.createDirectories(dir.resolve("slow"));
+        Path fast = Files.createDirectories(dir.resolve("fast"));
+        List<FileInfo> files = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            // Interleaved, as a walk over both devices would list them
+            files.add(new FileInfo(Files.write(slow.resolve("S" + i + ".JPG"), new byte[]{(byte) i}).toFile()));
+            files.add(new FileInfo(Files.write(fast.resolve("F" + i + ".JPG"), new byte[]{(byte) i}).toFile()));
+        }
+
+        // The slow device's files wait until every file on the fast device is done
+        CountDownLatch fastDone = new CountDownLatch(8);
+        AtomicInteger slowTimedOut = new AtomicInteger();
+        ConcurrentIndex<String, FileInfo> index = new ConcurrentIndex<>(FileInfo::compareTo);
+        try (DigestExtractor extractor = new DigestExtractor(2, 1, 2,
+                path -> path.getParent().getFileName().toString())) {
+            extractor.submitAll(files, info -> {
+                if (info.getSourcePath().startsWith(slow)) {
+                    try {
+                        if (!fastDone.await(10, TimeUnit.SECONDS)) {
+                            slowTimedOut.incrementAndGet();
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                } else {
+                    fastDone.countDown();
+                }
+                return info.getSourceFileName();
+            }, index);
+            extractor.awaitCompletion();
+        }
+        assertEquals(0, slowTimedOut.get());
+        assertEquals(16, index.size());
+    }
+}
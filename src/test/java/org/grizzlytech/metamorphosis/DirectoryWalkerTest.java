@@ -0,0 +1,101 @@
+package org.grizzlytech.metamorphosis;
+
+import org.grizzlytech.metamorphosis.test.TestUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectoryWalkerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void findsSupportedFilesConcurrentlyUpToMaxDepth() throws IOException {
+        for (int d = 0; d < 10; d++) {
+            Path sub = Files.createDirectories(dir.resolve("sub" + d).resolve("deeper"));
+            Files.write(sub.getParent().resolve("IMG_" + d + ".JPG"), new byte[d + 1]);
+            Files.write(sub.resolve("IMG_" + d + ".MOV"), new byte[d + 1]);
+        }
+        Files.write(dir.resolve("README"), new byte[1]);
+        Files.write(dir.resolve("notes.txt"), new byte[1]);
+        Files.write(dir.resolve("IMG_ROOT.PNG"), new byte[3]);
+
+        assertEquals(21, walk(new DirectoryWalker(4, Integer.MAX_VALUE)).size());
+        // Depth 2 lists the root and its subdirectories, but not the "deeper" directories
+        Queue<FileInfo> shallow = walk(new DirectoryWalker(4, 2));
+        assertEquals(11, shallow.size());
+        for (FileInfo info : shallow) {
+            // Sizes come from the walk's attributes
+            assertEquals(Files.size(info.getSourceFile().toPath()), info.getFileLength());
+        }
+    }
+
+    @Test
+    void scansZipArchiveInPlace() throws IOException {
+        byte[] jpeg = Arrays.copyOf(TestUtil.jpeg(TestUtil.exifTiff(ByteOrder.BIG_ENDIAN, "2018:07:31 17:03:03",
+                "2018:07:31 17:03:03")), 512 * 1024);
+        FileInfo library = new FileInfo(Files.write(Files.createDirectories(dir.resolve("library"))
+                .resolve("IMG_20180731_1000.JPG"), jpeg).toFile());
+        byte[] other = TestUtil.jpeg(TestUtil.exifTiff(ByteOrder.LITTLE_ENDIAN, "2019:01:02 03:04:05",
+                "2019:01:02 03:04:05"));
+        Path archive = dir.resolve("takeout.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive))) {
+            out.putNextEntry(new ZipEntry("Takeout/Photos/IMG_0001.JPG")); // deflated
+            out.write(jpeg);
+            ZipEntry stored = new ZipEntry("Takeout/Photos/2019/IMG_0002.JPG");
+            CRC32 crc = new CRC32();
+            crc.update(other);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(other.length);
+            stored.setCrc(crc.getValue());
+            out.putNextEntry(stored);
+            out.write(other);
+            out.putNextEntry(new ZipEntry("Takeout/Photos/IMG_0001.JPG.json"));
+            out.write("{}".getBytes());
+        }
+
+        try (FileSystem zip = FileSystems.newFileSystem(archive, (ClassLoader) null)) {
+            Queue<FileInfo> found = new ConcurrentLinkedQueue<>();
+            new DirectoryWalker(4, Integer.MAX_VALUE).walk(zip.getPath("/"), found::add);
+            assertEquals(2, found.size());
+            FileInfo[] files = new FileInfo[]{library, null, null};
+            for (FileInfo info : found) {
+                assertFalse(info.isLocal());
+                files[info.getSourceFileName().equals("IMG_0001.JPG") ? 1 : 2] = info;
+            }
+            DateTakenExtractor.extractAll(files);
+            assertEquals(library.getDateTaken(), files[1].getDateTaken());
+            assertEquals(Instant.parse("2019-01-02T03:04:05Z"), files[2].getDateTaken());
+            assertTrue(FileMetadata.getDisplayName(files[2].getSourcePath()).startsWith("jar:"));
+
+            // The archive copy of a library file is found by content, without extracting it
+            assertEquals(library.getDigest(), files[1].getDigest());
+            List<List<FileInfo>>[] duplicates = DuplicateFinder.findDuplicates(files);
+            assertEquals(1, duplicates[0].size());
+            assertTrue(duplicates[0].get(0).containsAll(List.of(library, files[1])));
+        }
+    }
+
+    private Queue<FileInfo> walk(DirectoryWalker walker) {
+        Queue<FileInfo> found = new ConcurrentLinkedQueue<>();
+        walker.walk(dir, found::add);
+        return found;
+    }
+}
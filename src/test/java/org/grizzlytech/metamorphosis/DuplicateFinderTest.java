@@ -0,0 +1,74 @@
+package org.grizzlytech.metamorphosis;
+
+import org.grizzlytech.metamorphosis.digest.DigestEngine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DuplicateFinderTest {
+
+    private static final Instant DATE = Instant.parse("2018-07-31T17:03:03Z");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void tiersSeparateDuplicatesFromFalsePositives() throws IOException {
+        byte[] content = new byte[4 * DuplicateFinder.PARTIAL_BLOCK_SIZE];
+        new Random(42).nextBytes(content);
+        FileInfo original = createMedia("A.JPG", content);
+        FileInfo copy = createMedia("B.JPG", content);
+
+        // Same size and date, differing only in the sampled middle block
+        byte[] middle = content.clone();
+        middle[(middle.length - DuplicateFinder.PARTIAL_BLOCK_SIZE) / 2 + 10] ^= 1;
+        FileInfo partialMismatch = createMedia("C.JPG", middle);
+
+        // Same size and date, differing outside the sampled blocks (only the full checksum can tell)
+        byte[] unsampled = content.clone();
+        unsampled[DuplicateFinder.PARTIAL_BLOCK_SIZE + 10] ^= 1;
+        FileInfo fullMismatch = createMedia("D.JPG", unsampled);
+
+        FileInfo[] files = {original, copy, partialMismatch, fullMismatch};
+        DateTakenExtractor.extractAll(files);
+        List<List<FileInfo>>[] duplicates = DuplicateFinder.findDuplicates(files);
+
+        assertEquals(1, duplicates[0].size());
+        assertTrue(duplicates[0].get(0).containsAll(List.of(original, copy)));
+        assertEquals(1, duplicates[1].size());
+        assertEquals(List.of(partialMismatch, fullMismatch), duplicates[1].get(0));
+    }
+
+    @Test
+    void smallFilesAreDigestedOnce() throws IOException {
+        byte[] content = new byte[3 * DuplicateFinder.PARTIAL_BLOCK_SIZE];
+        new Random(7).nextBytes(content);
+        FileInfo original = createMedia("E.JPG", content);
+        FileInfo copy = createMedia("F.JPG", content);
+
+        // Read whole by the partial stage, whose digest is then the full digest
+        Path path = original.getSourcePath();
+        assertEquals(DigestEngine.digest(path), DigestEngine.partialDigest(path, DuplicateFinder.PARTIAL_BLOCK_SIZE));
+
+        FileInfo[] files = {original, copy};
+        DateTakenExtractor.extractAll(files);
+        List<List<FileInfo>>[] duplicates = DuplicateFinder.findDuplicates(files);
+        assertEquals(List.of(List.of(original, copy)), duplicates[0]);
+        assertEquals(DigestEngine.digest(path), copy.getDigest());
+    }
+
+    private FileInfo createMedia(String name, byte[] content) throws IOException {
+        Path path = Files.write(dir.resolve(name), content);
+        Files.setLastModifiedTime(path, FileTime.from(DATE));
+        return new FileInfo(path.toFile());
+    }
+}
@@ -0,0 +1,102 @@
+package org.grizzlytech.metamorphosis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileMetadataTest {
+
+    private static final Instant DATE_TAKEN = Instant.parse("2018-07-31T17:03:03.250Z");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void syncFileDateSkipsTimesWithinGranularity() throws IOException {
+        File file = Files.write(dir.resolve("IMG_1000.JPG"), new byte[]{1}).toFile();
+        FileTime untouched = FileTime.from(Instant.parse("2001-01-01T00:00:00Z"));
+        Files.setLastModifiedTime(file.toPath(), untouched);
+
+        // As read back from FAT32 (modified time rounded to 2 seconds) and exFAT (10 ms): already settled
+        long fat = Instant.parse("2018-07-31T17:03:04Z").toEpochMilli();
+        assertFalse(FileMetadata.syncFileDate(file, DATE_TAKEN, attributes(DATE_TAKEN.toEpochMilli() + 10, fat)));
+        assertEquals(untouched, Files.getLastModifiedTime(file.toPath()));
+    }
+
+    @Test
+    void syncFileDateWritesOtherTimes() throws IOException {
+        File file = Files.write(dir.resolve("IMG_1001.JPG"), new byte[]{1}).toFile();
+
+        long hourLater = DATE_TAKEN.toEpochMilli() + 3_600_000;
+        assertTrue(FileMetadata.syncFileDate(file, DATE_TAKEN, attributes(DATE_TAKEN.toEpochMilli(), hourLater)));
+        assertEquals(DATE_TAKEN.toEpochMilli(), Files.getLastModifiedTime(file.toPath()).toMillis());
+
+        // Times earlier than the date are not mistaken for it either
+        long hourEarlier = DATE_TAKEN.toEpochMilli() - 3_600_000;
+        assertTrue(FileMetadata.syncFileDate(file, DATE_TAKEN, attributes(hourEarlier, hourEarlier)));
+
+        // Without the attributes, the times are always written
+        assertTrue(FileMetadata.syncFileDate(file, DATE_TAKEN, null));
+    }
+
+    /**
+     * @return attributes holding the given times, as if read by the scan
+     */
+    private static BasicFileAttributes attributes(long creationTime, long lastModifiedTime) {
+        return new BasicFileAttributes() {
+            @Override
+            public FileTime lastModifiedTime() {
+                return FileTime.fromMillis(lastModifiedTime);
+            }
+
+            @Override
+            public FileTime lastAccessTime() {
+                return FileTime.fromMillis(lastModifiedTime);
+            }
+
+            @Override
+            public FileTime creationTime() {
+                return FileTime.fromMillis(creationTime);
+            }
+
+            @Override
+            public boolean isRegularFile() {
+                return true;
+            }
+
+            @Override
+            public boolean isDirectory() {
+                return false;
+            }
+
+            @Override
+            public boolean isSymbolicLink() {
+                return false;
+            }
+
+            @Override
+            public boolean isOther() {
+                return false;
+            }
+
+            @Override
+            public long size() {
+                return 1;
+            }
+
+            @Override
+            public Object fileKey() {
+                return null;
+            }
+        };
+    }
+}
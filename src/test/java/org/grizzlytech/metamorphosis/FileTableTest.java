@@ -0,0 +1,87 @@
+package org.grizzlytech.metamorphosis;
+
+import org.grizzlytech.metamorphosis.digest.ContentDigest;
+import org.grizzlytech.metamorphosis.test.TestUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileTableTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sortsRowsAsFileInfoDoes() throws IOException {
+        Random random = new Random(7);
+        FileInfo[] files = new FileInfo[500];
+        for (int i = 0; i < files.length; i++) {
+            Path sub = Files.createDirectories(dir.resolve("d" + random.nextInt(5)));
+            // Few distinct seconds, so many files tie on the date and are ordered by name
+            Path path = Files.write(sub.resolve("P" + random.nextInt(100000) + "_" + i + ".JPG"), new byte[i]);
+            Files.setLastModifiedTime(path, FileTime.from(Instant.ofEpochSecond(1_500_000_000L + random.nextInt(20))));
+            files[i] = new FileInfo(path.toFile());
+        }
+        DateTakenExtractor.extractAll(files);
+        FileTable table = FileTable.of(files);
+
+        FileInfo[] expected = files.clone();
+        Arrays.sort(expected);
+        int[] order = table.sortedRows();
+        for (int i = 0; i < order.length; i++) {
+            assertEquals(expected[i].getSourceFile(), table.getSourceFile(order[i]));
+            assertEquals(expected[i].getFileLength(), table.getFileLength(order[i]));
+        }
+
+        // Columns round trip, and positional names match FileInfo's
+        int row = order[42];
+        table.setPosition(row, 1042);
+        files[row].setPosition(1042);
+        assertEquals(files[row].getRelativeName("IMG", 2), table.getRelativeName(row, "IMG", 2));
+        table.setTarget(row, "IMG", 0);
+        assertEquals(new File(files[row].getSourceFile().getParentFile(), files[row].getRelativeName("IMG", 0)),
+                table.getTargetFile(row));
+        assertNull(table.getDigest(row));
+        table.setDigest(row, new ContentDigest(1, 2));
+        assertEquals(new ContentDigest(1, 2), table.toFileInfo(row).getDigest());
+        assertEquals(files[row], table.toFileInfo(row));
+        assertEquals(files[row].getDateTaken(), table.getDateTaken(row));
+    }
+
+    @Test
+    void pairsRawWithCompanion() throws IOException {
+        Path a = Files.createDirectories(dir.resolve("a"));
+        Path b = Files.createDirectories(dir.resolve("b"));
+        byte[] first = TestUtil.exifTiff(ByteOrder.BIG_ENDIAN, "2018:07:31 10:00:00", "2018:07:31 10:00:00");
+        byte[] second = TestUtil.exifTiff(ByteOrder.LITTLE_ENDIAN, "2018:07:31 10:00:05", "2018:07:31 10:00:05");
+        FileInfo[] files = {
+                new FileInfo(Files.write(a.resolve("IMG_0001.JPG"), TestUtil.jpeg(first)).toFile()),
+                new FileInfo(Files.write(a.resolve("IMG_0001.CR2"), first).toFile()),
+                new FileInfo(Files.write(a.resolve("IMG_0002.NEF"), first).toFile()),
+                new FileInfo(Files.write(a.resolve("IMG_0003.JPG"), TestUtil.jpeg(second)).toFile()),
+                new FileInfo(Files.write(b.resolve("IMG_0003.DNG"), second).toFile())};
+        DateTakenExtractor.extractAll(files);
+        FileTable table = FileTable.of(files);
+        table.assignPositions(table.sortedRows(), 1000);
+
+        // Same base name, directory and second: one position; otherwise the next
+        assertEquals(1000, table.getPosition(0));
+        assertEquals(1000, table.getPosition(1));
+        assertEquals(1001, table.getPosition(2));
+        assertEquals(1002, table.getPosition(4));
+        assertEquals(1003, table.getPosition(3));
+        assertEquals("IMG_20180731_1000.CR2", table.getRelativeName(1, "IMG", 0));
+        assertEquals("IMG_20180731_1000.JPG", table.getRelativeName(0, "IMG", 0));
+    }
+}
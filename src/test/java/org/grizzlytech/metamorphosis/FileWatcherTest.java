@@ -0,0 +1,80 @@
+package org.grizzlytech.metamorphosis;
+
+import org.grizzlytech.metamorphosis.test.TestUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileWatcherTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void slotsArrivalsAfterTheirPredecessor() throws IOException {
+        FileInfo[] placed = {
+                createPlaced("IMG_20180731_1000.JPG", "2018:07:31 12:00:00", 1000),
+                createPlaced("IMG_20180731_1001.JPG", "2018:07:31 13:00:00", 1001),
+                createPlaced("IMG_20180801_1002.JPG", "2018:08:01 12:00:00", 1002)};
+
+        try (FileWatcher watcher = new FileWatcher(dir, "IMG", placed)) {
+            assertEquals("IMG_20180731_1000_1.JPG", place(watcher, "DSC_0001.JPG", "2018:07:31 12:30:00"));
+            // The next arrival in the same gap takes the next free index
+            assertEquals("IMG_20180731_1000_2.JPG", place(watcher, "DSC_0002.JPG", "2018:07:31 12:45:00"));
+            assertEquals("IMG_20180802_1003.JPG", place(watcher, "DSC_0003.JPG", "2018:08:02 12:00:00"));
+            assertEquals("IMG_20180730_999.JPG", place(watcher, "DSC_0004.JPG", "2018:07:30 12:00:00"));
+        }
+        // Files already named are left alone
+        assertTrue(Files.exists(dir.resolve("IMG_20180731_1001.JPG")));
+    }
+
+    @Test
+    void keepsDateOrderWithinAGap() throws IOException {
+        FileInfo[] placed = {
+                createPlaced("IMG_20180731_1000.JPG", "2018:07:31 10:00:00", 1000),
+                createPlaced("IMG_20180731_1001.JPG", "2018:07:31 10:05:00", 1001)};
+
+        try (FileWatcher watcher = new FileWatcher(dir, "IMG", placed)) {
+            assertEquals("IMG_20180731_1000_1.JPG", place(watcher, "DSC_0001.JPG", "2018:07:31 10:03:00"));
+            assertEquals("IMG_20180731_1000_2.JPG", place(watcher, "DSC_0002.JPG", "2018:07:31 10:04:00"));
+            // Taken before both earlier arrivals: it takes suffix 1, and they move up one each
+            assertEquals("IMG_20180731_1000_1.JPG", place(watcher, "DSC_0003.JPG", "2018:07:31 10:01:00"));
+            // Taken between two arrivals: only the later one moves
+            assertEquals("IMG_20180731_1000_3.JPG", place(watcher, "DSC_0004.JPG", "2018:07:31 10:03:30"));
+        }
+        String[] expected = {"10:00:00", "10:01:00", "10:03:00", "10:03:30", "10:04:00"};
+        for (int i = 0; i < expected.length; i++) {
+            String name = (i == 0) ? "IMG_20180731_1000.JPG" : "IMG_20180731_1000_" + i + ".JPG";
+            assertArrayEquals(media("2018:07:31 " + expected[i]), Files.readAllBytes(dir.resolve(name)), name);
+        }
+        assertFalse(Files.exists(dir.resolve("IMG_20180731_1000_5.JPG")));
+    }
+
+    private String place(FileWatcher watcher, String name, String date) throws IOException {
+        File file = watcher.place(new FileInfo(createMedia(name, date).toFile()));
+        assertTrue(file.exists());
+        return file.getName();
+    }
+
+    private FileInfo createPlaced(String name, String date, int position) throws IOException {
+        FileInfo info = new FileInfo(createMedia(name, date).toFile());
+        info.extractDateTaken();
+        info.setPosition(position);
+        return info;
+    }
+
+    private Path createMedia(String name, String date) throws IOException {
+        return Files.write(dir.resolve(name), media(date));
+    }
+
+    private static byte[] media(String date) {
+        return TestUtil.jpeg(TestUtil.exifTiff(ByteOrder.BIG_ENDIAN, date, date));
+    }
+}
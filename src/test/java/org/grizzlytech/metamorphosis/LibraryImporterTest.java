@@ -0,0 +1,155 @@
+package org.grizzlytech.metamorphosis;
+
+import org.grizzlytech.metamorphosis.cache.MetadataCache;
+import org.grizzlytech.metamorphosis.catalog.ContentCatalog;
+import org.grizzlytech.metamorphosis.digest.DigestEngine;
+import org.grizzlytech.metamorphosis.test.TestUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LibraryImporterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void copiesDigestsAndDatesInOnePass() throws IOException {
+        Path card = Files.createDirectories(dir.resolve("card"));
+        Path library = dir.resolve("library");
+        byte[] large = new byte[DigestEngine.BUFFER_SIZE * 2 + 123]; // spans several buffers
+        new Random(3).nextBytes(large);
+        FileInfo[] files = {
+                new FileInfo(Files.write(card.resolve("DSC_0002.JPG"), TestUtil.jpeg(
+                        TestUtil.exifTiff(ByteOrder.BIG_ENDIAN, "2018:07:31 10:00:05", "2018:07:31 10:00:05")))
+                        .toFile()),
+                new FileInfo(Files.write(card.resolve("DSC_0001.JPG"), concat(TestUtil.jpeg(
+                        TestUtil.exifTiff(ByteOrder.LITTLE_ENDIAN, "2018:07:31 10:00:00", "2018:07:31 10:00:00")),
+                        large)).toFile())};
+        DateTakenExtractor.extractAll(files);
+        FileTable table = FileTable.of(files);
+        int[] order = table.sortedRows();
+        table.assignPositions(order, 1000);
+
+        // A name already in the library is kept, the copy taking an index suffix
+        Files.createDirectories(library);
+        Files.write(library.resolve(table.getRelativeName(1, "IMG", 0)), new byte[]{1});
+
+        try (ContentCatalog catalog = ContentCatalog.open(dir.resolve("catalog"), DigestEngine.getDefaultAlgorithm())) {
+            LibraryImporter importer = new LibraryImporter(library, "IMG", catalog, null, true);
+            Path[] targets = importer.plan(table, order);
+            assertEquals(library.resolve(table.getRelativeName(1, "IMG", 1)), targets[0]);
+            assertEquals(library.resolve(table.getRelativeName(0, "IMG", 0)), targets[1]);
+            assertEquals(0, importer.importFiles(table, order, targets, 2));
+
+            for (int i = 0; i < order.length; i++) {
+                int row = order[i];
+                Path source = table.getSourcePath(row);
+                assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(targets[i]));
+                assertEquals(DigestEngine.digest(source), table.getDigest(row));
+                assertEquals(table.getDateTaken(row).toEpochMilli(),
+                        Files.getLastModifiedTime(targets[i]).toMillis());
+                assertEquals(Collections.singletonList(targets[i].toAbsolutePath().toString()),
+                        catalog.find(table.getFileLength(row), table.getDigest(row)));
+            }
+            assertEquals(3, count(library)); // no temporary files left behind
+
+            // Importing the card again finds every file already in the library, and leaves it unchanged
+            LibraryImporter again = new LibraryImporter(library, "IMG", catalog, null, false);
+            assertEquals(0, again.importFiles(table, order, again.plan(table, order), 1));
+            assertEquals(3, count(library));
+        }
+    }
+
+    @Test
+    void keepsOneCopyOfEachContent() throws IOException {
+        Path card = Files.createDirectories(dir.resolve("card"));
+        Path library = Files.createDirectories(dir.resolve("library"));
+        byte[] held = TestUtil.jpeg(
+                TestUtil.exifTiff(ByteOrder.BIG_ENDIAN, "2017:01:01 12:00:00", "2017:01:01 12:00:00"));
+        byte[] twice = TestUtil.jpeg(
+                TestUtil.exifTiff(ByteOrder.BIG_ENDIAN, "2018:07:31 10:00:00", "2018:07:31 10:00:00"));
+        Path existing = Files.write(library.resolve("IMG_20170101_1000.JPG"), held);
+        FileInfo[] files = {
+                new FileInfo(Files.write(card.resolve("DSC_0001.JPG"), twice).toFile()),
+                new FileInfo(Files.write(card.resolve("DSC_0002.JPG"), twice).toFile()),
+                new FileInfo(Files.write(card.resolve("DSC_0003.JPG"), held).toFile())};
+        DateTakenExtractor.extractAll(files);
+        FileTable table = FileTable.of(files);
+        int[] order = table.sortedRows();
+        table.assignPositions(order, 1000);
+
+        try (ContentCatalog catalog = ContentCatalog.open(dir.resolve("catalog"), DigestEngine.getDefaultAlgorithm())) {
+            catalog.add(held.length, DigestEngine.digest(existing), existing);
+            LibraryImporter importer = new LibraryImporter(library, "IMG", catalog, null, false);
+            assertEquals(0, importer.importFiles(table, order, importer.plan(table, order), 3));
+
+            // The content already held is not copied, and of the two copies on the card only one is kept
+            assertEquals(2, count(library));
+            assertEquals(1, catalog.find(twice.length, DigestEngine.digest(card.resolve("DSC_0001.JPG"))).size());
+        }
+    }
+
+    @Test
+    void keepsLibraryCacheRows() throws IOException {
+        Path card = Files.createDirectories(dir.resolve("card"));
+        Path library = Files.createDirectories(dir.resolve("library"));
+        Path existing = Files.write(library.resolve("IMG_20170101_1000.JPG"), new byte[]{1, 2, 3});
+        Instant existingDate = Instant.parse("2017-01-01T12:00:00Z");
+        MetadataCache cache = MetadataCache.open(library, 0);
+        cache.putDateTaken(existing, attributes(existing), existingDate);
+        cache.close();
+
+        FileInfo[] files = {new FileInfo(Files.write(card.resolve("DSC_0001.JPG"), TestUtil.jpeg(
+                TestUtil.exifTiff(ByteOrder.BIG_ENDIAN, "2018:07:31 10:00:00", "2018:07:31 10:00:00"))).toFile())};
+        DateTakenExtractor.extractAll(files);
+        FileTable table = FileTable.of(files);
+        int[] order = table.sortedRows();
+        table.assignPositions(order, 1000);
+
+        // The import touches only its own copies; the rows of files already in the library survive it
+        cache = MetadataCache.open(library, 0);
+        LibraryImporter importer = new LibraryImporter(library, "IMG", null, cache, false);
+        Path[] targets = importer.plan(table, order);
+        assertEquals(0, importer.importFiles(table, order, targets, 1));
+        cache.close();
+
+        cache = MetadataCache.open(library, 0);
+        MetadataCache.Entry old = cache.lookup(existing, attributes(existing));
+        assertNotNull(old);
+        assertEquals(existingDate, old.getDateTaken());
+        MetadataCache.Entry copy = cache.lookup(targets[0], attributes(targets[0]));
+        assertNotNull(copy);
+        assertEquals(table.getDateTaken(order[0]), copy.getDateTaken());
+        assertEquals(table.getDigest(order[0]), copy.getDigest(DigestEngine.getDefaultAlgorithm()));
+        cache.close();
+    }
+
+    private static BasicFileAttributes attributes(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+
+    private static long count(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] out = new byte[a.length + b.length];
+        System.arraycopy(a, 0, out, 0, a.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+}
@@ -0,0 +1,145 @@
+package org.grizzlytech.metamorphosis.cache;
+
+import org.grizzlytech.metamorphosis.digest.ContentDigest;
+import org.grizzlytech.metamorphosis.digest.DigestAlgorithm;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Open time, heap held and lookup rate of a MetadataCache of many rows.
+ * <p>
+ * Run as a plain main (not part of the test suite), ideally with a fixed heap (e.g. -Xmx2g) so that the heap
+ * figures are comparable. Writes the rows once, then re-opens the cache several times (the first treated as
+ * warm-up) and looks every row up. Optional arguments: rows (default 1000000) and rounds (default 4).
+ */
+public class MetadataCacheBenchmark {
+
+    private static final Instant DATE_TAKEN = Instant.parse("2018-07-31T17:03:03Z");
+
+    public static void main(String[] args) throws Exception {
+        int rows = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+
+        Path dir = Files.createTempDirectory("cache-benchmark");
+        try {
+            long start = System.nanoTime();
+            MetadataCache cache = MetadataCache.open(dir, 0);
+            for (int i = 0; i < rows; i++) {
+                Path path = pathOf(dir, i);
+                BasicFileAttributes attrs = attributes(i);
+                cache.putDateTaken(path, attrs, DATE_TAKEN.plusSeconds(i));
+                cache.putDigest(path, attrs, DigestAlgorithm.XXH128, new ContentDigest(i, ~i));
+            }
+            cache.close();
+            cache = null;
+            System.out.printf("rows %d   written in %d ms   on disk %d MB%n", rows, millisSince(start),
+                    diskBytes(dir) >> 20);
+
+            for (int round = 0; round < rounds; round++) {
+                long heapBefore = usedHeap();
+                start = System.nanoTime();
+                cache = MetadataCache.open(dir, 0);
+                long openMillis = millisSince(start);
+                long heapHeld = usedHeap() - heapBefore;
+
+                start = System.nanoTime();
+                int hits = 0;
+                for (int i = 0; i < rows; i++) {
+                    if (cache.lookup(pathOf(dir, i), attributes(i)) != null) {
+                        hits++;
+                    }
+                }
+                long lookupMillis = millisSince(start);
+                System.out.printf("%s open %5d ms   heap held %5d MB   lookups %5d ms (%d hits)%n",
+                        (round == 0) ? "warm-up" : "round  ", openMillis, heapHeld >> 20, lookupMillis, hits);
+                cache.close();
+                cache = null;
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static Path pathOf(Path dir, int i) {
+        return dir.resolve("photos/" + (2000 + i % 20) + "/" + String.format("IMG_%08d.JPG", i));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long diskBytes(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * @return attributes for a file that need not exist (size and time vary by row)
+     */
+    private static BasicFileAttributes attributes(int i) {
+        FileTime modified = FileTime.fromMillis(1_500_000_000_000L + i * 1000L);
+        return new BasicFileAttributes() {
+            @Override
+            public FileTime lastModifiedTime() {
+                return modified;
+            }
+
+            @Override
+            public FileTime lastAccessTime() {
+                return modified;
+            }
+
+            @Override
+            public FileTime creationTime() {
+                return modified;
+            }
+
+            @Override
+            public boolean isRegularFile() {
+                return true;
+            }
+
+            @Override
+            public boolean isDirectory() {
+                return false;
+            }
+
+            @Override
+            public boolean isSymbolicLink() {
+                return false;
+            }
+
+            @Override
+            public boolean isOther() {
+                return false;
+            }
+
+            @Override
+            public long size() {
+                return 3_000_000L + i;
+            }
+
+            @Override
+            public Object fileKey() {
+                return "(dev=803,ino=" + (1000 + i) + ")";
+            }
+        };
+    }
+}
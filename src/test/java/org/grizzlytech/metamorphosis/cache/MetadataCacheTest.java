@@ -0,0 +1,194 @@
+package org.grizzlytech.metamorphosis.cache;
+
+import org.grizzlytech.metamorphosis.digest.ContentDigest;
+import org.grizzlytech.metamorphosis.digest.DigestAlgorithm;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetadataCacheTest {
+
+    private static final Instant DATE_TAKEN = Instant.parse("2018-07-31T17:03:03Z");
+
+    private static final ContentDigest DIGEST = new ContentDigest(0x0123456789abcdefL, 0xfedcba9876543210L);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void survivesReopen() throws IOException {
+        Path media = createMedia("IMG_1000.JPG");
+
+        MetadataCache cache = MetadataCache.open(dir, 0);
+        assertNull(cache.lookup(media, attributes(media)));
+        cache.putDateTaken(media, attributes(media), DATE_TAKEN);
+        cache.putDigest(media, attributes(media), DigestAlgorithm.XXH128, DIGEST);
+        cache.close();
+
+        cache = MetadataCache.open(dir, 0);
+        MetadataCache.Entry entry = cache.lookup(media, attributes(media));
+        assertNotNull(entry);
+        assertEquals(DATE_TAKEN, entry.getDateTaken());
+        assertEquals(DIGEST, entry.getDigest(DigestAlgorithm.XXH128));
+        assertNull(entry.getDigest(DigestAlgorithm.MD5));
+        cache.close();
+    }
+
+    @Test
+    void invalidatesChangedFiles() throws IOException {
+        Path media = createMedia("IMG_1001.JPG");
+
+        MetadataCache cache = MetadataCache.open(dir, 0);
+        cache.putDateTaken(media, attributes(media), DATE_TAKEN);
+        cache.close();
+
+        Files.setLastModifiedTime(media, FileTime.from(DATE_TAKEN));
+        cache = MetadataCache.open(dir, 0);
+        assertNull(cache.lookup(media, attributes(media)));
+        cache.close();
+
+        // A different time offset discards the whole cache
+        cache = MetadataCache.open(dir, 3600);
+        assertNull(cache.lookup(media, attributes(media)));
+        cache.close();
+    }
+
+    @Test
+    void discardsTornTail() throws IOException {
+        Path media = createMedia("IMG_1002.JPG");
+
+        MetadataCache cache = MetadataCache.open(dir, 0);
+        cache.putDateTaken(media, attributes(media), DATE_TAKEN);
+        cache.close();
+
+        // Simulate a crash part way through appending a record
+        Files.write(dir.resolve(MetadataCache.DEFAULT_FILE_NAME), new byte[]{0, 0, 0, 40, 1, 2},
+                StandardOpenOption.APPEND);
+
+        cache = MetadataCache.open(dir, 0);
+        MetadataCache.Entry entry = cache.lookup(media, attributes(media));
+        assertNotNull(entry);
+        assertEquals(DATE_TAKEN, entry.getDateTaken());
+        cache.close();
+    }
+
+    @Test
+    void prunesOnlyUnderWalkedRoot() throws IOException {
+        Path a = Files.createDirectories(dir.resolve("a"));
+        Path b = Files.createDirectories(dir.resolve("ab"));
+        Path kept = createMedia(a.resolve("IMG_1003.JPG"));
+        Path deleted = createMedia(a.resolve("IMG_1004.JPG"));
+        Path other = createMedia(b.resolve("IMG_1005.JPG"));
+
+        MetadataCache cache = MetadataCache.open(dir, 0);
+        for (Path media : new Path[]{kept, deleted, other}) {
+            cache.putDateTaken(media, attributes(media), DATE_TAKEN);
+        }
+        cache.close();
+
+        // Only the scanned root is pruned: a sibling sharing its name as a prefix keeps its rows
+        cache = MetadataCache.open(dir, 0);
+        assertNotNull(cache.lookup(kept, attributes(kept)));
+        cache.pruneUnseen(a);
+        cache.close();
+
+        cache = MetadataCache.open(dir, 0);
+        assertNotNull(cache.lookup(kept, attributes(kept)));
+        assertNull(cache.lookup(deleted, attributes(deleted)));
+        assertNotNull(cache.lookup(other, attributes(other)));
+        cache.close();
+
+        // Without pruning, closing keeps rows that were not looked up
+        cache = MetadataCache.open(dir, 0);
+        cache.close();
+        cache = MetadataCache.open(dir, 0);
+        assertNotNull(cache.lookup(other, attributes(other)));
+        cache.close();
+    }
+
+    @Test
+    void loadsLogLargerThanReadBuffer() throws IOException {
+        Path media = createMedia("IMG_1006.JPG");
+        BasicFileAttributes attrs = attributes(media);
+        int rows = 30_000; // records of ~100 bytes, so the log spans several read buffers
+
+        MetadataCache cache = MetadataCache.open(dir, 0);
+        for (int i = 0; i < rows; i++) {
+            cache.putDigest(dir.resolve("sub/IMG_" + i + ".JPG"), attrs, DigestAlgorithm.MD5,
+                    new ContentDigest(i, -i));
+        }
+        cache.close();
+        assertTrue(Files.size(dir.resolve(MetadataCache.DEFAULT_FILE_NAME)) > 2 << 20);
+
+        cache = MetadataCache.open(dir, 0);
+        for (int i = 0; i < rows; i++) {
+            MetadataCache.Entry entry = cache.lookup(dir.resolve("sub/IMG_" + i + ".JPG"), attrs);
+            assertNotNull(entry);
+            assertEquals(new ContentDigest(i, -i), entry.getDigest(DigestAlgorithm.MD5));
+        }
+        cache.close();
+    }
+
+    @Test
+    void readsRowsFromGenerationAndLog() throws IOException {
+        Path a = Files.createDirectories(dir.resolve("a"));
+        Path kept = createMedia(a.resolve("IMG_1007.JPG"));
+        Path deleted = createMedia(a.resolve("IMG_1008.JPG"));
+        Path moved = createMedia(a.resolve("IMG_1009.JPG"));
+        Path target = a.resolve("2018-07-31 17.03.03.JPG");
+
+        MetadataCache cache = MetadataCache.open(dir, 0);
+        for (Path media : new Path[]{kept, deleted, moved}) {
+            cache.putDateTaken(media, attributes(media), DATE_TAKEN);
+        }
+        cache.compact();
+        assertTrue(Files.exists(dir.resolve(MetadataCache.DEFAULT_FILE_NAME + "-000001.dat")));
+        assertNotNull(cache.lookup(kept, attributes(kept)));
+
+        // Rows of the generation are updated, moved and pruned through the log
+        cache.putDigest(kept, attributes(kept), DigestAlgorithm.XXH128, DIGEST);
+        Files.move(moved, target);
+        cache.relocate(moved, target);
+        cache.pruneUnseen(a);
+        cache.close();
+
+        cache = MetadataCache.open(dir, 0);
+        MetadataCache.Entry entry = cache.lookup(kept, attributes(kept));
+        assertEquals(DATE_TAKEN, entry.getDateTaken());
+        assertEquals(DIGEST, entry.getDigest(DigestAlgorithm.XXH128));
+        assertNull(cache.lookup(deleted, attributes(deleted)));
+        assertNull(cache.lookup(moved, attributes(target)));
+        assertEquals(DATE_TAKEN, cache.lookup(target, attributes(target)).getDateTaken());
+
+        // Merging the log leaves the same rows in a new generation
+        cache.compact();
+        cache.close();
+        assertFalse(Files.exists(dir.resolve(MetadataCache.DEFAULT_FILE_NAME + "-000001.dat")));
+        cache = MetadataCache.open(dir, 0);
+        assertEquals(DIGEST, cache.lookup(kept, attributes(kept)).getDigest(DigestAlgorithm.XXH128));
+        assertNull(cache.lookup(deleted, attributes(deleted)));
+        assertNotNull(cache.lookup(target, attributes(target)));
+        cache.close();
+    }
+
+    private Path createMedia(String name) throws IOException {
+        return createMedia(dir.resolve(name));
+    }
+
+    private static Path createMedia(Path path) throws IOException {
+        return Files.write(path, new byte[]{(byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xd9});
+    }
+
+    private static BasicFileAttributes attributes(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+}
@@ -0,0 +1,81 @@
+package org.grizzlytech.metamorphosis.catalog;
+
+import org.grizzlytech.metamorphosis.digest.ContentDigest;
+import org.grizzlytech.metamorphosis.digest.DigestAlgorithm;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentCatalogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void findsEntriesFromLogAndCompactedGenerations() throws IOException {
+        Random random = new Random(42);
+        ContentDigest[] digests = new ContentDigest[2000];
+        for (int i = 0; i < digests.length; i++) {
+            digests[i] = new ContentDigest(random.nextLong(), random.nextLong());
+        }
+
+        ContentCatalog catalog = ContentCatalog.open(dir, DigestAlgorithm.XXH128);
+        for (int i = 0; i < 1000; i++) {
+            catalog.add(i % 7, digests[i], dir.resolve("a/IMG_" + i + ".JPG"));
+        }
+        catalog.add(0, digests[0], dir.resolve("a/IMG_0.JPG")); // already held
+        catalog.close();
+
+        // Replayed from the log
+        catalog = ContentCatalog.open(dir, DigestAlgorithm.XXH128);
+        assertEquals(1000, catalog.size());
+        catalog.compact();
+        for (int i = 1000; i < digests.length; i++) {
+            catalog.add(i % 7, digests[i], dir.resolve("b/IMG_" + i + ".JPG"));
+        }
+        // Same content archived twice
+        catalog.add(3, digests[3], dir.resolve("b/COPY.JPG"));
+        catalog.close();
+
+        catalog = ContentCatalog.open(dir, DigestAlgorithm.XXH128);
+        catalog.compact();
+        assertEquals(digests.length + 1, catalog.size());
+        for (int i = 0; i < digests.length; i++) {
+            List<String> paths = catalog.find(i % 7, digests[i]);
+            assertTrue(paths.get(0).endsWith("IMG_" + i + ".JPG"), paths.toString());
+        }
+        assertEquals(2, catalog.find(3, digests[3]).size());
+        assertTrue(catalog.find(1, digests[0]).isEmpty()); // same digest, other size
+        assertTrue(catalog.find(0, new ContentDigest(1, 2)).isEmpty());
+        catalog.close();
+
+        // Digests of another algorithm cannot be mixed in
+        assertNull(ContentCatalog.open(dir, DigestAlgorithm.MD5));
+    }
+
+    @Test
+    void compactsDuringLongIngest() throws IOException {
+        int count = 250_000; // past the compaction threshold twice
+        ContentCatalog catalog = ContentCatalog.open(dir, DigestAlgorithm.XXH128, count);
+        for (int i = 0; i < count; i++) {
+            catalog.add(i, new ContentDigest(i * 0x9E3779B97F4A7C15L, ~i), dir.resolve("IMG_" + i + ".JPG"));
+        }
+        // Compacted from add, before any close
+        assertTrue(Files.exists(dir.resolve("catalog-000002.dat")));
+        assertEquals(count, catalog.size());
+        assertTrue(catalog.containsSize(0)); // compacted
+        assertTrue(catalog.containsSize(count - 1)); // in the log
+        assertFalse(catalog.containsSize(count));
+        for (int i = 0; i < count; i++) {
+            assertEquals(1, catalog.find(i, new ContentDigest(i * 0x9E3779B97F4A7C15L, ~i)).size());
+        }
+        catalog.close();
+    }
+}
@@ -0,0 +1,56 @@
+package org.grizzlytech.metamorphosis.digest;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Single-threaded throughput of each DigestAlgorithm, in GB/s per core.
+ * <p>
+ * Run as a plain main (not part of the test suite): first hashing an in-memory direct buffer (CPU bound), then a
+ * temporary file through DigestEngine (page cache warm, so mostly CPU plus copy cost).
+ * Optional arguments: megabytes to hash (default 256) and rounds (default 5, the first treated as warm-up).
+ */
+public class DigestBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = (args.length > 0) ? Integer.parseInt(args[0]) : 256;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        byte[] data = new byte[megabytes << 20];
+        new Random(42).nextBytes(data);
+        ByteBuffer memory = ByteBuffer.allocateDirect(data.length).order(ByteOrder.LITTLE_ENDIAN);
+        memory.put(data).flip();
+
+        Path file = Files.createTempFile("digest-benchmark", ".bin");
+        try {
+            Files.write(file, data);
+            for (DigestAlgorithm algorithm : DigestAlgorithm.values()) {
+                ContentHasher hasher = algorithm.newHasher();
+                double best = 0;
+                for (int round = 0; round < rounds; round++) {
+                    long start = System.nanoTime();
+                    hasher.reset();
+                    hasher.update(memory.duplicate());
+                    hasher.digest();
+                    best = (round == 0) ? 0 : Math.max(best, gigabytesPerSecond(data.length, start));
+                }
+                double bestFile = 0;
+                for (int round = 0; round < rounds; round++) {
+                    long start = System.nanoTime();
+                    DigestEngine.digest(file, algorithm);
+                    bestFile = (round == 0) ? 0 : Math.max(bestFile, gigabytesPerSecond(data.length, start));
+                }
+                System.out.printf("%-8s memory %6.2f GB/s   file %6.2f GB/s%n", algorithm, best, bestFile);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static double gigabytesPerSecond(long bytes, long startNanos) {
+        return bytes / (double) (System.nanoTime() - startNanos);
+    }
+}
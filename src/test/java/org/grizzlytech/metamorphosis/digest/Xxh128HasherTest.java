@@ -0,0 +1,84 @@
+package org.grizzlytech.metamorphosis.digest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Xxh128HasherTest {
+
+    /**
+     * XXH3_128bits (seed 0) of pattern(length), as printed by xxhsum -H2; covers every short-input path and
+     * the block/stripe boundaries of the long-input path
+     */
+    private static final Object[][] VECTORS = {
+            {0, "99aa06d3014798d86001c324468d497f"},
+            {1, "495b62073ef70ca44c5cca45d0f4811f"},
+            {3, "46f66cb93538156515f7093b173d005c"},
+            {4, "7fefeeffb4d0eab3b987ca5d9241572a"},
+            {8, "803c675a846cc6c256bb836ceb6d4baa"},
+            {9, "d46556872d230f224376673580310154"},
+            {16, "650fe308c566747df853dd94614dfa07"},
+            {17, "18217300b5132d5a78c349fe81b2f26c"},
+            {128, "b4f87b99d2db8a511e04fad9f0cacb4d"},
+            {129, "6881633650cd8924c51bc887976aef63"},
+            {240, "de57aab31e77a2ff93e173833f75ab66"},
+            {241, "92b991a7192f3f080b3b630948ce4a00"},
+            {1024, "4c17271c906df79223bc880ebf0d29c6"},
+            {1025, "70a4eb1b9691d77fc09fdfbc398c7d82"},
+            {1088, "fcf9dfe2b0ba271ba16bad67843c5a45"},
+            {4096, "49d3842b33d51e8aa3c19f8174cde0bb"},
+            {100003, "cb5ebd34f7252f19e0950e66cf107fe8"},
+    };
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void matchesReferenceVectors() {
+        for (Object[] vector : VECTORS) {
+            int length = (Integer) vector[0];
+            assertEquals(vector[1], Xxh128Hasher.hash(pattern(length)).toString(), "length " + length);
+        }
+    }
+
+    @Test
+    void streamingMatchesOneShot() {
+        byte[] data = pattern(5000);
+        Xxh128Hasher hasher = new Xxh128Hasher();
+        for (int chunk : new int[]{1, 63, 64, 1000, 1024, 1025}) {
+            for (int length : new int[]{200, 1024, 1030, 2048, 5000}) {
+                hasher.reset();
+                for (int offset = 0; offset < length; offset += chunk) {
+                    hasher.update(ByteBuffer.wrap(data, offset, Math.min(chunk, length - offset)));
+                }
+                byte[] whole = new byte[length];
+                System.arraycopy(data, 0, whole, 0, length);
+                assertEquals(Xxh128Hasher.hash(whole), hasher.digest(), "chunk " + chunk + " length " + length);
+            }
+        }
+    }
+
+    @Test
+    void engineDigestsFiles() throws Exception {
+        byte[] data = pattern(3 * DigestEngine.BUFFER_SIZE + 17);
+        Path file = Files.write(dir.resolve("IMG_0001.JPG"), data);
+
+        assertEquals(Xxh128Hasher.hash(data), DigestEngine.digest(file, DigestAlgorithm.XXH128));
+        assertArrayEquals(MessageDigest.getInstance("MD5").digest(data),
+                DigestEngine.digest(file, DigestAlgorithm.MD5).toBytes());
+    }
+
+    private static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+}
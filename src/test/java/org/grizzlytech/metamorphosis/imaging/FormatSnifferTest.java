@@ -0,0 +1,75 @@
+package org.grizzlytech.metamorphosis.imaging;
+
+import org.grizzlytech.metamorphosis.FileMetadata;
+import org.grizzlytech.metamorphosis.test.TestUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FormatSnifferTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sniffsMagicBytes() {
+        assertEquals(MediaFormat.JPEG, FormatSniffer.sniff(ByteBuffer.wrap(
+                new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE1})));
+        assertEquals(MediaFormat.PNG, FormatSniffer.sniff(ByteBuffer.wrap(
+                new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 13})));
+        assertEquals(MediaFormat.HEIF, FormatSniffer.sniff(ftyp("heic", "mif1")));
+        assertEquals(MediaFormat.HEIF, FormatSniffer.sniff(ftyp("msf1", "iso8")));
+        assertEquals(MediaFormat.QUICKTIME, FormatSniffer.sniff(ftyp("qt  ", "qt  ")));
+        assertEquals(MediaFormat.MP4, FormatSniffer.sniff(ftyp("mp42", "isom")));
+        // Unknown major brand: fall back to the compatible brands
+        assertEquals(MediaFormat.MP4, FormatSniffer.sniff(ftyp("XAVC", "mp42")));
+        assertEquals(MediaFormat.QUICKTIME, FormatSniffer.sniff(ByteBuffer.wrap(
+                new byte[]{0, 0, 0, 8, 'w', 'i', 'd', 'e', 0, 0, 0, 0})));
+        assertEquals(MediaFormat.UNKNOWN, FormatSniffer.sniff(ByteBuffer.wrap("plain text file".getBytes())));
+        assertEquals(MediaFormat.UNKNOWN, FormatSniffer.sniff(ByteBuffer.wrap(new byte[0])));
+    }
+
+    @Test
+    void dispatchesOnContent() throws Exception {
+        byte[] jpeg = TestUtil.jpeg(TestUtil.exifTiff(ByteOrder.BIG_ENDIAN, "2018:07:31 17:03:03",
+                "2018:07:30 09:15:00"));
+        Path named = Files.write(dir.resolve("IMG_0001.JPG"), jpeg);
+        Path misnamed = Files.write(dir.resolve("IMG_0002.MOV"), jpeg);
+
+        FormatCheck check = FormatSniffer.check(misnamed, ".MOV");
+        assertEquals(MediaFormat.QUICKTIME, check.getExtensionFormat());
+        assertEquals(MediaFormat.JPEG, check.getContentFormat());
+        assertEquals(MediaFormat.JPEG, check.getFormat());
+        assertTrue(check.isMismatch());
+        assertFalse(FormatSniffer.check(named, ".jpg").isMismatch());
+
+        // A picture in a movie container is parsed as the picture it is
+        assertNotNull(FileMetadata.getDateTaken(named.toFile()));
+        assertEquals(FileMetadata.getDateTaken(named.toFile()), FileMetadata.getDateTaken(misnamed.toFile()));
+    }
+
+    @Test
+    void fallsBackToExtension() throws Exception {
+        Path unreadable = dir.resolve("IMG_0003.MP4");
+        FormatCheck missing = FormatSniffer.check(unreadable, ".MP4");
+        assertEquals(MediaFormat.UNKNOWN, missing.getContentFormat());
+        assertEquals(MediaFormat.MP4, missing.getFormat());
+        assertFalse(missing.isMismatch());
+    }
+
+    private static ByteBuffer ftyp(String major, String compatible) {
+        ByteBuffer box = ByteBuffer.allocate(20);
+        box.putInt(20).put("ftyp".getBytes(StandardCharsets.ISO_8859_1))
+                .put(major.getBytes(StandardCharsets.ISO_8859_1)).putInt(0)
+                .put(compatible.getBytes(StandardCharsets.ISO_8859_1));
+        box.flip();
+        return box;
+    }
+}
@@ -0,0 +1,124 @@
+package org.grizzlytech.metamorphosis.imaging.bmff;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.mov.QuickTimeDirectory;
+import com.drew.metadata.mov.metadata.QuickTimeMetadataDirectory;
+import org.grizzlytech.metamorphosis.util.PositionalReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuickTimeDateReaderTest {
+
+    private static final long MVHD_SECONDS = 3615987783L; // 2018-08-01T17:03:03 since 1904
+    private static final String CREATION_DATE = "2018-07-31T17:03:03+0100";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void matchesFullParseWithMoovAfterMdat() throws Exception {
+        Path file = Files.write(dir.resolve("IMG_1000.MOV"), concat(
+                box("ftyp", ascii("qt  "), new byte[4], ascii("qt  ")),
+                box("mdat", new byte[64 * 1024]),
+                box("free", new byte[16]),
+                box("moov", mvhd(MVHD_SECONDS), meta(CREATION_DATE))));
+
+        QuickTimeDates dates = QuickTimeDateReader.readDates(file);
+        assertNotNull(dates);
+
+        Metadata metadata = ImageMetadataReader.readMetadata(file.toFile());
+        Instant creationTime = metadata.getFirstDirectoryOfType(QuickTimeDirectory.class)
+                .getDate(QuickTimeDirectory.TAG_CREATION_TIME).toInstant();
+        // metadata-extractor leaks the current milliseconds into its 1904 epoch
+        assertEquals(creationTime.truncatedTo(ChronoUnit.SECONDS), dates.getCreationTime());
+        Instant creationDate = metadata.getFirstDirectoryOfType(QuickTimeMetadataDirectory.class)
+                .getDate(0x0506).toInstant();
+        assertEquals(creationDate, dates.getCreationDate());
+    }
+
+    @Test
+    void neverReadsMdat() throws Exception {
+        // 64-bit mdat followed by a free box (metadata-extractor 2.11 loses its place here)
+        Path file = Files.write(dir.resolve("IMG_1001.MP4"), concat(
+                box("ftyp", ascii("isom"), new byte[4], ascii("isom")),
+                largeBox("mdat", new byte[1024 * 1024]),
+                box("free", new byte[16]),
+                box("moov", mvhd(MVHD_SECONDS))));
+
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            PositionalReader reader = new PositionalReader(PositionalReader.DEFAULT_WINDOW).bind(channel);
+            QuickTimeDates dates = QuickTimeDateReader.readDates(reader);
+            assertNotNull(dates);
+            // The 1904 epoch is taken in the default zone (GMT for Europe/London in 1904)
+            assertEquals(Instant.parse("2018-08-01T17:03:03Z"), dates.getCreationTime());
+            assertNull(dates.getCreationDate());
+            assertTrue(reader.getBytesRead() < 4 * PositionalReader.DEFAULT_WINDOW);
+        }
+    }
+
+    @Test
+    void rejectsJpegInMovieContainer() throws Exception {
+        Path file = Files.write(dir.resolve("IMG_1002.MOV"),
+                new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 0});
+        assertNull(QuickTimeDateReader.readDates(file));
+    }
+
+    private static byte[] mvhd(long seconds) {
+        ByteBuffer payload = ByteBuffer.allocate(100);
+        payload.putInt(0); // version 0, flags
+        payload.putInt((int) seconds).putInt((int) seconds); // creation, modification
+        payload.putInt(600).putInt(6000); // time scale, duration
+        payload.putInt(0x00010000).putShort((short) 0x0100); // rate, volume
+        payload.position(96);
+        payload.putInt(2); // next track id
+        return box("mvhd", payload.array());
+    }
+
+    private static byte[] meta(String creationDate) {
+        byte[] hdlr = box("hdlr", new byte[8], ascii("mdta"), new byte[13]);
+        byte[] key = concat(ByteBuffer.allocate(4).putInt(8 + 32).array(), ascii("mdta"),
+                ascii("com.apple.quicktime.creationdate"));
+        byte[] keys = box("keys", new byte[4], ByteBuffer.allocate(4).putInt(1).array(), key);
+        byte[] data = box("data", new byte[]{0, 0, 0, 1}, new byte[4], ascii(creationDate));
+        byte[] item = box(ByteBuffer.allocate(4).putInt(1).array(), data);
+        return box("meta", hdlr, keys, box("ilst", item));
+    }
+
+    private static byte[] box(String type, byte[]... payload) {
+        return box(ascii(type), payload);
+    }
+
+    private static byte[] box(byte[] type, byte[]... payload) {
+        byte[] body = concat(payload);
+        return concat(ByteBuffer.allocate(4).putInt(8 + body.length).array(), type, body);
+    }
+
+    private static byte[] largeBox(String type, byte[] payload) {
+        return concat(ByteBuffer.allocate(4).putInt(1).array(), ascii(type),
+                ByteBuffer.allocate(8).putLong(16 + payload.length).array(), payload);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,114 @@
+package org.grizzlytech.metamorphosis.imaging.heif;
+
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import org.grizzlytech.metamorphosis.test.TestUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HEIFMetadataReaderTest {
+
+    private static final int PRIMARY_ID = 1;
+    private static final int THUMBNAIL_EXIF_ID = 2;
+    private static final int EXIF_ID = 3;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsPrimaryImageExifFromFileExtent() throws Exception {
+        byte[] exif = exifItem("2018:07:31 17:03:03");
+        byte[] decoy = exifItem("2001:01:01 00:00:00");
+        // Layout: ftyp, meta, mdat(decoy, exif); iloc offsets are computed once meta's size is known
+        byte[] ftyp = box("ftyp", ascii("heic"), new byte[4], ascii("mif1heic"));
+        int metaLength = meta(0, 0, 0, 0, 0).length;
+        int decoyOffset = ftyp.length + metaLength + 8;
+        int exifOffset = decoyOffset + decoy.length;
+        byte[] meta = meta(0, decoyOffset, decoy.length, exifOffset, exif.length);
+        Path file = Files.write(dir.resolve("IMG_1000.HEIC"), concat(ftyp, meta, box("mdat", decoy, exif)));
+
+        Metadata metadata = HEIFMetadataReader.readMetadata(file);
+        assertEquals(Instant.parse("2018-07-31T17:03:03Z"), metadata.getFirstDirectoryOfType(ExifIFD0Directory.class)
+                .getDate(ExifIFD0Directory.TAG_DATETIME).toInstant());
+    }
+
+    @Test
+    void readsPrimaryImageExifFromIdat() throws Exception {
+        byte[] exif = exifItem("2018:07:31 17:03:03");
+        byte[] meta = meta(1, 0, 0, 0, exif.length, box("idat", exif));
+        Path file = Files.write(dir.resolve("IMG_1001.HEIC"),
+                concat(box("ftyp", ascii("heic"), new byte[4], ascii("mif1heic")), meta));
+
+        Metadata metadata = HEIFMetadataReader.readMetadata(file);
+        assertEquals(Instant.parse("2018-07-31T17:03:03Z"), metadata.getFirstDirectoryOfType(ExifIFD0Directory.class)
+                .getDate(ExifIFD0Directory.TAG_DATETIME).toInstant());
+    }
+
+    /**
+     * @param constructionMethod 0 for file offsets (iloc version 0), 1 for idat offsets (iloc version 1)
+     */
+    private static byte[] meta(int constructionMethod, int decoyOffset, int decoyLength, int exifOffset,
+                               int exifLength, byte[]... extra) {
+        byte[] hdlr = box("hdlr", new byte[8], ascii("pict"), new byte[13]);
+        byte[] pitm = box("pitm", new byte[4], u16(PRIMARY_ID));
+        byte[] iinf = box("iinf", new byte[4], u16(3),
+                infe(PRIMARY_ID, "hvc1"), infe(THUMBNAIL_EXIF_ID, "Exif"), infe(EXIF_ID, "Exif"));
+        // Only the second Exif item describes the primary image
+        byte[] iref = box("iref", new byte[4],
+                box("cdsc", u16(THUMBNAIL_EXIF_ID), u16(1), u16(99)),
+                box("cdsc", u16(EXIF_ID), u16(1), u16(PRIMARY_ID)));
+        byte[] iloc;
+        if (constructionMethod == 0) {
+            iloc = box("iloc", new byte[4], new byte[]{0x44, 0x00}, u16(2),
+                    u16(THUMBNAIL_EXIF_ID), u16(0), u16(1), u32(decoyOffset), u32(decoyLength),
+                    u16(EXIF_ID), u16(0), u16(1), u32(exifOffset), u32(exifLength));
+        } else {
+            iloc = box("iloc", new byte[]{1, 0, 0, 0}, new byte[]{0x44, 0x00}, u16(1),
+                    u16(EXIF_ID), u16(1), u16(0), u16(1), u32(exifOffset), u32(exifLength));
+        }
+        return box("meta", new byte[4], hdlr, pitm, iinf, iref, iloc, concat(extra));
+    }
+
+    private static byte[] infe(int id, String type) {
+        return box("infe", new byte[]{2, 0, 0, 0}, u16(id), u16(0), ascii(type), new byte[1]);
+    }
+
+    private static byte[] exifItem(String dateTime) {
+        return concat(u32(6), ascii("Exif\0\0"), TestUtil.exifTiff(ByteOrder.BIG_ENDIAN, dateTime, dateTime));
+    }
+
+    private static byte[] box(String type, byte[]... payload) {
+        byte[] body = concat(payload);
+        return concat(u32(8 + body.length), ascii(type), body);
+    }
+
+    private static byte[] u16(int value) {
+        return ByteBuffer.allocate(2).putShort((short) value).array();
+    }
+
+    private static byte[] u32(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
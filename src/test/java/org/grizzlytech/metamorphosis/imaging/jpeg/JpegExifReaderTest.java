@@ -0,0 +1,49 @@
+package org.grizzlytech.metamorphosis.imaging.jpeg;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import org.grizzlytech.metamorphosis.imaging.tiff.ExifDates;
+import org.grizzlytech.metamorphosis.test.TestUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegExifReaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void matchesFullParse() throws Exception {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            Path file = Files.write(dir.resolve("IMG_" + order + ".JPG"), TestUtil.jpeg(
+                    TestUtil.exifTiff(order, "2018:07:31 17:03:03", "2018:07:30 09:15:00")));
+
+            ExifDates dates = JpegExifReader.readDates(file);
+            assertNotNull(dates);
+
+            Metadata metadata = ImageMetadataReader.readMetadata(file.toFile());
+            assertEquals(metadata.getFirstDirectoryOfType(ExifIFD0Directory.class)
+                    .getDate(ExifIFD0Directory.TAG_DATETIME).toInstant(), dates.getDateTime());
+            assertEquals(metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class)
+                    .getDate(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL).toInstant(), dates.getDateTimeOriginal());
+        }
+    }
+
+    @Test
+    void fallsBackWithoutExif() throws Exception {
+        Path file = Files.write(dir.resolve("IMG_NONE.JPG"),
+                new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA, 0, 2, (byte) 0xFF, (byte) 0xD9});
+        assertNull(JpegExifReader.readDates(file));
+
+        Path png = Files.write(dir.resolve("IMG_NONE.PNG"), new byte[]{(byte) 0x89, 'P', 'N', 'G'});
+        assertNull(JpegExifReader.readDates(png));
+    }
+}
@@ -0,0 +1,121 @@
+package org.grizzlytech.metamorphosis.imaging.png;
+
+import org.grizzlytech.metamorphosis.test.TestUtil;
+import org.grizzlytech.metamorphosis.util.PositionalReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PngDateReaderTest {
+
+    private static final String XMP = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\"><rdf:RDF><rdf:Description " +
+            "xmlns:xmp=\"http://ns.adobe.com/xap/1.0/\"><xmp:CreateDate>2018-07-31T17:03:03</xmp:CreateDate>" +
+            "</rdf:Description></rdf:RDF></x:xmpmeta>";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsEveryDateChunk() throws Exception {
+        Path file = Files.write(dir.resolve("Screenshot_1.PNG"), png(
+                chunk("tEXt", text("Comment", "not a date")),
+                chunk("tEXt", text("Creation Time", "Tue, 31 Jul 2018 16:03:03 GMT")),
+                chunk("tIME", new byte[]{0x07, (byte) 0xE2, 8, 1, 9, 30, 0}),
+                chunk("iTXt", itxt("XML:com.adobe.xmp", XMP, false)),
+                chunk("eXIf", TestUtil.exifTiff(ByteOrder.LITTLE_ENDIAN, "2018:07:31 17:03:03",
+                        "2018:07:30 09:15:00")),
+                chunk("IDAT", new byte[16])));
+
+        PngDates dates = PngDateReader.readDates(file);
+        assertNotNull(dates);
+        assertEquals(Instant.parse("2018-07-31T17:03:03Z"), dates.getExifDates().getDateTime());
+        assertEquals(Instant.parse("2018-07-30T09:15:00Z"), dates.getExifDates().getDateTimeOriginal());
+        assertEquals(Instant.parse("2018-07-31T17:03:03Z"), dates.getXmpCreateDate());
+        assertEquals(Instant.parse("2018-07-31T16:03:03Z"), dates.getCreationTime());
+        assertEquals(Instant.parse("2018-08-01T09:30:00Z"), dates.getModificationTime());
+    }
+
+    @Test
+    void stopsAtImageData() throws Exception {
+        // A date chunk after IDAT is not metadata of the image (and is never reached)
+        Path file = Files.write(dir.resolve("Screenshot_2.PNG"), png(
+                chunk("iTXt", itxt("XML:com.adobe.xmp", XMP, true)),
+                chunk("IDAT", new byte[1024 * 1024]),
+                chunk("tIME", new byte[]{0x07, (byte) 0xE2, 8, 1, 9, 30, 0})));
+
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            PositionalReader reader = new PositionalReader(PositionalReader.DEFAULT_WINDOW).bind(channel);
+            PngDates dates = PngDateReader.readDates(reader);
+            assertNotNull(dates);
+            assertEquals(Instant.parse("2018-07-31T17:03:03Z"), dates.getXmpCreateDate());
+            assertNull(dates.getModificationTime());
+            assertNull(dates.getExifDates());
+            assertTrue(reader.getBytesRead() <= 2 * PositionalReader.DEFAULT_WINDOW);
+        }
+    }
+
+    @Test
+    void rejectsNonPng() throws Exception {
+        Path file = Files.write(dir.resolve("IMG_0001.PNG"), new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 0});
+        assertNull(PngDateReader.readDates(file));
+        assertNull(PngDateReader.readDates(dir.resolve("missing.PNG")));
+    }
+
+    private static byte[] png(byte[]... chunks) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}, 0, 8);
+        byte[] ihdr = ByteBuffer.allocate(13).putInt(1).putInt(1).put((byte) 8).array();
+        byte[] header = chunk("IHDR", ihdr);
+        out.write(header, 0, header.length);
+        for (byte[] chunk : chunks) {
+            out.write(chunk, 0, chunk.length);
+        }
+        byte[] end = chunk("IEND", new byte[0]);
+        out.write(end, 0, end.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] chunk(String type, byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(12 + data.length);
+        buffer.putInt(data.length).put(type.getBytes(StandardCharsets.ISO_8859_1)).put(data);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, 4 + data.length);
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    private static byte[] text(String keyword, String text) {
+        return (keyword + '\0' + text).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] itxt(String keyword, String text, boolean compressed) {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        if (compressed) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(body);
+            deflater.finish();
+            byte[] buffer = new byte[body.length + 64];
+            body = Arrays.copyOf(buffer, deflater.deflate(buffer));
+            deflater.end();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] key = keyword.getBytes(StandardCharsets.ISO_8859_1);
+        out.write(key, 0, key.length);
+        out.write(new byte[]{0, (byte) (compressed ? 1 : 0), 0, 0, 0}, 0, 5);
+        out.write(body, 0, body.length);
+        return out.toByteArray();
+    }
+}
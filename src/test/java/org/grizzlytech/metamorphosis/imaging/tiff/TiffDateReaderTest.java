@@ -0,0 +1,89 @@
+package org.grizzlytech.metamorphosis.imaging.tiff;
+
+import org.grizzlytech.metamorphosis.FileMetadata;
+import org.grizzlytech.metamorphosis.test.TestUtil;
+import org.grizzlytech.metamorphosis.util.PositionalReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TiffDateReaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsRawHeaderOnly() throws Exception {
+        Path file = Files.write(dir.resolve("IMG_0001.NEF"), raw(ByteOrder.LITTLE_ENDIAN, 8 * 1024 * 1024));
+
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            PositionalReader reader = new PositionalReader(PositionalReader.DEFAULT_WINDOW).bind(channel);
+            ExifDates dates = TiffDateReader.readDates(reader, 0);
+            assertNotNull(dates);
+            assertNull(dates.getDateTime());
+            assertEquals(Instant.parse("2018-07-30T09:15:00Z"), dates.getDateTimeOriginal());
+            assertTrue(reader.getBytesRead() <= PositionalReader.DEFAULT_WINDOW);
+        }
+        assertEquals(Instant.parse("2018-07-30T09:15:00Z"), FileMetadata.getDateTaken(file.toFile()));
+        assertTrue(FileMetadata.IS_SUPPORTED.test(file.toFile()));
+    }
+
+    @Test
+    void followsIfdChain() throws Exception {
+        Path file = Files.write(dir.resolve("IMG_0002.CR2"), raw(ByteOrder.BIG_ENDIAN, 64));
+        ExifDates dates = TiffDateReader.readDates(file);
+        assertNotNull(dates);
+        assertEquals(Instant.parse("2018-07-30T09:15:00Z"), dates.getDateTimeOriginal());
+
+        assertNull(TiffDateReader.readDates(Files.write(dir.resolve("IMG_0003.ARW"), new byte[]{'I', 'I', 0, 0})));
+    }
+
+    @Test
+    void keepsOriginalWhenDateTimeIsBlank() throws Exception {
+        for (String blank : new String[]{"", "0000:00:00 00:00:00", "    :  :     :  :  "}) {
+            Path file = Files.write(dir.resolve("IMG_0004.DNG"),
+                    TestUtil.exifTiff(ByteOrder.LITTLE_ENDIAN, blank, "2018:07:30 09:15:00"));
+            ExifDates dates = TiffDateReader.readDates(file);
+            assertNotNull(dates, blank);
+            assertNull(dates.getDateTime());
+            assertEquals(Instant.parse("2018-07-30T09:15:00Z"), dates.getDateTimeOriginal());
+        }
+
+        // With neither date readable, the caller falls back
+        Path file = Files.write(dir.resolve("IMG_0005.DNG"), TestUtil.exifTiff(ByteOrder.BIG_ENDIAN, "", ""));
+        assertNull(TiffDateReader.readDates(file));
+    }
+
+    /**
+     * A RAW-like TIFF: a preview IFD0 without dates, linked to IFD1 holding the Exif pointer, then the image data
+     */
+    private static byte[] raw(ByteOrder order, int imageLength) {
+        final int IFD0 = 8, IFD1 = 26, EXIF_IFD = 44, DATE_TIME_ORIGINAL = 62, IMAGE = 82;
+        ByteBuffer buffer = ByteBuffer.allocate(IMAGE + imageLength).order(order);
+        buffer.put((order == ByteOrder.LITTLE_ENDIAN) ? new byte[]{'I', 'I'} : new byte[]{'M', 'M'});
+        buffer.putShort((short) 42).putInt(IFD0);
+        // IFD0: NewSubfileType only
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0x00FE).putShort((short) 4).putInt(1).putInt(1);
+        buffer.putInt(IFD1);
+        // IFD1: the Exif IFD pointer
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0x8769).putShort((short) 4).putInt(1).putInt(EXIF_IFD);
+        buffer.putInt(0);
+        // Exif IFD
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0x9003).putShort((short) 2).putInt(20).putInt(DATE_TIME_ORIGINAL);
+        buffer.putInt(0);
+        buffer.put("2018:07:30 09:15:00\0".getBytes(StandardCharsets.US_ASCII));
+        return buffer.array();
+    }
+}
@@ -0,0 +1,102 @@
+package org.grizzlytech.metamorphosis.rename;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RenameJournalTest {
+
+    private static final Instant DATE = Instant.parse("2018-07-31T12:00:00Z");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void resumesAfterCrashAndRollsBack() throws IOException {
+        List<RenameJournal.Move> plan = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Path source = Files.write(dir.resolve("DSC_000" + i + ".JPG"), new byte[100 + i]);
+            plan.add(move(source, dir.resolve("IMG_" + i + ".JPG")));
+        }
+        long originalModified = Files.getLastModifiedTime(plan.get(1).getSource()).toMillis();
+
+        // Crash after the plan is durable and the first move happened, but before its outcome was recorded
+        try (RenameJournal journal = RenameJournal.create(dir, plan)) {
+            assertEquals(3, journal.getPendingCount());
+        }
+        Files.move(plan.get(0).getSource(), plan.get(0).getTarget());
+
+        try (RenameJournal journal = RenameJournal.open(dir)) {
+            assertFalse(journal.isComplete());
+            assertEquals(0, journal.execute());
+            assertTrue(journal.isDone(0));
+        }
+        for (RenameJournal.Move move : plan) {
+            assertFalse(Files.exists(move.getSource()));
+            assertEquals(DATE.toEpochMilli(), Files.getLastModifiedTime(move.getTarget()).toMillis());
+        }
+
+        try (RenameJournal journal = RenameJournal.open(dir)) {
+            assertTrue(journal.isComplete());
+            assertEquals(0, journal.rollback());
+        }
+        for (RenameJournal.Move move : plan) {
+            assertTrue(Files.exists(move.getSource()));
+            assertFalse(Files.exists(move.getTarget()));
+        }
+        assertEquals(originalModified, Files.getLastModifiedTime(plan.get(1).getSource()).toMillis());
+    }
+
+    @Test
+    void renamesDirectoriesConcurrentlyInPlanOrder() throws IOException {
+        List<RenameJournal.Move> plan = new ArrayList<>();
+        for (int d = 0; d < 4; d++) {
+            Path sub = Files.createDirectory(dir.resolve("sub" + d));
+            // A chain within each directory: B must move to C before A can take B's name
+            Path a = Files.write(sub.resolve("A.JPG"), new byte[10]);
+            Path b = Files.write(sub.resolve("B.JPG"), new byte[20]);
+            plan.add(move(b, sub.resolve("C.JPG")));
+            plan.add(move(a, b));
+        }
+        try (RenameJournal journal = RenameJournal.create(dir, plan)) {
+            assertEquals(0, journal.execute(3));
+        }
+        for (int d = 0; d < 4; d++) {
+            Path sub = dir.resolve("sub" + d);
+            assertFalse(Files.exists(sub.resolve("A.JPG")));
+            assertEquals(10, Files.size(sub.resolve("B.JPG")));
+            assertEquals(20, Files.size(sub.resolve("C.JPG")));
+        }
+    }
+
+    @Test
+    void ignoresTornTail() throws IOException {
+        Path source = Files.write(dir.resolve("DSC_0001.JPG"), new byte[10]);
+        List<RenameJournal.Move> plan = new ArrayList<>();
+        plan.add(move(source, dir.resolve("IMG_1.JPG")));
+        try (RenameJournal journal = RenameJournal.create(dir, plan)) {
+            journal.execute();
+        }
+        Path journalFile = dir.resolve(RenameJournal.DEFAULT_FILE_NAME);
+        Files.write(journalFile, new byte[]{0, 0, 0, 9, 1, 2}, StandardOpenOption.APPEND);
+        try (RenameJournal journal = RenameJournal.open(dir)) {
+            assertTrue(journal.isComplete());
+            assertTrue(journal.isDone(0));
+        }
+    }
+
+    private static RenameJournal.Move move(Path source, Path target) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+        return new RenameJournal.Move(source, target, DATE, attrs, attrs.size());
+    }
+}
@@ -0,0 +1,63 @@
+package org.grizzlytech.metamorphosis.rename;
+
+import org.grizzlytech.metamorphosis.FileInfo;
+import org.grizzlytech.metamorphosis.test.TestUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RenamePlannerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void resolvesCyclesChainsAndOutsiders() throws IOException {
+        // A cycle (1000 <-> 1001), a chain (1003 -> 1002 -> free) and a name held by a file outside the rename
+        FileInfo[] files = {
+                create("IMG_20180731_1001.JPG", "2018:07:31 10:00:00", 1000),
+                create("IMG_20180731_1000.JPG", "2018:07:31 11:00:00", 1001),
+                create("IMG_20180731_1003.JPG", "2018:07:31 12:00:00", 1002),
+                create("DSC_0001.JPG", "2018:07:31 13:00:00", 1003),
+                create("DSC_0002.JPG", "2018:07:31 14:00:00", 1004)};
+        Files.write(dir.resolve("IMG_20180731_1004.JPG"), new byte[1]);
+
+        List<RenameJournal.Move> plan = RenamePlanner.plan(files, "IMG");
+        assertEquals("IMG_20180731_1004_1.JPG", files[4].getTargetFile().getName());
+
+        // One move per file, plus one through a temporary name to break the cycle
+        assertEquals(files.length + 1, plan.size());
+        assertEquals(1, plan.stream().filter(move -> !files[0].getTargetFile().toPath().toAbsolutePath()
+                .equals(move.getTarget()) && move.getSource().equals(files[0].getSourceFile().toPath()
+                .toAbsolutePath())).count());
+
+        try (RenameJournal journal = RenameJournal.create(dir, plan)) {
+            assertEquals(0, journal.execute());
+        }
+        for (FileInfo info : files) {
+            assertEquals(info.getFileLength(), Files.size(info.getTargetFile().toPath()));
+        }
+        try (Stream<Path> listing = Files.list(dir)) {
+            assertEquals(files.length + 2, listing.count()); // the outsider and the journal
+        }
+    }
+
+    private FileInfo create(String name, String date, int position) throws IOException {
+        // Pad each file to a distinct size, so the assertions can tell them apart
+        byte[] jpeg = TestUtil.jpeg(TestUtil.exifTiff(ByteOrder.BIG_ENDIAN, date, date));
+        byte[] padded = Arrays.copyOf(jpeg, jpeg.length + position - 1000);
+        FileInfo info = new FileInfo(Files.write(dir.resolve(name), padded).toFile());
+        info.extractDateTaken();
+        info.setPosition(position);
+        return info;
+    }
+}
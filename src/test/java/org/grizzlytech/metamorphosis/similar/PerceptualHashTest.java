@@ -0,0 +1,150 @@
+package org.grizzlytech.metamorphosis.similar;
+
+import org.grizzlytech.metamorphosis.FileInfo;
+import org.grizzlytech.metamorphosis.NearDuplicateFinder;
+import org.grizzlytech.metamorphosis.test.TestUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PerceptualHashTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void resizedCopiesHashClose() throws IOException {
+        BufferedImage photo = scene(800, 600, 1);
+        Path original = write("A.JPG", photo);
+        Path resized = write("B.JPG", resize(photo, 320, 240));
+        Path other = write("C.JPG", scene(800, 600, 2));
+
+        long a = PerceptualHash.hashOf(original);
+        assertTrue(PerceptualHash.distance(a, PerceptualHash.hashOf(resized)) <= 4);
+        assertTrue(PerceptualHash.distance(a, PerceptualHash.hashOf(other)) > 12);
+    }
+
+    @Test
+    void prefersExifThumbnail() throws IOException {
+        // A JPEG with no decodable image data, only an EXIF thumbnail
+        BufferedImage thumbnail = scene(160, 120, 3);
+        Path file = Files.write(dir.resolve("T.JPG"), TestUtil.jpeg(thumbnailTiff(encode(thumbnail))));
+
+        Long hash = PerceptualHash.hashOf(file);
+        assertNotNull(hash);
+        assertEquals(PerceptualHash.dHash(ImageIO.read(new ByteArrayInputStream(encode(thumbnail)))),
+                hash.longValue());
+    }
+
+    @Test
+    void groupsNearDuplicates() throws IOException {
+        BufferedImage photo = scene(800, 600, 4);
+        FileInfo original = new FileInfo(write("D.JPG", photo).toFile());
+        FileInfo resized = new FileInfo(write("E.JPG", resize(photo, 320, 240)).toFile());
+        FileInfo other = new FileInfo(write("F.JPG", scene(800, 600, 5)).toFile());
+        FileInfo thumbnailOnly = new FileInfo(Files.write(dir.resolve("G.JPG"),
+                TestUtil.jpeg(thumbnailTiff(encode(resize(photo, 160, 120))))).toFile());
+
+        List<List<FileInfo>> groups = NearDuplicateFinder.findNearDuplicates(
+                new FileInfo[]{other, resized, thumbnailOnly, original}, 6);
+        assertEquals(1, groups.size());
+        assertEquals(Set.of(original, resized, thumbnailOnly), new HashSet<>(groups.get(0)));
+    }
+
+    @Test
+    void treeSearchMatchesBruteForce() {
+        Random random = new Random(42);
+        BKTree tree = new BKTree();
+        long base = random.nextLong();
+        for (int i = 0; i < 5000; i++) {
+            // Cluster around base so that plenty of hashes fall within range
+            long noise = random.nextLong() & random.nextLong() & random.nextLong() & random.nextLong();
+            tree.add(base ^ noise);
+        }
+        for (int k : new int[]{0, 3, 8}) {
+            long query = base ^ (random.nextLong() & random.nextLong() & random.nextLong());
+            List<Integer> expected = new ArrayList<>();
+            for (int id = 0; id < tree.size(); id++) {
+                if (PerceptualHash.distance(tree.getHash(id), query) <= k) {
+                    expected.add(id);
+                }
+            }
+            List<Integer> found = new ArrayList<>();
+            tree.search(query, k, found::add);
+            found.sort(null);
+            assertEquals(expected, found, "k=" + k);
+        }
+    }
+
+    /**
+     * Smooth shapes, varying by seed
+     */
+    private static BufferedImage scene(int width, int height, int seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.DARK_GRAY, width, height, Color.LIGHT_GRAY));
+        g.fillRect(0, 0, width, height);
+        for (int i = 0; i < 6; i++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g.fillOval(random.nextInt(width), random.nextInt(height), width / 3, height / 3);
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = resized.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return resized;
+    }
+
+    private Path write(String name, BufferedImage image) throws IOException {
+        return Files.write(dir.resolve(name), encode(image));
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * TIFF with an empty IFD0 followed by an IFD1 pointing at the thumbnail
+     */
+    private static byte[] thumbnailTiff(byte[] thumbnail) {
+        final int IFD0 = 8, IFD1 = 14, DATA = IFD1 + 2 + 2 * 12 + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(DATA + thumbnail.length).order(ByteOrder.BIG_ENDIAN);
+        buffer.put(new byte[]{'M', 'M'}).putShort((short) 42).putInt(IFD0);
+        buffer.putShort((short) 0).putInt(IFD1);
+        buffer.putShort((short) 2);
+        buffer.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(DATA);
+        buffer.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+        buffer.putInt(0);
+        buffer.put(thumbnail);
+        return buffer.array();
+    }
+}
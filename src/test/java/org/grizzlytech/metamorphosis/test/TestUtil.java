@@ -5,7 +5,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.impl.SimpleLogger;
 
+import java.io.ByteArrayOutputStream;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 
 public class TestUtil {
 
@@ -32,4 +36,57 @@ public class TestUtil {
         }
     }
 
+    /**
+     * Build a minimal EXIF TIFF structure: IFD0 holding DateTime and an Exif IFD pointer,
+     * and an Exif IFD holding DateTimeOriginal
+     *
+     * @param order            byte order of the TIFF structure
+     * @param dateTime         IFD0 DateTime text (19 characters)
+     * @param dateTimeOriginal Exif DateTimeOriginal text (19 characters)
+     * @return the TIFF bytes, starting with the byte order mark
+     */
+    public static byte[] exifTiff(ByteOrder order, String dateTime, String dateTimeOriginal) {
+        final int IFD0 = 8, DATE_TIME = 38, EXIF_IFD = 58, DATE_TIME_ORIGINAL = 76, LENGTH = 96;
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH).order(order);
+        buffer.put((order == ByteOrder.LITTLE_ENDIAN) ? new byte[]{'I', 'I'} : new byte[]{'M', 'M'});
+        buffer.putShort((short) 42).putInt(IFD0);
+        // IFD0
+        buffer.putShort((short) 2);
+        buffer.putShort((short) 0x0132).putShort((short) 2).putInt(20).putInt(DATE_TIME);
+        buffer.putShort((short) 0x8769).putShort((short) 4).putInt(1).putInt(EXIF_IFD);
+        buffer.putInt(0);
+        buffer.put(ascii(dateTime));
+        // Exif IFD
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0x9003).putShort((short) 2).putInt(20).putInt(DATE_TIME_ORIGINAL);
+        buffer.putInt(0);
+        buffer.put(ascii(dateTimeOriginal));
+        return buffer.array();
+    }
+
+    /**
+     * Wrap an EXIF TIFF structure in a minimal JPEG (SOI, APP0 JFIF, APP1 Exif, SOS, EOI)
+     */
+    public static byte[] jpeg(byte[] tiff) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, new byte[]{(byte) 0xFF, (byte) 0xD8});
+        write(out, new byte[]{(byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+        int length = 2 + 6 + tiff.length;
+        write(out, new byte[]{(byte) 0xFF, (byte) 0xE1, (byte) (length >> 8), (byte) length});
+        write(out, new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        write(out, tiff);
+        write(out, new byte[]{(byte) 0xFF, (byte) 0xDA, 0, 2, (byte) 0xFF, (byte) 0xD9});
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] ascii(String text) {
+        byte[] bytes = new byte[20];
+        byte[] chars = text.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(chars, 0, bytes, 0, Math.min(chars.length, 19));
+        return bytes;
+    }
 }
@@ -0,0 +1,45 @@
+package org.grizzlytech.metamorphosis.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongIndexTest {
+
+    @Test
+    void groupsRowsByKeyInInsertionOrder() {
+        // Start small so the table has to grow several times
+        LongIndex index = new LongIndex(4);
+        int rows = 10_000;
+        for (int row = 0; row < rows; row++) {
+            // Every third key is shared by three rows; the rest are unique
+            long key = (row % 3 == 0) ? (1L << 40) | (row / 9) : -row;
+            index.insert(key, row);
+        }
+        assertEquals(rows, index.getRowCount());
+        assertEquals(0, index.size(Long.MAX_VALUE));
+        assertEquals(-1, index.firstRow(Long.MAX_VALUE));
+
+        List<List<Integer>> groups = new ArrayList<>();
+        index.forEachCollision((key, first, size) -> {
+            List<Integer> group = new ArrayList<>();
+            for (int row = first; row >= 0; row = index.nextRow(row)) {
+                assertEquals(key, (1L << 40) | (row / 9));
+                group.add(row);
+            }
+            assertEquals(size, group.size());
+            groups.add(group);
+        });
+        assertEquals(rows / 9, groups.size()); // the last shared key holds one row only
+        for (List<Integer> group : groups) {
+            int base = group.get(0);
+            if (group.size() == 3) {
+                assertEquals(List.of(base, base + 3, base + 6), group);
+            }
+        }
+        assertTrue(index.getMemoryBytes() > 0);
+    }
+}
@@ -0,0 +1,39 @@
+package org.grizzlytech.metamorphosis.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamChannelTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void seeksForwardAndBack() throws Exception {
+        byte[] content = new byte[200_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        Path file = Files.write(dir.resolve("IMG_0001.MOV"), content);
+
+        try (SeekableByteChannel channel = new StreamChannel(file, content.length)) {
+            PositionalReader reader = new PositionalReader(1024).bind(channel);
+            assertEquals(content.length, reader.size());
+            assertEquals(content[150_000] & 0xff, reader.getByte(150_000));
+            // Back to the start (re-opens the stream), then across a window boundary
+            assertEquals(content[10] & 0xff, reader.getByte(10));
+            assertArrayEquals(Arrays.copyOfRange(content, 1000, 5000), reader.getBytes(1000, 4000));
+            long expected = ((content[199_996] & 0xffL) << 24) | ((content[199_997] & 0xff) << 16) |
+                    ((content[199_998] & 0xff) << 8) | (content[199_999] & 0xff);
+            assertEquals(expected, reader.getInt(199_996, ByteOrder.BIG_ENDIAN));
+        }
+    }
+}
@@ -59,6 +59,7 @@ class TimeUtilTest {
 
         assertTrue(TimeUtil.withinASecond(baseline, baseline_plus_500ms));
         assertTrue(!TimeUtil.withinASecond(baseline, baseline_plus_2000ms));
+        assertTrue(!TimeUtil.withinASecond(baseline_plus_2000ms, baseline));
     }
 
     @Test
@@ -70,4 +71,17 @@ class TimeUtilTest {
         assertTrue(TimeUtil.withinAMinute(baseline, baseline_plus_20s));
         assertTrue(!TimeUtil.withinAMinute(baseline, baseline_plus_90s));
     }
-}
\ No newline at end of file
+
+    @Test
+    void parseDateTime() {
+        Instant expected = Instant.parse("2018-07-31T17:03:03Z");
+        assertEquals(expected, TimeUtil.parseDateTime("2018:07:31 17:03:03"));
+        assertEquals(expected, TimeUtil.parseDateTime("2018-07-31T17:03:03"));
+        // Offsets without a colon are ignored (as metadata-extractor does), hence local time recorded as UTC
+        assertEquals(expected, TimeUtil.parseDateTime("2018-07-31T17:03:03+0100"));
+        assertEquals(expected.minus(1, ChronoUnit.HOURS), TimeUtil.parseDateTime("2018-07-31T17:03:03+01:00"));
+        assertEquals(expected.plusMillis(250), TimeUtil.parseDateTime("2018:07:31 17:03:03.25"));
+        assertNull(TimeUtil.parseDateTime("0000:00:00 00:00:00"));
+        assertNull(TimeUtil.parseDateTime("    :  :     :  :  "));
+    }
+}